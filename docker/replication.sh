@@ -0,0 +1,3 @@
+#!/bin/bash
+# Runs once, when the primary's data volume is first initialized: lets db-replica stream WAL from it.
+echo "host replication all all scram-sha-256" >> "$PGDATA/pg_hba.conf"
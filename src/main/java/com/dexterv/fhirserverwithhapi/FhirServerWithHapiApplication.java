@@ -2,6 +2,7 @@ package com.dexterv.fhirserverwithhapi;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.GetMapping;
 
@@ -10,6 +11,7 @@ import org.springframework.web.bind.annotation.GetMapping;
                 org.springframework.boot.autoconfigure.thymeleaf.ThymeleafAutoConfiguration.class
         }
 )
+@ConfigurationPropertiesScan
 public class FhirServerWithHapiApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,15 @@
+package com.dexterv.fhirserverwithhapi.bulk;
+
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+
+/**
+ * Result of one bulk create: the new logical id, or the error that rejected the entry.
+ *
+ * @param index position of the entry in the request (Bundle entry or NDJSON line, 0-based)
+ */
+public record BulkEntryOutcome(int index, Long resourceId, BaseServerResponseException error) {
+
+    public boolean isCreated() {
+        return error == null;
+    }
+}
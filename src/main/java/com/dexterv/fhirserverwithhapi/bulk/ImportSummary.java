@@ -0,0 +1,10 @@
+package com.dexterv.fhirserverwithhapi.bulk;
+
+import java.util.List;
+
+/**
+ * Totals of an NDJSON import. Only the first failures are kept, see {@code fhir.bulk.max-reported-failures};
+ * their index is the 1-based line number.
+ */
+public record ImportSummary(long received, long created, long failed, List<BulkEntryOutcome> reportedFailures, long millis) {
+}
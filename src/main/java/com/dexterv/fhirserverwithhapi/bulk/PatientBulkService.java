@@ -0,0 +1,263 @@
+package com.dexterv.fhirserverwithhapi.bulk;
+
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import com.dexterv.fhirserverwithhapi.cache.PatientSearchResultCache;
+import com.dexterv.fhirserverwithhapi.changes.PatientChangeOutbox;
+import com.dexterv.fhirserverwithhapi.config.BulkProperties;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientValidationStatus;
+import com.dexterv.fhirserverwithhapi.mappers.PatientMapper;
+import com.dexterv.fhirserverwithhapi.repositories.PatientBulkRepository;
+import com.dexterv.fhirserverwithhapi.repositories.ResourceIdAllocator;
+import com.dexterv.fhirserverwithhapi.search.PatientNameIndex;
+import com.dexterv.fhirserverwithhapi.search.PatientSearchIndexRows;
+import com.dexterv.fhirserverwithhapi.search.PatientSearchParameterExtractor;
+import com.dexterv.fhirserverwithhapi.validation.PatientWriteValidator;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r5.model.Patient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates many Patients at once, for batch/transaction Bundles and NDJSON $import.
+ * <p>
+ * Per chunk: entries are parsed, checked against the business rules, spec-validated (per
+ * {@code fhir.validation.mode}), encoded and index-extracted in parallel; ids come from the sequence in one
+ * block; rows and search index rows are written with JDBC batch inserts in one transaction. A failing
+ * entry is reported and skipped, unless the caller asks for all-or-nothing.
+ * </p>
+ */
+@Slf4j
+@Component
+public class PatientBulkService {
+
+    private final PatientMapper patientMapper;
+    private final PatientWriteValidator writeValidator;
+    private final PatientSearchParameterExtractor extractor;
+    private final ResourceIdAllocator resourceIdAllocator;
+    private final PatientBulkRepository bulkRepository;
+    private final PatientNameIndex nameIndex;
+    private final PatientSearchResultCache searchResultCache;
+    private final PatientChangeOutbox changeOutbox;
+    private final TransactionTemplate transactionTemplate;
+    private final BulkProperties properties;
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    public PatientBulkService(PatientMapper patientMapper,
+                              PatientWriteValidator writeValidator,
+                              PatientSearchParameterExtractor extractor,
+                              ResourceIdAllocator resourceIdAllocator,
+                              PatientBulkRepository bulkRepository,
+                              PatientNameIndex nameIndex,
+                              PatientSearchResultCache searchResultCache,
+                              PatientChangeOutbox changeOutbox,
+                              TransactionTemplate transactionTemplate,
+                              BulkProperties properties) {
+        this.patientMapper = patientMapper;
+        this.writeValidator = writeValidator;
+        this.extractor = extractor;
+        this.resourceIdAllocator = resourceIdAllocator;
+        this.bulkRepository = bulkRepository;
+        this.nameIndex = nameIndex;
+        this.searchResultCache = searchResultCache;
+        this.changeOutbox = changeOutbox;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+        this.parallelism = properties.getParallelism() > 0
+                ? properties.getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "patient-bulk-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates the given Patients. With {@code atomic} nothing is written if any entry is invalid, and the write
+     * joins the caller's transaction, if any. Otherwise invalid entries are reported in the outcomes and
+     * the rest are written chunk by chunk, each chunk committed on its own.
+     *
+     * @return one outcome per patient, in order
+     */
+    public List<BulkEntryOutcome> createAll(List<Patient> patients, boolean atomic) {
+        List<BulkEntryOutcome> outcomes = new ArrayList<>(patients.size());
+        int chunkSize = atomic ? Math.max(1, patients.size()) : properties.getChunkSize();
+        for (int from = 0; from < patients.size(); from += chunkSize) {
+            List<Patient> chunk = patients.subList(from, Math.min(patients.size(), from + chunkSize));
+            List<Prepared> prepared = prepare(from, chunk, null);
+            if (atomic && prepared.stream().anyMatch(p -> p.error != null)) {
+                // nothing is written, the outcomes only name the entries that failed
+                return prepared.stream().map(p -> new BulkEntryOutcome(p.index, null, p.error)).toList();
+            }
+            outcomes.addAll(write(prepared));
+        }
+        return outcomes;
+    }
+
+    /**
+     * Imports Patients from NDJSON, one resource per line, chunk by chunk, so memory use does not depend on
+     * the size of the input. Blank lines are skipped but still counted, failures report 1-based line numbers.
+     */
+    public ImportSummary importNdjson(BufferedReader reader) {
+        long started = System.currentTimeMillis();
+        long received = 0;
+        long created = 0;
+        long failed = 0;
+        List<BulkEntryOutcome> reported = new ArrayList<>();
+        try {
+            int lineNumber = 0;
+            List<String> lines = new ArrayList<>(properties.getChunkSize());
+            List<Integer> lineNumbers = new ArrayList<>(properties.getChunkSize());
+            String line;
+            do {
+                line = reader.readLine();
+                lineNumber++;
+                if (line != null && !line.isBlank()) {
+                    lines.add(line);
+                    lineNumbers.add(lineNumber);
+                }
+                if (lines.size() == properties.getChunkSize() || (line == null && !lines.isEmpty())) {
+                    List<Prepared> prepared = prepare(0, null, lines);
+                    for (BulkEntryOutcome outcome : write(prepared)) {
+                        received++;
+                        if (outcome.isCreated()) {
+                            created++;
+                        } else {
+                            failed++;
+                            if (reported.size() < properties.getMaxReportedFailures()) {
+                                reported.add(new BulkEntryOutcome(lineNumbers.get(outcome.index()), null, outcome.error()));
+                            }
+                        }
+                    }
+                    lines.clear();
+                    lineNumbers.clear();
+                }
+            } while (line != null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long millis = System.currentTimeMillis() - started;
+        log.info("Patient import: {} received, {} created, {} failed in {} ms", received, created, failed, millis);
+        return new ImportSummary(received, created, failed, reported, millis);
+    }
+
+    /**
+     * Parses (when given lines), validates, encodes and extracts entries on the worker threads.
+     * Ids are allocated for the whole chunk up front, so the index rows can be built in the same pass;
+     * ids of entries that fail are simply not used.
+     */
+    private List<Prepared> prepare(int firstIndex, List<Patient> patients, List<String> lines) {
+        int size = patients != null ? patients.size() : lines.size();
+        List<Long> ids = resourceIdAllocator.allocate(size);
+        LocalDateTime now = LocalDateTime.now();
+
+        int slice = Math.max(1, (size + parallelism * 4 - 1) / (parallelism * 4));
+        List<Callable<List<Prepared>>> tasks = new ArrayList<>();
+        for (int from = 0; from < size; from += slice) {
+            int start = from;
+            int end = Math.min(size, from + slice);
+            tasks.add(() -> {
+                List<Prepared> result = new ArrayList<>(end - start);
+                for (int i = start; i < end; i++) {
+                    Patient patient = patients != null ? patients.get(i) : null;
+                    result.add(prepareOne(firstIndex + i, patient, lines != null ? lines.get(i) : null, ids.get(i), now));
+                }
+                return result;
+            });
+        }
+
+        List<Prepared> prepared = new ArrayList<>(size);
+        try {
+            for (Future<List<Prepared>> future : executor.invokeAll(tasks)) {
+                prepared.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalErrorException("Interrupted while validating bulk entries", e);
+        } catch (ExecutionException e) {
+            throw new InternalErrorException("Bulk entry preparation failed", e.getCause());
+        }
+        return prepared;
+    }
+
+    private Prepared prepareOne(int index, Patient patient, String line, long resourceId, LocalDateTime now) {
+        try {
+            if (patient == null) {
+                patient = patientMapper.newStorageParser().parseResource(Patient.class, line);
+            }
+            patientMapper.addGeneratedMrn(patient);
+            writeValidator.validateCustomRules(patient);
+            PatientValidationStatus validationStatus = writeValidator.validate(patient);
+
+            PatientEntity entity = PatientEntity.builder()
+                    .resourceId(resourceId)
+                    .version(1)
+                    .current(true)
+                    .validationStatus(validationStatus)
+                    .lastUpdated(now)
+                    .build();
+            patientMapper.writeResource(entity, patientMapper.toJson(patient));
+            return new Prepared(index, entity, extractor.extract(resourceId, patient), null);
+        } catch (BaseServerResponseException e) {
+            return new Prepared(index, null, null, e);
+        } catch (DataFormatException | ClassCastException e) {
+            return new Prepared(index, null, null, new InvalidRequestException("Entry is not a valid Patient: " + e.getMessage()));
+        }
+    }
+
+    private List<BulkEntryOutcome> write(List<Prepared> prepared) {
+        List<PatientEntity> rows = new ArrayList<>(prepared.size());
+        List<PatientSearchIndexRows> indexRows = new ArrayList<>(prepared.size());
+        List<BulkEntryOutcome> outcomes = new ArrayList<>(prepared.size());
+        for (Prepared p : prepared) {
+            if (p.error == null) {
+                rows.add(p.entity);
+                indexRows.add(p.indexRows);
+                outcomes.add(new BulkEntryOutcome(p.index, p.entity.getResourceId(), null));
+            } else {
+                outcomes.add(new BulkEntryOutcome(p.index, null, p.error));
+            }
+        }
+        if (!rows.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> {
+                bulkRepository.insertAll(rows, indexRows);
+                changeOutbox.recordCreated(rows);
+                for (int i = 0; i < rows.size(); i++) {
+                    long resourceId = rows.get(i).getResourceId();
+                    nameIndex.replaceAfterCommit(resourceId, List.of(),
+                            PatientNameIndex.terms(resourceId, indexRows.get(i).strings()));
+                }
+                searchResultCache.invalidateAfterCommit();
+            });
+        }
+        return outcomes;
+    }
+
+    private record Prepared(int index, PatientEntity entity, PatientSearchIndexRows indexRows, BaseServerResponseException error) {
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
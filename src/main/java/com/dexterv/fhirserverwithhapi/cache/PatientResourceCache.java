@@ -0,0 +1,228 @@
+package com.dexterv.fhirserverwithhapi.cache;
+
+import com.dexterv.fhirserverwithhapi.codec.ResourceCodecs;
+import com.dexterv.fhirserverwithhapi.config.PatientCacheProperties;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.hl7.fhir.r5.model.Patient;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Size-bounded LRU cache of parsed Patients keyed by (resourceId, version), plus a short-lived
+ * "resourceId -> current version" mapping so reads without a version can skip the database.
+ * <p>
+ * A stored version is immutable, so versioned entries only leave the cache through eviction.
+ * Callers always get their own copy: HAPI and the provider modify the resources they return.
+ * The cache is split into independently locked segments so concurrent readers do not serialize
+ * on one lock; each segment gets an equal share of the entry and byte limits.
+ * </p>
+ */
+@Component
+public class PatientResourceCache implements MeterBinder {
+
+    private static final int SEGMENTS = 16;
+
+    private final boolean enabled;
+    private final long currentVersionTtlNanos;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final Map<Long, CurrentVersion> currentVersions = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PatientResourceCache(PatientCacheProperties properties) {
+        this.enabled = properties.isEnabled();
+        this.currentVersionTtlNanos = properties.getCurrentVersionTtl().toNanos();
+        int maxEntries = Math.max(1, properties.getMaxEntries() / SEGMENTS);
+        long maxBytes = Math.max(1, properties.getMaxBytes() / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxEntries, maxBytes);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns a copy of the cached version of this row, parsing and caching it on a miss.
+     */
+    public Patient get(PatientEntity entity, Function<PatientEntity, Patient> parser) {
+        if (!enabled) {
+            return parser.apply(entity);
+        }
+        VersionKey key = new VersionKey(entity.getResourceId(), entity.getVersion());
+        Patient cached = segment(key).get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached.copy();
+        }
+        misses.increment();
+        Patient parsed = parser.apply(entity);
+        segment(key).put(key, parsed.copy(), ResourceCodecs.jsonLength(entity));
+        return parsed;
+    }
+
+    /**
+     * Returns a copy of a cached version, or null when it is not cached. A null is not counted as a miss,
+     * the caller falls back to the database and {@link #get(PatientEntity, Function)}, which counts it.
+     */
+    public Patient get(long resourceId, int version) {
+        if (!enabled) {
+            return null;
+        }
+        VersionKey key = new VersionKey(resourceId, version);
+        Patient cached = segment(key).get(key);
+        if (cached == null) {
+            return null;
+        }
+        hits.increment();
+        return cached.copy();
+    }
+
+    /**
+     * Caches a version that was just written, so the first read after a write does not parse.
+     */
+    public void put(long resourceId, int version, Patient patient, int jsonLength) {
+        if (enabled) {
+            VersionKey key = new VersionKey(resourceId, version);
+            segment(key).put(key, patient.copy(), jsonLength);
+        }
+    }
+
+    /**
+     * The current version of a resource, if it was looked up recently enough to be trusted.
+     */
+    public Integer getCurrentVersion(long resourceId) {
+        if (!enabled) {
+            return null;
+        }
+        CurrentVersion current = currentVersions.get(resourceId);
+        if (current == null || System.nanoTime() - current.expiresAt() > 0) {
+            return null;
+        }
+        return current.version();
+    }
+
+    /**
+     * Records the current version read from the database. Ignored when a newer version has been written
+     * since, so a read racing with an update cannot install a stale mapping.
+     */
+    public void putCurrentVersion(long resourceId, int version) {
+        if (!enabled) {
+            return;
+        }
+        CurrentVersion fresh = new CurrentVersion(version, System.nanoTime() + currentVersionTtlNanos);
+        currentVersions.merge(resourceId, fresh, (existing, candidate) ->
+                existing.version() > candidate.version() ? existing : candidate);
+    }
+
+    /**
+     * Called after a new version is committed: drops the current mapping but remembers the new
+     * version as a floor for {@link #putCurrentVersion}.
+     */
+    public void invalidateCurrentVersion(long resourceId, int newVersion) {
+        if (enabled) {
+            currentVersions.put(resourceId, new CurrentVersion(newVersion, System.nanoTime()));
+        }
+    }
+
+    public CacheStats stats() {
+        long entries = 0;
+        long bytes = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                entries += segment.entries.size();
+                bytes += segment.bytes;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), entries, bytes);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("fhir.cache.patient.hits", hits, LongAdder::sum).register(registry);
+        FunctionCounter.builder("fhir.cache.patient.misses", misses, LongAdder::sum).register(registry);
+        FunctionCounter.builder("fhir.cache.patient.evictions", evictions, LongAdder::sum).register(registry);
+        Gauge.builder("fhir.cache.patient.entries", this, c -> c.stats().entries()).register(registry);
+        Gauge.builder("fhir.cache.patient.bytes", this, c -> c.stats().bytes()).baseUnit("bytes").register(registry);
+    }
+
+    private Segment segment(VersionKey key) {
+        return segments[Math.floorMod(key.hashCode(), SEGMENTS)];
+    }
+
+    public record CacheStats(long hits, long misses, long evictions, long entries, long bytes) {
+    }
+
+    private record VersionKey(long resourceId, int version) {
+    }
+
+    private record CurrentVersion(int version, long expiresAt) {
+    }
+
+    private record CachedPatient(Patient patient, int weight) {
+    }
+
+    private final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        // access order, so the eldest entry is the least recently used one
+        private final LinkedHashMap<VersionKey, CachedPatient> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private final int maxEntries;
+        private final long maxBytes;
+        private long bytes;
+
+        private Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        Patient get(VersionKey key) {
+            lock.lock();
+            try {
+                CachedPatient cached = entries.get(key);
+                return cached == null ? null : cached.patient();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(VersionKey key, Patient patient, int weight) {
+            if (weight > maxBytes) {
+                return;
+            }
+            lock.lock();
+            try {
+                CachedPatient previous = entries.put(key, new CachedPatient(patient, weight));
+                if (previous != null) {
+                    bytes -= previous.weight();
+                }
+                bytes += weight;
+
+                Iterator<CachedPatient> eldest = entries.values().iterator();
+                while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+                    bytes -= eldest.next().weight();
+                    eldest.remove();
+                    evictions.increment();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
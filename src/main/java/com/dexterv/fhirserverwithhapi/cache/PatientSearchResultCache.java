@@ -0,0 +1,182 @@
+package com.dexterv.fhirserverwithhapi.cache;
+
+import com.dexterv.fhirserverwithhapi.config.SearchCacheProperties;
+import com.dexterv.fhirserverwithhapi.routing.ReplicaRouter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU cache of Patient search results keyed by the normalized search parameters: the match count, plus the
+ * ascending resource ids when there are at most fhir.cache.search.max-ids of them.
+ * <p>
+ * Invalidation is by write generation. Every committed write that changes what searches match bumps one
+ * counter, and an entry is only used while the counter still has the value it had before the search read
+ * anything, so a result can never be older than the last write on this server. Entries also expire after
+ * fhir.cache.search.ttl to pick up writes made through other instances. Results read from a replica or
+ * inside a transaction are not stored, they may not show every committed write.
+ * </p>
+ */
+@Component
+public class PatientSearchResultCache implements MeterBinder {
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final int maxIds;
+    private final long ttlNanos;
+    private final AtomicLong generation = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+    // access order, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PatientSearchResultCache(SearchCacheProperties properties) {
+        this.enabled = properties.isEnabled();
+        this.maxEntries = Math.max(1, properties.getMaxEntries());
+        this.maxIds = Math.max(0, properties.getMaxIds());
+        this.ttlNanos = properties.getTtl().toNanos();
+    }
+
+    /**
+     * Starts a search: takes the write generation before anything is read. Null when the cache is off.
+     */
+    public Ticket ticket(String key) {
+        return enabled ? new Ticket(key, generation.get()) : null;
+    }
+
+    /**
+     * Marks every cached result as outdated once the current transaction commits (or right away without
+     * one). Must be registered after any other after-commit work that searches depend on, such as the name
+     * index update, so no search can store a result from before that work under the new generation.
+     */
+    public void invalidateAfterCommit() {
+        if (!enabled) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    generation.incrementAndGet();
+                }
+            });
+        } else {
+            generation.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("fhir.cache.search.hits", hits, LongAdder::sum).register(registry);
+        FunctionCounter.builder("fhir.cache.search.misses", misses, LongAdder::sum).register(registry);
+        FunctionCounter.builder("fhir.cache.search.evictions", evictions, LongAdder::sum).register(registry);
+        Gauge.builder("fhir.cache.search.entries", this, PatientSearchResultCache::size).register(registry);
+    }
+
+    private int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A cached search result.
+     *
+     * @param resourceIds ascending ids of every match, or null when only the count is known
+     */
+    public record Hit(int count, long[] resourceIds) {
+    }
+
+    private record Entry(long generation, long expiresAt, int count, long[] resourceIds) {
+    }
+
+    /**
+     * One search's view of the cache, remembering the generation it started at.
+     */
+    public final class Ticket {
+        private final String key;
+        private final long startGeneration;
+
+        private Ticket(String key, long startGeneration) {
+            this.key = key;
+            this.startGeneration = startGeneration;
+        }
+
+        /**
+         * The cached result, if one was stored since the last write and has not expired.
+         */
+        public Hit cached() {
+            lock.lock();
+            try {
+                Entry entry = entries.get(key);
+                if (entry != null && (entry.generation() != generation.get() || System.nanoTime() - entry.expiresAt() > 0)) {
+                    entries.remove(key);
+                    entry = null;
+                }
+                // an entry stored after this search started may already reflect writes it must not mix with
+                if (entry == null || entry.generation() != startGeneration) {
+                    misses.increment();
+                    return null;
+                }
+                hits.increment();
+                return new Hit(entry.count(), entry.resourceIds());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Largest result whose ids are worth storing.
+         */
+        public int maxIds() {
+            return maxIds;
+        }
+
+        /**
+         * Stores a result computed after this ticket was taken. A result with ids replaces one with only the
+         * count; nothing is stored once a write has happened since the ticket was taken.
+         *
+         * @param resourceIds ascending, or null to store only the count
+         */
+        public void store(int count, long[] resourceIds) {
+            if (generation.get() != startGeneration
+                    || ReplicaRouter.isReadingFromReplica()
+                    || TransactionSynchronizationManager.isActualTransactionActive()) {
+                return;
+            }
+            long[] ids = resourceIds != null && resourceIds.length <= maxIds ? resourceIds : null;
+            lock.lock();
+            try {
+                Entry existing = entries.get(key);
+                if (ids == null && existing != null && existing.generation() == startGeneration && existing.resourceIds() != null) {
+                    return;
+                }
+                entries.put(key, new Entry(startGeneration, System.nanoTime() + ttlNanos, count, ids));
+                Iterator<Entry> eldest = entries.values().iterator();
+                while (entries.size() > maxEntries && eldest.hasNext()) {
+                    eldest.next();
+                    eldest.remove();
+                    evictions.increment();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.dexterv.fhirserverwithhapi.changes;
+
+/**
+ * One entry of the Patient change feed as consumers see it. The resource itself is not included: consumers
+ * read the version they need, and a change they are late for has usually been superseded anyway.
+ *
+ * @param offset      position in the feed, gapless and in commit order; resume after it
+ * @param type        "create" or "update"
+ * @param resource    versioned reference, e.g. {@code Patient/12/_history/3}
+ * @param lastUpdated lastUpdated of the version, as an ISO-8601 instant like {@code meta.lastUpdated}
+ */
+public record PatientChangeEvent(long offset, String type, String resource, String id, String versionId,
+                                 String lastUpdated) {
+}
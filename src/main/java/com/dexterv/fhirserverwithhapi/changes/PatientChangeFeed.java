@@ -0,0 +1,262 @@
+package com.dexterv.fhirserverwithhapi.changes;
+
+import com.dexterv.fhirserverwithhapi.config.ChangeFeedProperties;
+import com.dexterv.fhirserverwithhapi.repositories.PatientChangeRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The Patient change feed: turns committed {@code patient_changes} outbox rows into a gapless, ordered sequence
+ * of offsets that subscribers read and resume from.
+ * <p>
+ * Outbox rows get their offset from a relay thread, not when they are written: concurrent writers commit in a
+ * different order than they insert, so an offset taken at insert time could become visible after a larger one
+ * a consumer has already moved past. The relay locks the "feed" cursor row, numbers the committed rows that have
+ * no offset yet and commits, so offsets become visible strictly in order, also with several server instances.
+ * Local writes wake the relay when they commit; changes written through other instances are found by polling
+ * every fhir.changes.poll-interval.
+ * </p>
+ * Subscribers never get events pushed into a queue: each one reads the table from its own offset at its own pace
+ * and waits here when it has caught up. A slow consumer only falls behind, it cannot make the server buffer.
+ * Event streams wait on their own thread; long-polling requests register a future instead, so a waiting request
+ * holds no thread.
+ */
+@Slf4j
+@Component
+public class PatientChangeFeed implements MeterBinder {
+
+    static final String FEED_CURSOR = "feed";
+    private static final long CLEANUP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final PatientChangeRepository changeRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ChangeFeedProperties properties;
+
+    private final Semaphore wakeups = new Semaphore(0);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition advanced = lock.newCondition();
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+    private volatile long head = -1;
+    private volatile boolean running;
+    private Thread relay;
+    private long lastCleanup = System.nanoTime();
+
+    public PatientChangeFeed(PatientChangeRepository changeRepository,
+                             TransactionTemplate transactionTemplate,
+                             ChangeFeedProperties properties) {
+        this.changeRepository = changeRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        changeRepository.createCursor(FEED_CURSOR, 0);
+        advanceTo(changeRepository.findCursor(FEED_CURSOR).orElse(0L));
+        running = true;
+        relay = new Thread(this::relayLoop, "patient-change-feed");
+        relay.setDaemon(true);
+        relay.start();
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * The last offset assigned, as of the relay's latest round.
+     */
+    public long head() {
+        return head;
+    }
+
+    /**
+     * Up to {@code limit} changes after the given offset, in offset order.
+     *
+     * @throws ChangesGoneException when changes after the offset were already deleted
+     */
+    public List<PatientChangeEvent> read(long after, int limit) {
+        List<PatientChangeEvent> events = changeRepository.findAfter(after, limit);
+        long expected = after + 1;
+        if (events.isEmpty() ? after < head && isPruned(after) : events.get(0).offset() != expected) {
+            throw new ChangesGoneException(after);
+        }
+        return events;
+    }
+
+    private boolean isPruned(long after) {
+        Long first = changeRepository.findFirstOffset();
+        return first == null || first > after + 1;
+    }
+
+    /**
+     * Waits until the feed has changes after {@code offset}.
+     *
+     * @return false if none arrived within the timeout
+     */
+    public boolean awaitAfter(long offset, Duration timeout) throws InterruptedException {
+        long nanos = timeout.toNanos();
+        lock.lock();
+        try {
+            while (head <= offset) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = advanced.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Completes once the feed has changes after {@code offset}. Cancelling the future stops the wait; it is
+     * completed on the relay thread, so dependent work belongs on another executor.
+     */
+    public CompletableFuture<Void> advancedAfter(long offset) {
+        Waiter waiter = new Waiter(offset, new CompletableFuture<>());
+        lock.lock();
+        try {
+            if (head > offset) {
+                waiter.future().complete(null);
+                return waiter.future();
+            }
+            waiters.add(waiter);
+        } finally {
+            lock.unlock();
+        }
+        waiter.future().whenComplete((ignored, e) -> waiters.remove(waiter));
+        return waiter.future();
+    }
+
+    /**
+     * Asks the relay to pick up changes that just committed.
+     */
+    void wakeUp() {
+        wakeups.release();
+    }
+
+    private void relayLoop() {
+        long pollMillis = properties.getPollInterval().toMillis();
+        while (running) {
+            try {
+                wakeups.tryAcquire(pollMillis, TimeUnit.MILLISECONDS);
+                wakeups.drainPermits();
+                relayCommitted();
+                if (System.nanoTime() - lastCleanup > CLEANUP_INTERVAL_NANOS) {
+                    lastCleanup = System.nanoTime();
+                    deleteExpired();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // keep relaying, the rows keep their missing offset and are numbered next round
+                log.error("Patient change feed relay failed", e);
+            }
+        }
+    }
+
+    private void relayCommitted() {
+        int batchSize = properties.getBatchSize();
+        int assigned;
+        do {
+            long[] last = new long[1];
+            assigned = transactionTemplate.execute(tx -> {
+                last[0] = changeRepository.lockCursor(FEED_CURSOR);
+                List<Long> ids = changeRepository.findUnassigned(batchSize);
+                if (!ids.isEmpty()) {
+                    changeRepository.assignOffsets(ids, last[0] + 1);
+                    last[0] += ids.size();
+                    changeRepository.updateCursor(FEED_CURSOR, last[0]);
+                }
+                return ids.size();
+            });
+            // committed, so subscribers can read up to here
+            advanceTo(last[0]);
+        } while (assigned == batchSize && running);
+    }
+
+    private void advanceTo(long offset) {
+        if (offset <= head) {
+            return;
+        }
+        List<Waiter> arrived = new ArrayList<>();
+        lock.lock();
+        try {
+            head = offset;
+            advanced.signalAll();
+            for (Waiter waiter : waiters) {
+                if (waiter.offset() < offset) {
+                    arrived.add(waiter);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        arrived.forEach(waiter -> waiter.future().complete(null));
+    }
+
+    /**
+     * Deletes changes older than fhir.changes.retention that every configured REST hook has received.
+     */
+    private void deleteExpired() {
+        List<String> hookCursors = properties.getHooks().stream().map(hook -> PatientChangeHookDispatcher.cursorName(hook.getName())).toList();
+        Long delivered = changeRepository.findMinCursor(hookCursors);
+        long upTo = delivered == null ? head : Math.min(delivered, head);
+        int deleted = changeRepository.deleteDelivered(upTo, LocalDateTime.now().minus(properties.getRetention()));
+        if (deleted > 0) {
+            log.debug("Deleted {} expired Patient changes", deleted);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("fhir.changes.head", this, PatientChangeFeed::head)
+                .description("Last offset assigned in the Patient change feed")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (relay != null) {
+            relay.interrupt();
+        }
+    }
+
+    private record Waiter(long offset, CompletableFuture<Void> future) {
+    }
+
+    /**
+     * The consumer's position is older than the oldest change kept; it has to resynchronize.
+     */
+    public static class ChangesGoneException extends RuntimeException {
+        public ChangesGoneException(long offset) {
+            super("Changes after offset " + offset + " are no longer available, resynchronize and start from the current offset");
+        }
+    }
+}
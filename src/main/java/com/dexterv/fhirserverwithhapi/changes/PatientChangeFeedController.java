@@ -0,0 +1,206 @@
+package com.dexterv.fhirserverwithhapi.changes;
+
+import com.dexterv.fhirserverwithhapi.config.ChangeFeedProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Subscriber endpoints of the Patient change feed, next to (not inside) the FHIR servlet at /fhir:
+ * <ul>
+ *     <li>{@code GET /changes/Patient} with {@code Accept: text/event-stream}: server-sent events, one
+ *     {@code patient} event per change with the offset as event id. Browsers' EventSource resumes by itself via
+ *     Last-Event-ID; other clients pass {@code ?since=<offset>}. Without either the stream starts at the current
+ *     end of the feed.</li>
+ *     <li>{@code GET /changes/Patient?since=<offset>&wait=<seconds>} with {@code Accept: application/json}: one
+ *     page of changes and the offset to continue from, waiting up to {@code wait} seconds for the first one.
+ *     The wait is asynchronous: no thread is held until the feed advances or the wait times out.</li>
+ * </ul>
+ * Each stream reads batches from the database on its own thread and writes them with blocking sends, so a slow
+ * client slows down its own reads instead of piling up events in memory.
+ */
+@Slf4j
+@RestController
+public class PatientChangeFeedController implements MeterBinder {
+
+    private final PatientChangeFeed feed;
+    private final ChangeFeedProperties properties;
+    private final Semaphore streams;
+    private final ExecutorService executor;
+    private final ExecutorService pollExecutor;
+
+    public PatientChangeFeedController(PatientChangeFeed feed, ChangeFeedProperties properties) {
+        this.feed = feed;
+        this.properties = properties;
+        this.streams = new Semaphore(properties.getMaxSubscribers());
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "patient-change-stream-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // woken long polls read their page here, so a burst of them queues instead of starting a thread each
+        AtomicInteger pollThreads = new AtomicInteger();
+        this.pollExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "patient-change-poll-" + pollThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @GetMapping(path = "/changes/Patient", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId,
+                             @RequestParam(required = false) Long since) {
+        requireEnabled();
+        long start = lastEventId != null ? lastEventId : since != null ? since : feed.head();
+        List<PatientChangeEvent> first = read(start, properties.getBatchSize());
+        if (!streams.tryAcquire()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many change feed subscribers");
+        }
+        SseEmitter emitter = new SseEmitter(properties.getStreamTimeout().toMillis());
+        AtomicBoolean open = new AtomicBoolean(true);
+        emitter.onCompletion(() -> open.set(false));
+        emitter.onTimeout(() -> {
+            open.set(false);
+            emitter.complete();
+        });
+        emitter.onError(e -> open.set(false));
+        try {
+            executor.execute(() -> {
+                try {
+                    send(emitter, open, start, first);
+                } finally {
+                    streams.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            streams.release();
+            throw e;
+        }
+        return emitter;
+    }
+
+    private void send(SseEmitter emitter, AtomicBoolean open, long start, List<PatientChangeEvent> first) {
+        int batchSize = properties.getBatchSize();
+        long offset = start;
+        List<PatientChangeEvent> events = first;
+        try {
+            while (open.get()) {
+                for (PatientChangeEvent event : events) {
+                    emitter.send(SseEmitter.event()
+                            .id(Long.toString(event.offset()))
+                            .name("patient")
+                            .data(event, MediaType.APPLICATION_JSON));
+                    offset = event.offset();
+                }
+                if (events.size() < batchSize && !feed.awaitAfter(offset, properties.getHeartbeatInterval())) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                }
+                events = feed.read(offset, batchSize);
+            }
+        } catch (IOException | IllegalStateException e) {
+            // client went away or the stream timed out; it resumes with Last-Event-ID
+            log.debug("Change feed stream closed at offset {}: {}", offset, e.getMessage());
+        } catch (PatientChangeFeed.ChangesGoneException e) {
+            emitter.completeWithError(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            emitter.complete();
+        }
+    }
+
+    @GetMapping(path = "/changes/Patient", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ChangePage> poll(@RequestParam(required = false) Long since,
+                                           @RequestParam(required = false) Integer limit,
+                                           @RequestParam(defaultValue = "0") int wait) {
+        requireEnabled();
+        long after = since != null ? since : feed.head();
+        int count = limit == null ? properties.getBatchSize() : Math.max(1, Math.min(limit, properties.getBatchSize()));
+        List<PatientChangeEvent> events = read(after, count);
+        if (!events.isEmpty() || wait <= 0) {
+            DeferredResult<ChangePage> result = new DeferredResult<>();
+            result.setResult(page(events, after));
+            return result;
+        }
+
+        // the servlet thread is released while waiting; the page is read once the feed advances
+        Duration timeout = Duration.ofSeconds(wait);
+        if (timeout.compareTo(properties.getMaxWait()) > 0) {
+            timeout = properties.getMaxWait();
+        }
+        DeferredResult<ChangePage> result = new DeferredResult<>(timeout.toMillis(), page(List.of(), after));
+        CompletableFuture<Void> advanced = feed.advancedAfter(after);
+        result.onCompletion(() -> advanced.cancel(false));
+        advanced.thenRunAsync(() -> {
+            try {
+                result.setResult(page(read(after, count), after));
+            } catch (RuntimeException e) {
+                result.setErrorResult(e);
+            }
+        }, pollExecutor).exceptionally(e -> {
+            // a cancelled wait has already been answered, so this only reports a rejected task
+            result.setErrorResult(e);
+            return null;
+        });
+        return result;
+    }
+
+    private static ChangePage page(List<PatientChangeEvent> events, long after) {
+        long next = events.isEmpty() ? after : events.get(events.size() - 1).offset();
+        return new ChangePage(events, next);
+    }
+
+    private List<PatientChangeEvent> read(long after, int limit) {
+        try {
+            return feed.read(after, limit);
+        } catch (PatientChangeFeed.ChangesGoneException e) {
+            throw new ResponseStatusException(HttpStatus.GONE, e.getMessage());
+        }
+    }
+
+    private void requireEnabled() {
+        if (!feed.isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "The change feed is disabled (fhir.changes.enabled)");
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("fhir.changes.subscribers", streams, s -> properties.getMaxSubscribers() - s.availablePermits())
+                .description("Open change feed event streams")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        pollExecutor.shutdownNow();
+    }
+
+    /**
+     * A page of changes; pass {@code next} as {@code since} to get the following one.
+     */
+    public record ChangePage(List<PatientChangeEvent> events, long next) {
+    }
+}
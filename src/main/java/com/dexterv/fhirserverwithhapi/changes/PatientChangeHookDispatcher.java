@@ -0,0 +1,255 @@
+package com.dexterv.fhirserverwithhapi.changes;
+
+import com.dexterv.fhirserverwithhapi.config.ChangeFeedProperties;
+import com.dexterv.fhirserverwithhapi.config.ChangeFeedProperties.Hook;
+import com.dexterv.fhirserverwithhapi.repositories.PatientChangeRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivers the Patient change feed to the configured REST hooks, in the spirit of FHIR rest-hook subscriptions:
+ * each hook gets POSTs of {@code {"hook": name, "events": [...]}} with up to fhir.changes.batch-size changes,
+ * in offset order, at least once.
+ * <p>
+ * Every hook has its own thread and its own cursor row. An instance leases the row for fhir.changes.hook-lease
+ * in one short statement, posts the batch outside any transaction and then advances the cursor, renewing the
+ * lease, in a second one, so a slow hook never holds a pooled connection. The cursor only moves once the hook
+ * answered 2xx and while the lease is still held, so with several server instances one of them delivers to a hook
+ * at a time and a failed or interrupted delivery is repeated from the same offset. A failing hook is retried with
+ * exponential backoff and holds back nothing but itself.
+ * </p>
+ */
+@Slf4j
+@Component
+public class PatientChangeHookDispatcher implements MeterBinder {
+
+    private static final String CURSOR_PREFIX = "hook:";
+
+    private final PatientChangeFeed feed;
+    private final PatientChangeRepository changeRepository;
+    private final ObjectMapper objectMapper;
+    private final ChangeFeedProperties properties;
+    private final List<HookState> hooks;
+    private final HttpClient httpClient;
+    // holder of this instance's leases
+    private final String owner = UUID.randomUUID().toString();
+    private ExecutorService executor;
+
+    public PatientChangeHookDispatcher(PatientChangeFeed feed,
+                                       PatientChangeRepository changeRepository,
+                                       ObjectMapper objectMapper,
+                                       ChangeFeedProperties properties) {
+        this.feed = feed;
+        this.changeRepository = changeRepository;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        for (Hook hook : properties.getHooks()) {
+            if (hook.getName() == null || hook.getUrl() == null) {
+                throw new IllegalStateException("Every fhir.changes.hooks entry needs a name and a url");
+            }
+        }
+        if (properties.getHookLease().compareTo(properties.getHookTimeout()) <= 0) {
+            throw new IllegalStateException("fhir.changes.hook-lease must be longer than fhir.changes.hook-timeout");
+        }
+        this.hooks = properties.getHooks().stream().map(HookState::new).toList();
+        this.httpClient = HttpClient.newBuilder().connectTimeout(properties.getHookTimeout()).build();
+    }
+
+    static String cursorName(String hookName) {
+        return CURSOR_PREFIX + hookName;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (!properties.isEnabled() || hooks.isEmpty()) {
+            return;
+        }
+        // a new hook starts at the current end of the feed rather than replaying the retained changes
+        long start = changeRepository.findCursor(PatientChangeFeed.FEED_CURSOR).orElse(0L);
+        executor = Executors.newFixedThreadPool(hooks.size(), r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (HookState hook : hooks) {
+            changeRepository.createCursor(hook.cursor, start);
+            hook.delivered = changeRepository.findCursor(hook.cursor).orElse(start);
+            executor.submit(() -> {
+                Thread.currentThread().setName("patient-change-hook-" + hook.hook.getName());
+                run(hook);
+            });
+        }
+    }
+
+    private void run(HookState hook) {
+        long backoff = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Optional<Integer> delivered = deliverBatch(hook);
+                backoff = 0;
+                if (delivered.isEmpty()) {
+                    // another instance is delivering to this hook
+                    Thread.sleep(properties.getPollInterval().toMillis());
+                } else if (delivered.get() == 0) {
+                    feed.awaitAfter(hook.delivered, properties.getPollInterval());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                hook.failures.increment();
+                backoff = backoff == 0 ? properties.getPollInterval().toMillis()
+                        : Math.min(backoff * 2, properties.getHookMaxBackoff().toMillis());
+                log.warn("Delivering Patient changes after offset {} to hook {} failed, retrying in {} ms: {}",
+                        hook.delivered, hook.hook.getName(), backoff, e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Posts the next batch while holding the lease on the hook's cursor.
+     *
+     * @return the number of changes delivered, or empty when another instance holds the cursor
+     */
+    private Optional<Integer> deliverBatch(HookState hook) {
+        LocalDateTime now = LocalDateTime.now();
+        Optional<Long> cursor = changeRepository.tryLeaseCursor(hook.cursor, owner, now, now.plus(properties.getHookLease()));
+        if (cursor.isEmpty()) {
+            return Optional.empty();
+        }
+        hook.delivered = cursor.get();
+        List<PatientChangeEvent> events;
+        try {
+            events = feed.read(hook.delivered, properties.getBatchSize());
+        } catch (PatientChangeFeed.ChangesGoneException e) {
+            // only possible after the hook was left out of the configuration for longer than the retention
+            log.warn("Hook {} missed Patient changes that are no longer kept, continuing from offset {}",
+                    hook.hook.getName(), feed.head());
+            return advance(hook, feed.head()) ? Optional.of(0) : Optional.empty();
+        }
+        if (events.isEmpty()) {
+            return Optional.of(0);
+        }
+        post(hook.hook, events);
+        if (!advance(hook, events.get(events.size() - 1).offset())) {
+            log.warn("Lease on hook {} ran out while posting changes after offset {}, the new holder repeats them",
+                    hook.hook.getName(), hook.delivered);
+            return Optional.empty();
+        }
+        return Optional.of(events.size());
+    }
+
+    private boolean advance(HookState hook, long offset) {
+        LocalDateTime until = LocalDateTime.now().plus(properties.getHookLease());
+        if (!changeRepository.advanceLeasedCursor(hook.cursor, owner, offset, until)) {
+            return false;
+        }
+        hook.delivered = offset;
+        return true;
+    }
+
+    private void post(Hook hook, List<PatientChangeEvent> events) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(hook.getUrl()))
+                .timeout(properties.getHookTimeout())
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(toJson(hook, events)));
+        if (hook.getAuthorization() != null) {
+            request.header("Authorization", hook.getAuthorization());
+        }
+        HttpResponse<Void> response;
+        try {
+            response = httpClient.send(request.build(), HttpResponse.BodyHandlers.discarding());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while delivering to hook " + hook.getName(), e);
+        }
+        if (response.statusCode() / 100 != 2) {
+            throw new IllegalStateException("Hook " + hook.getName() + " answered HTTP " + response.statusCode());
+        }
+    }
+
+    private String toJson(Hook hook, List<PatientChangeEvent> events) {
+        try {
+            return objectMapper.writeValueAsString(Map.of("hook", hook.getName(), "events", events));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (HookState hook : hooks) {
+            Gauge.builder("fhir.changes.hook.lag", hook, h -> Math.max(0, feed.head() - h.delivered))
+                    .description("Changes in the feed not yet delivered to the hook")
+                    .tag("hook", hook.hook.getName())
+                    .register(registry);
+            FunctionCounter.builder("fhir.changes.hook.failures", hook.failures, LongAdder::sum)
+                    .description("Failed deliveries to the hook")
+                    .tag("hook", hook.hook.getName())
+                    .register(registry);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        try {
+            // let a delivery in flight finish its cursor update before the leases go
+            executor.awaitTermination(properties.getHookTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            for (HookState hook : hooks) {
+                changeRepository.releaseCursor(hook.cursor, owner);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.warn("Could not release the hook cursors, other instances take over once the leases run out: {}", e.getMessage());
+        }
+    }
+
+    private static final class HookState {
+        private final Hook hook;
+        private final String cursor;
+        private final LongAdder failures = new LongAdder();
+        private volatile long delivered;
+
+        private HookState(Hook hook) {
+            this.hook = hook;
+            this.cursor = cursorName(hook.getName());
+        }
+    }
+}
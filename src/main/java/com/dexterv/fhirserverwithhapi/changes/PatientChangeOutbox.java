@@ -0,0 +1,63 @@
+package com.dexterv.fhirserverwithhapi.changes;
+
+import com.dexterv.fhirserverwithhapi.config.ChangeFeedProperties;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientChangeEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientChangeType;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.repositories.PatientChangeRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+/**
+ * Records Patient changes in the {@code patient_changes} outbox. Must be called in the transaction that writes
+ * the version, so a change is in the feed if and only if the version committed.
+ */
+@Component
+@RequiredArgsConstructor
+public class PatientChangeOutbox {
+
+    private final PatientChangeRepository changeRepository;
+    private final PatientChangeFeed feed;
+    private final ChangeFeedProperties properties;
+
+    public void record(PatientEntity version, PatientChangeType type) {
+        if (properties.isEnabled()) {
+            write(List.of(toChange(version, type)));
+        }
+    }
+
+    /**
+     * Records the creation of each of the given Patients.
+     */
+    public void recordCreated(List<PatientEntity> created) {
+        if (properties.isEnabled() && !created.isEmpty()) {
+            write(created.stream().map(p -> toChange(p, PatientChangeType.CREATE)).toList());
+        }
+    }
+
+    private void write(List<PatientChangeEntity> changes) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Patient changes must be recorded in the transaction that writes them");
+        }
+        changeRepository.insertAll(changes);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                feed.wakeUp();
+            }
+        });
+    }
+
+    private static PatientChangeEntity toChange(PatientEntity version, PatientChangeType type) {
+        return PatientChangeEntity.builder()
+                .resourceId(version.getResourceId())
+                .version(version.getVersion())
+                .changeType(type)
+                .changedAt(version.getLastUpdated())
+                .build();
+    }
+}
@@ -0,0 +1,85 @@
+package com.dexterv.fhirserverwithhapi.codec;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.ResourceFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate-compressed UTF-8 JSON (zlib format), optionally primed with a preset dictionary.
+ * <p>
+ * A single Patient is only a few hundred bytes, too short for deflate to learn much from the row itself:
+ * most of it is keys and code system URLs that repeat in every row. A preset dictionary holding those
+ * strings lets even the first occurrence be encoded as a back-reference. The dictionary is part of the
+ * format, rows written with it can only be read with the exact same bytes.
+ * </p>
+ * Deflater/Inflater hold native zlib state, so they are created per call and released right after.
+ */
+public class DeflateResourceCodec implements ResourceCodec {
+
+    private final ResourceFormat format;
+    private final byte[] dictionary;
+
+    public DeflateResourceCodec(ResourceFormat format, byte[] dictionary) {
+        this.format = format;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public ResourceFormat format() {
+        return format;
+    }
+
+    @Override
+    public byte[] encode(String json) {
+        byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(utf8);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 3 + 16);
+            byte[] buffer = new byte[Math.max(256, utf8.length / 2)];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public String decode(byte[] stored) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 4);
+            byte[] buffer = new byte[Math.max(256, stored.length * 4)];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null) {
+                            throw new IllegalStateException("Stored " + format + " resource needs a dictionary");
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new IllegalStateException("Truncated " + format + " resource");
+                    }
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt " + format + " resource", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.dexterv.fhirserverwithhapi.codec;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.ResourceFormat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip-compressed UTF-8 JSON. Costs 12 bytes of header and trailer per row over zlib-format deflate,
+ * in exchange the stored bytes can be inspected with standard tools.
+ */
+public class GzipResourceCodec implements ResourceCodec {
+
+    @Override
+    public ResourceFormat format() {
+        return ResourceFormat.JSON_GZIP;
+    }
+
+    @Override
+    public byte[] encode(String json) {
+        byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 3 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(utf8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public String decode(byte[] stored) {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(stored))) {
+            return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
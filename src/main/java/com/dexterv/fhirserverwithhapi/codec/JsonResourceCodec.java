@@ -0,0 +1,26 @@
+package com.dexterv.fhirserverwithhapi.codec;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.ResourceFormat;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Uncompressed UTF-8 JSON. {@link ResourceCodecs} stores JSON rows as text, this is the byte form for comparisons.
+ */
+public class JsonResourceCodec implements ResourceCodec {
+
+    @Override
+    public ResourceFormat format() {
+        return ResourceFormat.JSON;
+    }
+
+    @Override
+    public byte[] encode(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String decode(byte[] stored) {
+        return new String(stored, StandardCharsets.UTF_8);
+    }
+}
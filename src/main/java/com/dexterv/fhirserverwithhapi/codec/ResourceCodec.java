@@ -0,0 +1,15 @@
+package com.dexterv.fhirserverwithhapi.codec;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.ResourceFormat;
+
+/**
+ * Turns the JSON of a resource into its stored bytes and back. Implementations are stateless and thread safe.
+ */
+public interface ResourceCodec {
+
+    ResourceFormat format();
+
+    byte[] encode(String json);
+
+    String decode(byte[] stored);
+}
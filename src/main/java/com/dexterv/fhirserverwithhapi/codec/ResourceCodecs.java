@@ -0,0 +1,91 @@
+package com.dexterv.fhirserverwithhapi.codec;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.ResourceFormat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Reads and writes the resource body of a {@code patients} row. New rows are written in the configured
+ * {@code fhir.storage.resource-format}; every row is read with the codec named by its own format marker,
+ * so changing the setting never breaks rows written before.
+ */
+@Component
+public class ResourceCodecs {
+
+    static final String PATIENT_DICTIONARY_V1 = "codec/patient-v1.dict";
+
+    private final Map<ResourceFormat, ResourceCodec> codecs = new EnumMap<>(ResourceFormat.class);
+    private final ResourceFormat writeFormat;
+
+    public ResourceCodecs(@Value("${fhir.storage.resource-format:json}") ResourceFormat writeFormat) {
+        this.writeFormat = writeFormat;
+        register(new JsonResourceCodec());
+        register(new GzipResourceCodec());
+        register(new DeflateResourceCodec(ResourceFormat.JSON_DEFLATE, null));
+        register(new DeflateResourceCodec(ResourceFormat.JSON_DEFLATE_DICT_V1, loadDictionary(PATIENT_DICTIONARY_V1)));
+    }
+
+    private void register(ResourceCodec codec) {
+        codecs.put(codec.format(), codec);
+    }
+
+    public ResourceCodec codec(ResourceFormat format) {
+        return codecs.get(format);
+    }
+
+    public ResourceFormat getWriteFormat() {
+        return writeFormat;
+    }
+
+    /**
+     * Stores the JSON on the row in the configured format.
+     */
+    public void write(PatientEntity entity, String json) {
+        entity.setResourceFormat(writeFormat);
+        entity.setResourceSize(json.length());
+        if (writeFormat == ResourceFormat.JSON) {
+            entity.setResource(json);
+            entity.setResourceBytes(null);
+        } else {
+            entity.setResource(null);
+            entity.setResourceBytes(codecs.get(writeFormat).encode(json));
+        }
+    }
+
+    /**
+     * The JSON stored on the row, whatever format it was written in.
+     */
+    public String read(PatientEntity entity) {
+        ResourceFormat format = entity.getResourceFormat();
+        if (format == null || format == ResourceFormat.JSON) {
+            return entity.getResource();
+        }
+        return codecs.get(format).decode(entity.getResourceBytes());
+    }
+
+    /**
+     * Length of the JSON stored on the row, without decoding it.
+     */
+    public static int jsonLength(PatientEntity entity) {
+        if (entity.getResourceSize() != null) {
+            return entity.getResourceSize();
+        }
+        return entity.getResource() != null ? entity.getResource().length() : 0;
+    }
+
+    private static byte[] loadDictionary(String path) {
+        try (InputStream in = new ClassPathResource(path).getInputStream()) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load resource codec dictionary " + path, e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.dexterv.fhirserverwithhapi.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for {@link com.dexterv.fhirserverwithhapi.bulk.PatientBulkService}.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "fhir.bulk")
+public class BulkProperties {
+
+    /**
+     * Patients written per JDBC batch and database transaction in batch Bundles and $import.
+     * Transaction Bundles are always written in one transaction.
+     */
+    private int chunkSize = 1_000;
+
+    /**
+     * Threads parsing and validating bulk entries; 0 uses one per available core.
+     */
+    private int parallelism = 0;
+
+    /**
+     * Failed lines listed individually in an $import response; the rest are only counted.
+     */
+    private int maxReportedFailures = 100;
+}
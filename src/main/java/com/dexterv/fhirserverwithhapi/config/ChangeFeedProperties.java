@@ -0,0 +1,100 @@
+package com.dexterv.fhirserverwithhapi.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings for the Patient change feed ({@link com.dexterv.fhirserverwithhapi.changes.PatientChangeFeed}) and its
+ * subscribers: server-sent events, long polling and REST hooks.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "fhir.changes")
+public class ChangeFeedProperties {
+
+    /**
+     * Off by default; when off no change is recorded and the /changes endpoints answer 404.
+     */
+    private boolean enabled = false;
+
+    /**
+     * How often the feed looks for changes committed through other server instances. Changes written through this
+     * instance are picked up as soon as they commit.
+     */
+    private Duration pollInterval = Duration.ofMillis(500);
+
+    /**
+     * Changes read from the database per round trip, and the largest batch posted to a REST hook.
+     */
+    private int batchSize = 500;
+
+    /**
+     * Changes older than this are deleted once every configured REST hook has received them. A consumer asking
+     * for an offset that is gone gets 410 Gone and has to resynchronize (e.g. with $export).
+     */
+    private Duration retention = Duration.ofDays(7);
+
+    /**
+     * Open server-sent event streams allowed at once; further subscribers get 503.
+     */
+    private int maxSubscribers = 100;
+
+    /**
+     * An idle event stream sends a comment this often, so proxies keep it open and dead clients are noticed.
+     */
+    private Duration heartbeatInterval = Duration.ofSeconds(15);
+
+    /**
+     * Event streams are closed after this long; clients reconnect with Last-Event-ID and resume where they were.
+     */
+    private Duration streamTimeout = Duration.ofMinutes(30);
+
+    /**
+     * Longest wait a long-polling request may ask for. Waiting requests do not hold a servlet thread.
+     */
+    private Duration maxWait = Duration.ofSeconds(30);
+
+    /**
+     * REST hooks: batches of changes are POSTed to each URL in offset order.
+     */
+    private List<Hook> hooks = new ArrayList<>();
+
+    /**
+     * Connect and response timeout of a hook request.
+     */
+    private Duration hookTimeout = Duration.ofSeconds(10);
+
+    /**
+     * How long an instance keeps a hook to itself after taking or advancing its cursor. Must be longer than
+     * hook-timeout; another instance takes over a hook only this long after its deliverer went silent. The
+     * instances' clocks must agree to well within the difference.
+     */
+    private Duration hookLease = Duration.ofSeconds(30);
+
+    /**
+     * Failed deliveries are retried with exponential backoff up to this delay.
+     */
+    private Duration hookMaxBackoff = Duration.ofMinutes(1);
+
+    @Getter
+    @Setter
+    public static class Hook {
+
+        /**
+         * Identifies the hook's delivery position; renaming a hook starts it again from the current offset.
+         */
+        private String name;
+
+        private String url;
+
+        /**
+         * Sent as the Authorization header, if set.
+         */
+        private String authorization;
+    }
+}
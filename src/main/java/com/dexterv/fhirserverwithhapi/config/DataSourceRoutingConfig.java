@@ -0,0 +1,61 @@
+package com.dexterv.fhirserverwithhapi.config;
+
+import com.dexterv.fhirserverwithhapi.routing.ReadWriteRoutingDataSource;
+import com.dexterv.fhirserverwithhapi.routing.ReplicaRouter;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces Boot's DataSource so reads can be served by replicas (see {@link ReplicaRouter}). The primary pool is
+ * built from spring.datasource.* the same way Boot builds it; without fhir.datasource.replicas it is the
+ * application's DataSource as is.
+ */
+@Configuration
+public class DataSourceRoutingConfig {
+
+    private static final String HIKARI_PREFIX = "spring.datasource.hikari";
+
+    @Bean
+    public ReplicaRouter replicaRouter(DataSourceProperties dataSourceProperties,
+                                       DataSourceRoutingProperties routingProperties,
+                                       Environment environment) {
+        HikariDataSource primary = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        Binder.get(environment).bind(HIKARI_PREFIX, Bindable.ofInstance(primary));
+        if (StringUtils.hasText(dataSourceProperties.getName())) {
+            primary.setPoolName(dataSourceProperties.getName());
+        }
+
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (DataSourceRoutingProperties.Replica replica : routingProperties.getReplicas()) {
+            HikariDataSource pool = new HikariDataSource();
+            Binder.get(environment).bind(HIKARI_PREFIX, Bindable.ofInstance(pool));
+            pool.setPoolName("replica-" + (replicas.size() + 1));
+            pool.setJdbcUrl(replica.getUrl());
+            pool.setUsername(replica.getUsername() != null ? replica.getUsername() : dataSourceProperties.determineUsername());
+            pool.setPassword(replica.getPassword() != null ? replica.getPassword() : dataSourceProperties.determinePassword());
+            pool.setDriverClassName(dataSourceProperties.determineDriverClassName());
+            pool.setConnectionTimeout(routingProperties.getReplicaConnectionTimeout().toMillis());
+            pool.setReadOnly(true);
+            // A replica that is down at startup is reported by the health check instead of failing the application
+            pool.setInitializationFailTimeout(-1);
+            replicas.add(pool);
+        }
+        return new ReplicaRouter(primary, replicas, routingProperties);
+    }
+
+    // The router closes the pools
+    @Bean(destroyMethod = "")
+    public DataSource dataSource(ReplicaRouter replicaRouter) {
+        return replicaRouter.isEnabled() ? new ReadWriteRoutingDataSource(replicaRouter) : replicaRouter.getPrimary();
+    }
+}
@@ -0,0 +1,62 @@
+package com.dexterv.fhirserverwithhapi.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read replicas for {@link com.dexterv.fhirserverwithhapi.routing.ReplicaRouter}. The primary is still configured
+ * through spring.datasource.*; without replicas everything runs on it exactly as before.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "fhir.datasource")
+public class DataSourceRoutingProperties {
+
+    /**
+     * Postgres streaming replicas of the primary. Their pools take spring.datasource.hikari.* like the primary.
+     */
+    private List<Replica> replicas = new ArrayList<>();
+
+    /**
+     * How often each replica's replay position is compared with the primary's.
+     */
+    private Duration healthCheckInterval = Duration.ofMillis(500);
+
+    /**
+     * Replicas further behind the primary than this many bytes of WAL are skipped until they catch up.
+     */
+    private long maxReplicaLagBytes = 16L * 1024 * 1024;
+
+    /**
+     * How long after a write the client's reads only go to replicas that have replayed it. Clients are told
+     * apart by remote address, so behind a proxy set server.forward-headers-strategy.
+     */
+    private Duration readYourWritesWindow = Duration.ofMinutes(5);
+
+    /**
+     * How long a read waits for a replica connection before the replica is taken out and the primary is used.
+     */
+    private Duration replicaConnectionTimeout = Duration.ofSeconds(1);
+
+    @Getter
+    @Setter
+    public static class Replica {
+
+        private String url;
+
+        /**
+         * Defaults to spring.datasource.username.
+         */
+        private String username;
+
+        /**
+         * Defaults to spring.datasource.password.
+         */
+        private String password;
+    }
+}
@@ -0,0 +1,43 @@
+package com.dexterv.fhirserverwithhapi.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Settings for {@link com.dexterv.fhirserverwithhapi.export.BulkExportService}.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "fhir.export")
+public class ExportProperties {
+
+    /**
+     * Where export files are written, one sub-directory per job.
+     */
+    private Path directory = Path.of(System.getProperty("java.io.tmpdir"), "fhir-export");
+
+    /**
+     * Rows fetched per database round trip while streaming.
+     */
+    private int fetchSize = 500;
+
+    /**
+     * Gzip the NDJSON files on disk. Downloads are served gzip-encoded to clients that accept it
+     * and decompressed on the fly for the others.
+     */
+    private boolean gzip = true;
+
+    /**
+     * A new file is started after this many resources.
+     */
+    private int maxResourcesPerFile = 100_000;
+
+    /**
+     * Finished jobs and their files are removed this long after completion.
+     */
+    private Duration retention = Duration.ofHours(24);
+}
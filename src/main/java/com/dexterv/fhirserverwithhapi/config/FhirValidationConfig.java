@@ -1,31 +1,67 @@
 package com.dexterv.fhirserverwithhapi.config;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
+import ca.uhn.fhir.context.support.IValidationSupport;
 import ca.uhn.fhir.validation.FhirValidator;
+import org.hl7.fhir.common.hapi.validation.support.CachingValidationSupport;
+import org.hl7.fhir.common.hapi.validation.support.CommonCodeSystemsTerminologyService;
+import org.hl7.fhir.common.hapi.validation.support.InMemoryTerminologyServerValidationSupport;
+import org.hl7.fhir.common.hapi.validation.support.SnapshotGeneratingValidationSupport;
+import org.hl7.fhir.common.hapi.validation.support.ValidationSupportChain;
 import org.hl7.fhir.common.hapi.validation.validator.FhirInstanceValidator;
 import org.hl7.fhir.r5.utils.validation.constants.BestPracticeWarningLevel;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 @Configuration
 public class FhirValidationConfig {
 
+    public static final String PROFILE_ONLY_VALIDATOR = "profileOnlyFhirValidator";
+
 //    private final FhirContext fhirContext = FhirContext.forR5();
-    // Also expose FhirContext as a bean
+    // Also expose FhirContext as a bean. This is the only context in the application: building one scans
+    // the whole R5 model, so the servlet, provider, mapper and validator all share it.
     @Bean
     public FhirContext fhirContext() {
         return FhirContext.forR5();
     }
+
+    // Core StructureDefinitions, generated snapshots, value set expansions and code lookups are
+    // computed once and kept by the caching wrapper, instead of per validated resource.
+    @Bean
+    public IValidationSupport validationSupport(FhirContext fhirContext) {
+        ValidationSupportChain chain = new ValidationSupportChain(
+                new DefaultProfileValidationSupport(fhirContext),
+                new CommonCodeSystemsTerminologyService(fhirContext),
+                new InMemoryTerminologyServerValidationSupport(fhirContext),
+                new SnapshotGeneratingValidationSupport(fhirContext));
+        return new CachingValidationSupport(chain);
+    }
+
+    @Bean
+    @Primary
+    public FhirValidator fhirValidator(FhirContext fhirContext, IValidationSupport validationSupport) {
+        return newValidator(fhirContext, validationSupport, false);
+    }
+
+    // Same profiles, no terminology binding checks, for fhir.validation.mode=profile_only
     @Bean
-    public FhirValidator fhirValidator(FhirContext fhirContext) {
+    @Qualifier(PROFILE_ONLY_VALIDATOR)
+    public FhirValidator profileOnlyFhirValidator(FhirContext fhirContext, IValidationSupport validationSupport) {
+        return newValidator(fhirContext, validationSupport, true);
+    }
+
+    private static FhirValidator newValidator(FhirContext fhirContext, IValidationSupport validationSupport, boolean noTerminologyChecks) {
         FhirValidator fhirValidator = fhirContext.newValidator();
 
-        FhirInstanceValidator fhirInstanceValidator = new FhirInstanceValidator(fhirContext);
+        FhirInstanceValidator fhirInstanceValidator = new FhirInstanceValidator(validationSupport);
         fhirInstanceValidator.setBestPracticeWarningLevel(BestPracticeWarningLevel.Warning);
+        fhirInstanceValidator.setNoTerminologyChecks(noTerminologyChecks);
 
         fhirValidator.registerValidatorModule(fhirInstanceValidator);
         return fhirValidator;
     }
-
-
 }
@@ -0,0 +1,43 @@
+package com.dexterv.fhirserverwithhapi.config;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.ResourceFormat;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings for {@link com.dexterv.fhirserverwithhapi.history.PatientHistoryArchiver}.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "fhir.history.archive")
+public class HistoryArchiveProperties {
+
+    /**
+     * Off by default; superseded versions then stay in {@code patients}. Archived versions are read either way.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Superseded versions whose lastUpdated is older than this are moved to {@code patient_history}.
+     */
+    private Duration after = Duration.ofDays(7);
+
+    /**
+     * How often the archiver looks for versions to move.
+     */
+    private Duration interval = Duration.ofMinutes(1);
+
+    /**
+     * Versions moved per transaction.
+     */
+    private int batchSize = 500;
+
+    /**
+     * Storage format of archived versions, independent of fhir.storage.resource-format. Archived versions are
+     * rarely read, so the default trades a little CPU on those reads for the smallest rows.
+     */
+    private ResourceFormat resourceFormat = ResourceFormat.JSON_DEFLATE_DICT_V1;
+}
@@ -0,0 +1,37 @@
+package com.dexterv.fhirserverwithhapi.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for {@link com.dexterv.fhirserverwithhapi.search.PatientNameIndex}.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "fhir.search.name-index")
+public class NameIndexProperties {
+
+    /**
+     * When off, family/given/name searches run against patient_search_string only and phonetic search is
+     * not available.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Rows fetched per round trip while the index is built at startup.
+     */
+    private int fetchSize = 1_000;
+
+    /**
+     * Matched resource ids checked per query when a name search also has other parameters (gender,
+     * birthdate, identifier), which are still answered by the database.
+     */
+    private int candidateChunkSize = 1_000;
+
+    /**
+     * Largest name match a stored search keeps between its pages. A larger one (e.g. {@code family=S}) is
+     * matched again for every page instead of holding its resource ids until the paging provider evicts it.
+     */
+    private int maxRetainedMatches = 4_096;
+}
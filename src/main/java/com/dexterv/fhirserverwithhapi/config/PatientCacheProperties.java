@@ -0,0 +1,37 @@
+package com.dexterv.fhirserverwithhapi.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings for {@link com.dexterv.fhirserverwithhapi.cache.PatientResourceCache}.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "fhir.cache.patient")
+public class PatientCacheProperties {
+
+    /**
+     * Off by default; when off every read parses the stored JSON.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Maximum number of parsed versions kept.
+     */
+    private int maxEntries = 10_000;
+
+    /**
+     * Upper bound on the total size of cached entries, measured as the length of their stored JSON.
+     */
+    private long maxBytes = 64L * 1024 * 1024;
+
+    /**
+     * How long a "resource id -> current version" mapping is trusted before the database is asked again.
+     * Versioned entries never expire, a version never changes once written.
+     */
+    private Duration currentVersionTtl = Duration.ofSeconds(30);
+}
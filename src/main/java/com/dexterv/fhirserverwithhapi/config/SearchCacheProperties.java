@@ -0,0 +1,38 @@
+package com.dexterv.fhirserverwithhapi.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings for {@link com.dexterv.fhirserverwithhapi.cache.PatientSearchResultCache}.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "fhir.cache.search")
+public class SearchCacheProperties {
+
+    /**
+     * Off by default; when off every search counts and pages in the database.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Maximum number of distinct searches kept.
+     */
+    private int maxEntries = 1_000;
+
+    /**
+     * Results with up to this many matches keep their resource ids, so repeated searches page from memory;
+     * larger ones only keep their count.
+     */
+    private int maxIds = 1_000;
+
+    /**
+     * Upper bound on how long an entry is used. Writes on this server invalidate entries immediately; this
+     * bounds how long writes made through other server instances can go unnoticed.
+     */
+    private Duration ttl = Duration.ofSeconds(30);
+}
@@ -0,0 +1,34 @@
+package com.dexterv.fhirserverwithhapi.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Coordination of concurrent updates to the same Patient, see
+ * {@link com.dexterv.fhirserverwithhapi.locking.ResourceLocks} and
+ * {@link com.dexterv.fhirserverwithhapi.provider.PatientResourceProvider#updatePatient}.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "fhir.update")
+public class UpdateProperties {
+
+    /**
+     * In-process locks that updates are spread over by resource id; 0 disables locking and relies on retries alone.
+     * Only one server instance is coordinated, other instances are caught by the conflict check and retried.
+     */
+    private int lockStripes = 1024;
+
+    /**
+     * How long an update waits for its resource's lock before giving up with 409 Conflict.
+     */
+    private Duration lockTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Extra attempts when another writer created the next version first (without If-Match).
+     */
+    private int maxRetries = 3;
+}
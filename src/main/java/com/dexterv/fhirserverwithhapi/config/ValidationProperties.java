@@ -0,0 +1,38 @@
+package com.dexterv.fhirserverwithhapi.config;
+
+import com.dexterv.fhirserverwithhapi.validation.ValidationMode;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings for {@link com.dexterv.fhirserverwithhapi.validation.PatientWriteValidator}
+ * and {@link com.dexterv.fhirserverwithhapi.validation.DeferredValidationWorker}.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "fhir.validation")
+public class ValidationProperties {
+
+    /**
+     * Validation applied on the write path. FULL unless a feed is trusted enough to relax it.
+     */
+    private ValidationMode mode = ValidationMode.FULL;
+
+    /**
+     * Share of writes validated in SAMPLED mode, 0-100.
+     */
+    private int samplePercent = 10;
+
+    /**
+     * Pending versions validated per worker round in DEFERRED mode.
+     */
+    private int deferredBatchSize = 100;
+
+    /**
+     * Pause between worker rounds once no pending versions are left.
+     */
+    private Duration deferredPollInterval = Duration.ofSeconds(2);
+}
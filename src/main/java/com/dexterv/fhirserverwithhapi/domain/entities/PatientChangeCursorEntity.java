@@ -0,0 +1,36 @@
+package com.dexterv.fhirserverwithhapi.domain.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * A named position in the Patient change feed: the last offset assigned by the feed ("feed"), or the last
+ * offset delivered to a REST hook ("hook:" + name). Server instances take turns on the feed cursor by locking
+ * its row, and on a hook cursor by leasing it.
+ */
+@Entity
+@Table(name = "patient_change_cursors")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PatientChangeCursorEntity {
+    @Id
+    @Column(name = "name", length = 120, updatable = false, nullable = false)
+    private String name;
+
+    @Column(name = "feed_offset", nullable = false)
+    private Long feedOffset;
+
+    /**
+     * The instance delivering to the hook, until {@link #leaseUntil}; null for the feed cursor.
+     */
+    @Column(name = "lease_owner", length = 64)
+    private String leaseOwner;
+
+    @Column(name = "lease_until")
+    private LocalDateTime leaseUntil;
+}
@@ -0,0 +1,46 @@
+package com.dexterv.fhirserverwithhapi.domain.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Outbox row for the Patient change feed, written in the same transaction as the version it describes.
+ * The feed offset is assigned afterwards by {@code PatientChangeFeed}, in commit order, so offsets are gapless
+ * and a consumer resuming after offset N never misses a change that committed late.
+ */
+@Entity
+@Table(name = "patient_changes", indexes = {
+        @Index(name = "ux_patient_changes_offset", columnList = "feed_offset", unique = true),
+        @Index(name = "idx_patient_changes_changed_at", columnList = "changed_at")
+})
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PatientChangeEntity {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", updatable = false, nullable = false)
+    private Long id;
+
+    // null until the feed has picked the row up
+    @Column(name = "feed_offset")
+    private Long feedOffset;
+
+    @Column(name = "resource_id", nullable = false)
+    private Long resourceId;
+
+    @Column(name = "version", nullable = false)
+    private Integer version;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "change_type", length = 16, nullable = false)
+    private PatientChangeType changeType;
+
+    // lastUpdated of the version
+    @Column(name = "changed_at", nullable = false)
+    private LocalDateTime changedAt;
+}
@@ -0,0 +1,11 @@
+package com.dexterv.fhirserverwithhapi.domain.entities;
+
+/**
+ * What a recorded change did to a Patient, see {@code patient_changes}.
+ */
+public enum PatientChangeType {
+    /** Version 1 was written. */
+    CREATE,
+    /** A new version replaced the current one (update or patch). */
+    UPDATE
+}
@@ -0,0 +1,39 @@
+package com.dexterv.fhirserverwithhapi.domain.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Date search parameter row (birthdate) for the current version of a Patient.
+ * A date is indexed as the range its precision covers, e.g. "1970" spans the whole year.
+ */
+@Entity
+@Table(name = "patient_search_date", indexes = {
+        @Index(name = "idx_psdate_param_low_high", columnList = "param_name, value_low, value_high"),
+        @Index(name = "idx_psdate_resource_param", columnList = "resource_id, param_name")
+})
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PatientDateIndexEntity {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", updatable = false, nullable = false)
+    private Long id;
+
+    @Column(name = "resource_id", nullable = false)
+    private Long resourceId;
+
+    @Column(name = "param_name", length = 32, nullable = false)
+    private String paramName;
+
+    @Column(name = "value_low", nullable = false)
+    private LocalDateTime valueLow;
+
+    @Column(name = "value_high", nullable = false)
+    private LocalDateTime valueHigh;
+}
@@ -8,7 +8,13 @@ import java.time.LocalDateTime;
 import java.util.UUID;
 
 @Entity
-@Table(name="patients")
+@Table(name="patients",
+        uniqueConstraints = @UniqueConstraint(name = "ux_patients_resource_version", columnNames = {"resource_id", "version"}),
+        indexes = {
+                @Index(name = "idx_patients_resource_current", columnList = "resource_id, is_current"),
+                // type and server level history, newest first and filtered by _since
+                @Index(name = "idx_patients_last_updated", columnList = "last_updated, id")
+        })
 @Getter
 @Setter
 @AllArgsConstructor
@@ -23,13 +29,37 @@ public class PatientEntity {
     @Column(name="resource_id", updatable = false, nullable = false)
     private Long resourceId; // FHIR logical id (Patient/123)
 
-    @Version
-    @Column(name="version", nullable = false)
+    // FHIR version id, assigned by the provider. Not a JPA @Version: rows are never updated through JPA, and
+    // concurrent writers are coordinated by ResourceLocks, markSuperseded and ux_patients_resource_version
+    @Column(name="version", nullable = false, updatable = false)
     private Integer version;
 
+    // true only for the latest version of a resource; Postgres also enforces one current row per resource
+    // with a partial unique index (schema-postgresql.sql). Null for rows written before the flag existed.
+    @Column(name="is_current")
+    private Boolean current;
+
+    // see fhir.validation.mode; PENDING rows are picked up by DeferredValidationWorker
+    @Enumerated(EnumType.STRING)
+    @Column(name="validation_status", length = 16)
+    private PatientValidationStatus validationStatus;
+
     private LocalDateTime lastUpdated;
 
-    @Column(name="resource", columnDefinition = "TEXT", nullable = false)
+    // JSON rows keep the text here; compressed formats leave it null and use resourceBytes (see ResourceCodecs)
+    @Column(name="resource", columnDefinition = "TEXT")
     private String resource;
 
+    @Column(name="resource_bytes", length = 1_000_000)
+    private byte[] resourceBytes;
+
+    // null for rows written before the column existed, which are JSON
+    @Enumerated(EnumType.STRING)
+    @Column(name="resource_format", length = 24)
+    private ResourceFormat resourceFormat;
+
+    // length of the decoded JSON, so sizes can be compared without decoding
+    @Column(name="resource_size")
+    private Integer resourceSize;
+
 }
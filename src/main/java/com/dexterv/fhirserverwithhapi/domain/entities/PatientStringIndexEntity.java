@@ -0,0 +1,39 @@
+package com.dexterv.fhirserverwithhapi.domain.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * String search parameter row (family, given, name) for the current version of a Patient.
+ * Rows are replaced whenever a new version is written, so history never shows up in searches.
+ */
+@Entity
+@Table(name = "patient_search_string", indexes = {
+        @Index(name = "idx_psstring_param_norm", columnList = "param_name, value_normalized, resource_id"),
+        @Index(name = "idx_psstring_resource_param", columnList = "resource_id, param_name")
+})
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PatientStringIndexEntity {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", updatable = false, nullable = false)
+    private Long id;
+
+    @Column(name = "resource_id", nullable = false)
+    private Long resourceId;
+
+    @Column(name = "param_name", length = 32, nullable = false)
+    private String paramName;
+
+    // upper-cased, accent-stripped value used for the default starts-with and :contains matches
+    @Column(name = "value_normalized", length = 200, nullable = false)
+    private String valueNormalized;
+
+    // value as stored in the resource, used for :exact matches
+    @Column(name = "value_exact", length = 200, nullable = false)
+    private String valueExact;
+}
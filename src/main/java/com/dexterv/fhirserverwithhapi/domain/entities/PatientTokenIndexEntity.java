@@ -0,0 +1,36 @@
+package com.dexterv.fhirserverwithhapi.domain.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Token search parameter row (gender, identifier) for the current version of a Patient.
+ */
+@Entity
+@Table(name = "patient_search_token", indexes = {
+        @Index(name = "idx_pstoken_param_value", columnList = "param_name, token_value, token_system"),
+        @Index(name = "idx_pstoken_resource_param", columnList = "resource_id, param_name")
+})
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PatientTokenIndexEntity {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", updatable = false, nullable = false)
+    private Long id;
+
+    @Column(name = "resource_id", nullable = false)
+    private Long resourceId;
+
+    @Column(name = "param_name", length = 32, nullable = false)
+    private String paramName;
+
+    @Column(name = "token_system", length = 200)
+    private String system;
+
+    @Column(name = "token_value", length = 200)
+    private String value;
+}
@@ -0,0 +1,43 @@
+package com.dexterv.fhirserverwithhapi.domain.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * A validation message recorded by the deferred validation worker for a Patient version it flagged as invalid.
+ */
+@Entity
+@Table(name = "patient_validation_issues", indexes = {
+        @Index(name = "idx_pvissue_resource_version", columnList = "resource_id, version")
+})
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PatientValidationIssueEntity {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", updatable = false, nullable = false)
+    private Long id;
+
+    @Column(name = "resource_id", nullable = false)
+    private Long resourceId;
+
+    @Column(name = "version", nullable = false)
+    private Integer version;
+
+    @Column(name = "severity", length = 16, nullable = false)
+    private String severity;
+
+    @Column(name = "location", length = 500)
+    private String location;
+
+    @Column(name = "message", columnDefinition = "TEXT", nullable = false)
+    private String message;
+
+    @Column(name = "detected_at", nullable = false)
+    private LocalDateTime detectedAt;
+}
@@ -0,0 +1,16 @@
+package com.dexterv.fhirserverwithhapi.domain.entities;
+
+/**
+ * Outcome of FHIR spec validation for a stored Patient version, see {@code fhir.validation.mode}.
+ * Rows written before validation modes existed have no status; they were validated in full on write.
+ */
+public enum PatientValidationStatus {
+    /** Passed spec validation (full or profile-only) before it was stored. */
+    VALID,
+    /** Stored after the custom rules only; the deferred validation worker has not looked at it yet. */
+    PENDING,
+    /** Failed deferred validation, the issues are in {@code patient_validation_issues}. */
+    INVALID,
+    /** Not picked for spec validation in sampled mode. */
+    NOT_SAMPLED
+}
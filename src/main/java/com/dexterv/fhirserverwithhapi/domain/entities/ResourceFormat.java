@@ -0,0 +1,20 @@
+package com.dexterv.fhirserverwithhapi.domain.entities;
+
+/**
+ * How the resource body of a {@code patients} row is stored, see {@code fhir.storage.resource-format}.
+ * Rows written before the column existed have no format and are plain JSON.
+ * Never change what an existing constant means: rows written with it must stay readable.
+ */
+public enum ResourceFormat {
+    /** JSON text in the {@code resource} column. */
+    JSON,
+    /** Gzip-compressed UTF-8 JSON in {@code resource_bytes}. */
+    JSON_GZIP,
+    /** Deflate-compressed UTF-8 JSON in zlib format (2-byte header, Adler-32 trailer) in {@code resource_bytes}. */
+    JSON_DEFLATE,
+    /**
+     * Deflate with the preset FHIR Patient dictionary {@code codec/patient-v1.dict}, a handwritten seed.
+     * Dictionaries trained with {@code PatientDictionaryTrainer} get their own constant.
+     */
+    JSON_DEFLATE_DICT_V1
+}
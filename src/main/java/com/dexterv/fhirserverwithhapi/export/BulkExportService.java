@@ -0,0 +1,199 @@
+package com.dexterv.fhirserverwithhapi.export;
+
+import ca.uhn.fhir.parser.IParser;
+import com.dexterv.fhirserverwithhapi.config.ExportProperties;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.mappers.PatientMapper;
+import com.dexterv.fhirserverwithhapi.repositories.PatientExportRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r5.model.Patient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs FHIR Bulk Data exports of the current Patient versions in the background.
+ * <p>
+ * Rows are streamed from a database cursor, parsed one at a time to stamp id and meta, and written as
+ * NDJSON through a buffered file channel (gzip optional), rolling over to a new file every
+ * {@code fhir.export.max-resources-per-file}. Nothing is held per row, so heap use is the same for a
+ * thousand patients as for millions. Jobs run one at a time; more are queued.
+ * </p>
+ */
+@Slf4j
+@Component
+public class BulkExportService {
+
+    private static final int WRITE_BUFFER = 64 * 1024;
+
+    private final PatientExportRepository exportRepository;
+    private final PatientMapper patientMapper;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ExportProperties properties;
+
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "patient-export"));
+
+    public BulkExportService(PatientExportRepository exportRepository,
+                             PatientMapper patientMapper,
+                             PlatformTransactionManager transactionManager,
+                             ExportProperties properties) {
+        this.exportRepository = exportRepository;
+        this.patientMapper = patientMapper;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.readOnlyTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.properties = properties;
+    }
+
+    /**
+     * Queues an export and returns its job right away.
+     *
+     * @param since only Patients updated after this time, or all when null
+     */
+    public ExportJob start(String requestUrl, LocalDateTime since) {
+        purgeExpired();
+        String id = UUID.randomUUID().toString();
+        ExportJob job = new ExportJob(id, requestUrl, since, Instant.now(), properties.getDirectory().resolve(id));
+        jobs.put(id, job);
+        executor.submit(() -> run(job));
+        return job;
+    }
+
+    public ExportJob get(String id) {
+        return jobs.get(id);
+    }
+
+    private void run(ExportJob job) {
+        job.running();
+        long started = System.currentTimeMillis();
+        try {
+            Files.createDirectories(job.getDirectory());
+            // One snapshot for the whole export, so a long run does not mix in rows committed halfway
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (NdjsonFiles files = new NdjsonFiles(job)) {
+                    exportRepository.streamCurrent(job.getSince(), properties.getFetchSize(), files::write);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            job.complete();
+            log.info("Patient export {} finished: {} resources in {} files, {} ms",
+                    job.getId(), job.getExported(), job.getFiles().size(), System.currentTimeMillis() - started);
+        } catch (IOException | RuntimeException e) {
+            log.error("Patient export {} failed after {} resources", job.getId(), job.getExported(), e);
+            job.failed(e.getMessage());
+        }
+    }
+
+    /**
+     * Writes Patients to numbered NDJSON files, starting a new one every max-resources-per-file.
+     */
+    private class NdjsonFiles implements AutoCloseable {
+
+        private final ExportJob job;
+        private final IParser parser = patientMapper.newStorageParser();
+        private Writer writer;
+        private Path path;
+        private String name;
+        private long count;
+
+        NdjsonFiles(ExportJob job) {
+            this.job = job;
+        }
+
+        void write(PatientEntity entity) {
+            try {
+                if (writer == null || count == properties.getMaxResourcesPerFile()) {
+                    roll();
+                }
+                Patient patient = patientMapper.toPatient(entity);
+                patient.getMeta().setVersionId(entity.getVersion().toString());
+                parser.encodeResourceToWriter(patient, writer);
+                writer.write('\n');
+                count++;
+                job.exported();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void roll() throws IOException {
+            finish();
+            name = "Patient-" + (job.getFiles().size() + 1) + ".ndjson" + (properties.isGzip() ? ".gz" : "");
+            path = job.getDirectory().resolve(name);
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(path,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)), WRITE_BUFFER);
+            if (properties.isGzip()) {
+                out = new GZIPOutputStream(out, WRITE_BUFFER);
+            }
+            writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            count = 0;
+        }
+
+        private void finish() throws IOException {
+            if (writer != null) {
+                writer.close();
+                job.addFile(new ExportJob.OutputFile(name, path, count, properties.isGzip()));
+                writer = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+    }
+
+    private void purgeExpired() {
+        Instant cutoff = Instant.now().minus(properties.getRetention());
+        jobs.values().removeIf(job -> {
+            if (job.getFinishedAt() == null || job.getFinishedAt().isAfter(cutoff)) {
+                return false;
+            }
+            deleteQuietly(job.getDirectory());
+            return true;
+        });
+    }
+
+    private static void deleteQuietly(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Could not delete export directory {}", directory, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,76 @@
+package com.dexterv.fhirserverwithhapi.export;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of one $export request, shared between the worker writing it and the status/download endpoints.
+ */
+@Getter
+public class ExportJob {
+
+    public enum Status { ACCEPTED, RUNNING, COMPLETE, FAILED }
+
+    /**
+     * One finished NDJSON file of the job.
+     */
+    public record OutputFile(String name, Path path, long count, boolean gzip) {
+    }
+
+    private final String id;
+    private final String requestUrl;
+    private final LocalDateTime since;
+    private final Instant transactionTime;
+    private final Path directory;
+    private final List<OutputFile> files = new CopyOnWriteArrayList<>();
+    private final AtomicLong exported = new AtomicLong();
+
+    private volatile Status status = Status.ACCEPTED;
+    private volatile String error;
+    private volatile Instant finishedAt;
+
+    ExportJob(String id, String requestUrl, LocalDateTime since, Instant transactionTime, Path directory) {
+        this.id = id;
+        this.requestUrl = requestUrl;
+        this.since = since;
+        this.transactionTime = transactionTime;
+        this.directory = directory;
+    }
+
+    void running() {
+        status = Status.RUNNING;
+    }
+
+    void complete() {
+        finishedAt = Instant.now();
+        status = Status.COMPLETE;
+    }
+
+    void failed(String message) {
+        error = message;
+        finishedAt = Instant.now();
+        status = Status.FAILED;
+    }
+
+    void addFile(OutputFile file) {
+        files.add(file);
+    }
+
+    void exported() {
+        exported.incrementAndGet();
+    }
+
+    public long getExported() {
+        return exported.get();
+    }
+
+    public OutputFile findFile(String name) {
+        return files.stream().filter(f -> f.name().equals(name)).findFirst().orElse(null);
+    }
+}
@@ -0,0 +1,160 @@
+package com.dexterv.fhirserverwithhapi.history;
+
+import com.dexterv.fhirserverwithhapi.codec.ResourceCodecs;
+import com.dexterv.fhirserverwithhapi.config.HistoryArchiveProperties;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.ResourceFormat;
+import com.dexterv.fhirserverwithhapi.repositories.PatientHistoryArchiveRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves superseded Patient versions older than fhir.history.archive.after from {@code patients} to
+ * {@code patient_history}, re-encoding them in fhir.history.archive.resource-format on the way. {@code patients}
+ * then holds little more than the current versions, which keeps its indexes and vacuum work proportional to the
+ * number of Patients rather than to the number of writes. Reads of a version and history look in both tables.
+ * <p>
+ * Each batch is one transaction that locks its rows with SKIP LOCKED, so several server instances can archive
+ * at the same time, and a version is in exactly one of the two tables at any point a reader can see.
+ * </p>
+ */
+@Slf4j
+@Component
+public class PatientHistoryArchiver implements MeterBinder {
+
+    private final PatientHistoryArchiveRepository archiveRepository;
+    private final ResourceCodecs codecs;
+    private final TransactionTemplate transactionTemplate;
+    private final HistoryArchiveProperties properties;
+
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "patient-history-archiver"));
+    private final LongAdder archived = new LongAdder();
+    private final LongAdder bytesBefore = new LongAdder();
+    private final LongAdder bytesAfter = new LongAdder();
+
+    public PatientHistoryArchiver(PatientHistoryArchiveRepository archiveRepository,
+                                  ResourceCodecs codecs,
+                                  TransactionTemplate transactionTemplate,
+                                  HistoryArchiveProperties properties) {
+        this.archiveRepository = archiveRepository;
+        this.codecs = codecs;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (properties.isEnabled()) {
+            long interval = properties.getInterval().toMillis();
+            executor.scheduleWithFixedDelay(this::drain, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Archives every version that is due, one batch at a time.
+     *
+     * @return the number of versions moved
+     */
+    public long archiveDue() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(properties.getAfter());
+        long moved = 0;
+        int batch;
+        do {
+            batch = transactionTemplate.execute(tx -> archiveBatch(cutoff));
+            moved += batch;
+        } while (batch == properties.getBatchSize() && !Thread.currentThread().isInterrupted());
+        return moved;
+    }
+
+    private void drain() {
+        try {
+            long moved = archiveDue();
+            if (moved > 0) {
+                log.info("Archived {} superseded Patient versions ({} of {} bytes stored in total so far)",
+                        moved, bytesAfter.sum(), bytesBefore.sum());
+            }
+        } catch (RuntimeException e) {
+            // keep the schedule alive, the batch was rolled back and is retried next round
+            log.error("Archiving superseded Patient versions failed", e);
+        }
+    }
+
+    private int archiveBatch(LocalDateTime cutoff) {
+        List<PatientEntity> rows = archiveRepository.lockArchivable(cutoff, properties.getBatchSize());
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        long before = 0;
+        long after = 0;
+        for (PatientEntity row : rows) {
+            before += storedLength(row);
+            encodeForArchive(row);
+            after += row.getResourceBytes().length;
+        }
+        archiveRepository.move(rows);
+
+        archived.add(rows.size());
+        bytesBefore.add(before);
+        bytesAfter.add(after);
+        return rows.size();
+    }
+
+    /**
+     * Puts the body into resourceBytes in the archive format; rows already in that format are copied as they are.
+     */
+    private void encodeForArchive(PatientEntity row) {
+        ResourceFormat target = properties.getResourceFormat();
+        ResourceFormat current = row.getResourceFormat() == null ? ResourceFormat.JSON : row.getResourceFormat();
+        if (current == target && row.getResourceBytes() != null) {
+            return;
+        }
+        String json = codecs.read(row);
+        row.setResourceSize(json.length());
+        row.setResourceBytes(codecs.codec(target).encode(json));
+        row.setResourceFormat(target);
+        row.setResource(null);
+    }
+
+    private static long storedLength(PatientEntity row) {
+        if (row.getResourceBytes() != null) {
+            return row.getResourceBytes().length;
+        }
+        return row.getResource() == null ? 0 : row.getResource().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("fhir.history.archived", archived, LongAdder::sum)
+                .description("Superseded Patient versions moved to patient_history")
+                .register(registry);
+        FunctionCounter.builder("fhir.history.archived.size", bytesAfter, LongAdder::sum)
+                .description("Stored size of the archived versions, after re-encoding")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("fhir.history.archived.original.size", bytesBefore, LongAdder::sum)
+                .description("Stored size of the archived versions while they were in patients")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,60 @@
+package com.dexterv.fhirserverwithhapi.locking;
+
+import ca.uhn.fhir.rest.server.exceptions.ResourceVersionConflictException;
+import com.dexterv.fhirserverwithhapi.config.UpdateProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes writers of the same resource within this server using a fixed array of locks indexed by resource
+ * id, so memory does not grow with the number of resources and unrelated resources rarely wait on each other.
+ * Writers that lose a race despite the lock (other server instances, disabled locking) are caught by the
+ * conflict check in the update itself.
+ */
+@Component
+public class ResourceLocks {
+
+    private final ReentrantLock[] stripes;
+    private final long timeoutNanos;
+
+    public ResourceLocks(UpdateProperties properties) {
+        this.stripes = new ReentrantLock[Math.max(0, properties.getLockStripes())];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.timeoutNanos = properties.getLockTimeout().toNanos();
+    }
+
+    /**
+     * Locks the stripe of a resource; close the returned handle to release it.
+     *
+     * @throws ResourceVersionConflictException when the lock is not acquired within fhir.update.lock-timeout
+     */
+    public Handle lock(long resourceId) {
+        if (stripes.length == 0) {
+            return Handle.NONE;
+        }
+        // logical ids are sequential, so neighbouring resources land on different stripes
+        ReentrantLock lock = stripes[(int) Math.floorMod(resourceId, (long) stripes.length)];
+        try {
+            if (!lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new ResourceVersionConflictException("Patient/" + resourceId + " is busy, try again");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceVersionConflictException("Interrupted waiting for Patient/" + resourceId);
+        }
+        return lock::unlock;
+    }
+
+    @FunctionalInterface
+    public interface Handle extends AutoCloseable {
+        Handle NONE = () -> {
+        };
+
+        @Override
+        void close();
+    }
+}
@@ -1,10 +1,97 @@
 package com.dexterv.fhirserverwithhapi.mappers;
 
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.parser.IParserErrorHandler;
+import ca.uhn.fhir.parser.LenientErrorHandler;
+import com.dexterv.fhirserverwithhapi.codec.ResourceCodecs;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import org.hl7.fhir.r5.model.IdType;
+import org.hl7.fhir.r5.model.Patient;
 import org.mapstruct.Mapper;
 import org.mapstruct.ReportingPolicy;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.UUID;
 
 @Mapper(componentModel = "spring", unmappedTargetPolicy = ReportingPolicy.IGNORE)
-public interface PatientMapper {
+public abstract class PatientMapper {
+
+    // Stored rows were validated on the way in; don't build and log a warning for every odd element on the way out
+    private static final IParserErrorHandler STORAGE_ERROR_HANDLER = new LenientErrorHandler(false);
+
+    @Autowired
+    protected FhirContext fhirContext;
+
+    @Autowired
+    protected ResourceCodecs resourceCodecs;
+
+    /**
+     * Parser configuration for the resource column. Parsers are cheap but not thread safe, so every
+     * caller gets a new one from the shared context, configured the same way.
+     */
+    public IParser newStorageParser() {
+        return fhirContext.newJsonParser()
+                .setPrettyPrint(false)
+                .setParserErrorHandler(STORAGE_ERROR_HANDLER);
+    }
+
+    /**
+     * Encodes a Patient for the resource column.
+     */
+    public String toJson(Patient patient) {
+        return newStorageParser().encodeResourceToString(patient);
+    }
+
+    /**
+     * Every created Patient gets a medical record number from this server.
+     */
+    public void addGeneratedMrn(Patient patient) {
+        patient.addIdentifier()
+                .setSystem("http://hospital.example.org/mrn") // I just set it to this atm
+                .setValue("MRN" + UUID.randomUUID());
+    }
+
+    /**
+     * Applies the fields an update may change (name, gender, birthDate) from the incoming Patient.
+     */
+    public void mergePatient(Patient existing, Patient incoming) {
+        if (incoming.hasName()) {
+            existing.setName(incoming.getName());
+        }
+        if (incoming.hasGender()) {
+            existing.setGender(incoming.getGender());
+        }
+        if (incoming.hasBirthDate()) {
+            existing.setBirthDate(incoming.getBirthDate());
+        }
+        // 🔑 Leave other fields untouched unless explicitly updated
+    }
+
+    /**
+     * Stores the JSON on the row in the configured storage format.
+     */
+    public void writeResource(PatientEntity entity, String json) {
+        resourceCodecs.write(entity, json);
+    }
 
+    /**
+     * Parses the stored JSON of a row and stamps it with its FHIR id (Patient/resourceId/_history/version)
+     * and lastUpdated.
+     */
+    public Patient toPatient(PatientEntity entity) {
+        Patient patient = newStorageParser().parseResource(Patient.class, resourceCodecs.read(entity));
+        // 🔑 Always set the FHIR id before returning
+        patient.setId(new IdType("Patient", entity.getResourceId().toString(), entity.getVersion().toString()));
+        // the stored JSON can carry the versionId of the version it was merged from
+        patient.getMeta().setVersionId(entity.getVersion().toString());
+        // Drives the Last-Modified response header, which clients send back in If-Modified-Since
+        if (entity.getLastUpdated() != null) {
+            patient.getMeta().setLastUpdated(Date.from(entity.getLastUpdated().atZone(ZoneId.systemDefault()).toInstant()));
+        }
+        return patient;
+    }
 
 }
@@ -0,0 +1,143 @@
+package com.dexterv.fhirserverwithhapi.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms per FHIR operation and per phase of the Patient read/write path, plus payload sizes.
+ * All meters are created once (phases up front, operations on first use) and recording is a plain
+ * {@code nanoTime} difference, so the hot path does not allocate. Timers publish percentile histograms,
+ * which Prometheus turns into p99 with {@code histogram_quantile}.
+ * <ul>
+ *     <li>{@code fhir.request} (operation, status): whole request, as measured by HAPI</li>
+ *     <li>{@code fhir.phase} (phase): id allocation, validation, JSON parse/encode, patch application,
+ *     database reads/writes</li>
+ *     <li>{@code fhir.request.size} (operation): request body bytes</li>
+ *     <li>{@code fhir.response.size} (operation): response body characters, before compression</li>
+ *     <li>{@code fhir.response.resources} (operation): resources returned per search or history page</li>
+ * </ul>
+ */
+@Component
+public class FhirMetrics {
+
+    public enum Phase {
+        ID_ALLOCATION, SPEC_VALIDATION, CUSTOM_RULES, JSON_PARSE, JSON_ENCODE, PATCH_APPLY, DB_READ, DB_WRITE;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private final MeterRegistry registry;
+    private final Timer[] phaseTimers = new Timer[Phase.values().length];
+    private final ConcurrentMap<String, OperationMeters> operations = new ConcurrentHashMap<>();
+
+    public FhirMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (Phase phase : Phase.values()) {
+            phaseTimers[phase.ordinal()] = histogram(Timer.builder("fhir.phase"))
+                    .description("Time spent in one phase of handling a Patient request")
+                    .tag("phase", phase.tag)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Start of a phase, to be passed to {@link #record(Phase, long)}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void record(Phase phase, long startNanos) {
+        phaseTimers[phase.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param operation     e.g. "read" or "$export"
+     * @param status        HTTP status code of the response
+     * @param requestBytes  request body length in bytes, or a negative value when unknown
+     * @param responseChars characters written to the response body, or a negative value when unknown
+     */
+    public void recordRequest(String operation, int status, long nanos, long requestBytes, long responseChars) {
+        OperationMeters meters = operations.computeIfAbsent(operation, OperationMeters::new);
+        meters.timer(status).record(nanos, TimeUnit.NANOSECONDS);
+        if (requestBytes >= 0) {
+            meters.requestSize.record(requestBytes);
+        }
+        if (responseChars >= 0) {
+            meters.responseSize.record(responseChars);
+        }
+    }
+
+    /**
+     * Number of resources on one search or history page.
+     */
+    public void recordResources(String operation, int count) {
+        operations.computeIfAbsent(operation, OperationMeters::new).resources().record(count);
+    }
+
+    private static Timer.Builder histogram(Timer.Builder builder) {
+        return builder.publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(50_000))
+                .maximumExpectedValue(Duration.ofSeconds(30));
+    }
+
+    private final class OperationMeters {
+        private final String operation;
+        // indexed by status / 100 - 1, registered when a status class first occurs to keep the scrape small
+        private final Timer[] timers = new Timer[STATUS_CLASSES.length];
+        private final DistributionSummary requestSize;
+        private final DistributionSummary responseSize;
+        // only operations that return pages get one
+        private volatile DistributionSummary resources;
+
+        private OperationMeters(String operation) {
+            this.operation = operation;
+            requestSize = DistributionSummary.builder("fhir.request.size")
+                    .description("Request body length")
+                    .baseUnit("bytes")
+                    .tag("operation", operation)
+                    .register(registry);
+            responseSize = DistributionSummary.builder("fhir.response.size")
+                    .description("Response body length, before compression")
+                    .baseUnit("characters")
+                    .tag("operation", operation)
+                    .register(registry);
+        }
+
+        private DistributionSummary resources() {
+            DistributionSummary summary = resources;
+            if (summary == null) {
+                summary = DistributionSummary.builder("fhir.response.resources")
+                        .description("Resources returned per search or history page")
+                        .tag("operation", operation)
+                        .register(registry);
+                resources = summary;
+            }
+            return summary;
+        }
+
+        private Timer timer(int status) {
+            int index = Math.min(Math.max(status / 100 - 1, 0), STATUS_CLASSES.length - 1);
+            Timer timer = timers[index];
+            if (timer == null) {
+                // a racing thread registers the same meter, the registry hands both the same instance
+                timer = histogram(Timer.builder("fhir.request"))
+                        .description("FHIR request latency by operation and status class")
+                        .tags("operation", operation, "status", STATUS_CLASSES[index])
+                        .register(registry);
+                timers[index] = timer;
+            }
+            return timer;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.dexterv.fhirserverwithhapi.metrics;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r5.model.Bundle;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds {@link FhirMetrics} from the RestfulServer: one latency sample per request, tagged with the FHIR
+ * operation and status class, plus request and response body sizes and the number of resources on each search
+ * or history page. The response writer HAPI creates is wrapped to count what is written, and the request size is
+ * taken from the body HAPI has read (or Content-Length), so no buffering or servlet filter is involved.
+ */
+@Component
+@Interceptor
+@RequiredArgsConstructor
+public class FhirMetricsInterceptor {
+
+    private static final String START_NANOS = FhirMetricsInterceptor.class.getName() + ".start";
+    private static final String RESPONSE_WRITER = FhirMetricsInterceptor.class.getName() + ".writer";
+
+    private final FhirMetrics metrics;
+
+    // HAPI's request stopwatch only has millisecond resolution
+    @Hook(Pointcut.SERVER_INCOMING_REQUEST_PRE_PROCESSED)
+    public boolean incomingRequest(HttpServletRequest request) {
+        request.setAttribute(START_NANOS, System.nanoTime());
+        return true;
+    }
+
+    @Hook(Pointcut.SERVER_OUTGOING_WRITER_CREATED)
+    public Writer writerCreated(Writer writer, RequestDetails requestDetails) {
+        CountingWriter counting = new CountingWriter(writer);
+        requestDetails.getUserData().put(RESPONSE_WRITER, counting);
+        return counting;
+    }
+
+    @Hook(Pointcut.SERVER_PROCESSING_COMPLETED)
+    public void processingCompleted(RequestDetails requestDetails, ServletRequestDetails servletRequestDetails) {
+        Object start = servletRequestDetails.getServletRequest().getAttribute(START_NANOS);
+        long nanos = start instanceof Long startNanos
+                ? System.nanoTime() - startNanos
+                : TimeUnit.MILLISECONDS.toNanos(requestDetails.getRequestStopwatch().getMillis());
+        int status = servletRequestDetails.getServletResponse().getStatus();
+        // HAPI keeps the body it parsed, which also sizes chunked requests that have no Content-Length
+        byte[] body = requestDetails.getRequestContentsIfLoaded();
+        long requestBytes = body != null ? body.length : servletRequestDetails.getServletRequest().getContentLengthLong();
+        Object writer = requestDetails.getUserData().get(RESPONSE_WRITER);
+        long responseChars = writer instanceof CountingWriter counting ? counting.count : -1;
+        metrics.recordRequest(operation(requestDetails), status, nanos, requestBytes, responseChars);
+    }
+
+    @Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
+    public boolean outgoingResponse(RequestDetails requestDetails, IBaseResource resource) {
+        if (resource instanceof Bundle bundle && isPage(requestDetails.getRestOperationType())) {
+            int matches = 0;
+            for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+                // _include and OperationOutcome entries are not results; history entries have no search mode
+                if (!entry.hasSearch() || entry.getSearch().getMode() == null
+                        || entry.getSearch().getMode() == Bundle.SearchEntryMode.MATCH) {
+                    matches++;
+                }
+            }
+            metrics.recordResources(operation(requestDetails), matches);
+        }
+        return true;
+    }
+
+    private static boolean isPage(RestOperationTypeEnum type) {
+        return type == RestOperationTypeEnum.SEARCH_TYPE
+                || type == RestOperationTypeEnum.SEARCH_SYSTEM
+                || type == RestOperationTypeEnum.GET_PAGE
+                || type == RestOperationTypeEnum.HISTORY_INSTANCE
+                || type == RestOperationTypeEnum.HISTORY_TYPE
+                || type == RestOperationTypeEnum.HISTORY_SYSTEM;
+    }
+
+    private static String operation(RequestDetails requestDetails) {
+        RestOperationTypeEnum type = requestDetails.getRestOperationType();
+        if (type == null) {
+            return "unknown";
+        }
+        switch (type) {
+            case EXTENDED_OPERATION_SERVER:
+            case EXTENDED_OPERATION_TYPE:
+            case EXTENDED_OPERATION_INSTANCE:
+                return requestDetails.getOperation() != null ? requestDetails.getOperation() : type.getCode();
+            default:
+                return type.getCode();
+        }
+    }
+
+    private static final class CountingWriter extends FilterWriter {
+        private long count;
+
+        private CountingWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            out.write(cbuf, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            count += len;
+        }
+    }
+}
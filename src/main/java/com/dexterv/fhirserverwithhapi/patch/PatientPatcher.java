@@ -0,0 +1,96 @@
+package com.dexterv.fhirserverwithhapi.patch;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.patch.FhirPatch;
+import ca.uhn.fhir.jpa.patch.JsonPatchUtils;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.rest.api.PatchTypeEnum;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import lombok.RequiredArgsConstructor;
+import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.Patient;
+import org.hl7.fhir.r5.model.Property;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Applies PATCH documents to a stored Patient: JSON Patch (RFC 6902, {@code application/json-patch+json}) and
+ * FHIRPath Patch (a {@code Parameters} resource in JSON or XML). XML Patch is not supported.
+ */
+@Component
+@RequiredArgsConstructor
+public class PatientPatcher {
+
+    private final FhirContext fhirContext;
+
+    /**
+     * @param current the version the patch applies to; not modified
+     * @return the patched copy, with the id and meta of {@code current}
+     */
+    public Patient apply(Patient current, PatchTypeEnum type, String body) {
+        if (body == null || body.isBlank()) {
+            throw new InvalidRequestException("Missing patch document");
+        }
+        Patient patched;
+        try {
+            switch (type) {
+                case JSON_PATCH:
+                    patched = JsonPatchUtils.apply(fhirContext, current, body);
+                    break;
+                case FHIR_PATCH_JSON:
+                case FHIR_PATCH_XML:
+                    Parameters patch = (type == PatchTypeEnum.FHIR_PATCH_JSON ? fhirContext.newJsonParser() : fhirContext.newXmlParser())
+                            .parseResource(Parameters.class, body);
+                    patched = current.copy();
+                    new FhirPatch(fhirContext).apply(patched, patch);
+                    break;
+                default:
+                    throw new InvalidRequestException("Unsupported patch type " + type.getContentType()
+                            + ", use JSON Patch or FHIRPath Patch");
+            }
+        } catch (DataFormatException e) {
+            throw new InvalidRequestException("Invalid patch: " + e.getMessage());
+        }
+        // The server owns id and meta, a patch cannot move the resource or forge its version
+        patched.setIdElement(current.getIdElement().copy());
+        patched.setMeta(current.getMeta().copy());
+        return patched;
+    }
+
+    /**
+     * A Patient holding only the top-level elements that differ between the two versions (id and meta aside),
+     * or null when nothing changed.
+     */
+    public static Patient changedElements(Patient previous, Patient patched) {
+        Patient changes = new Patient();
+        boolean changed = false;
+        for (Property property : patched.children()) {
+            String name = property.getName();
+            if ("id".equals(name) || "meta".equals(name)) {
+                continue;
+            }
+            List<Base> values = property.getValues();
+            if (!equalsDeep(previous.getNamedProperty(name).getValues(), values)) {
+                for (Base value : values) {
+                    changes.setProperty(name, value);
+                }
+                changed = true;
+            }
+        }
+        return changed ? changes : null;
+    }
+
+    private static boolean equalsDeep(List<Base> a, List<Base> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).equalsDeep(b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,156 @@
+package com.dexterv.fhirserverwithhapi.provider;
+
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import com.dexterv.fhirserverwithhapi.export.BulkExportService;
+import com.dexterv.fhirserverwithhapi.export.ExportJob;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.hl7.fhir.r5.model.InstantType;
+import org.hl7.fhir.r5.model.StringType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * FHIR Bulk Data export of Patients (kick-off, status, download).
+ * <ol>
+ *     <li>{@code GET /fhir/$export} with {@code Prefer: respond-async} answers 202 with the status URL in Content-Location</li>
+ *     <li>{@code GET /fhir/$export-poll-status?_jobId=...} answers 202 with X-Progress while running, then 200 with the manifest</li>
+ *     <li>{@code GET /fhir/$export-download?_jobId=...&_file=...} streams one NDJSON file from the manifest</li>
+ * </ol>
+ */
+@Component
+@RequiredArgsConstructor
+public class BulkExportProvider {
+
+    private static final Set<String> NDJSON_FORMATS = Set.of(Constants.CT_FHIR_NDJSON, "application/ndjson", "ndjson");
+
+    private final BulkExportService exportService;
+    private final ObjectMapper objectMapper;
+
+    @Operation(name = "$export", idempotent = true, manualResponse = true)
+    public void export(@OperationParam(name = "_since") InstantType since,
+                       @OperationParam(name = "_type") StringType type,
+                       @OperationParam(name = "_outputFormat") StringType outputFormat,
+                       ServletRequestDetails requestDetails) {
+        String prefer = requestDetails.getHeader(Constants.HEADER_PREFER);
+        if (prefer == null || !prefer.contains(Constants.HEADER_PREFER_RESPOND_ASYNC)) {
+            throw new InvalidRequestException("$export requires the header Prefer: respond-async");
+        }
+        if (type != null && !"Patient".equals(type.getValue())) {
+            throw new InvalidRequestException("Only _type=Patient can be exported");
+        }
+        if (outputFormat != null && !NDJSON_FORMATS.contains(outputFormat.getValue())) {
+            throw new InvalidRequestException("Unsupported _outputFormat: " + outputFormat.getValue());
+        }
+
+        LocalDateTime sinceTime = since == null || since.getValue() == null
+                ? null
+                : LocalDateTime.ofInstant(since.getValue().toInstant(), ZoneId.systemDefault());
+        ExportJob job = exportService.start(requestDetails.getCompleteUrl(), sinceTime);
+
+        HttpServletResponse response = requestDetails.getServletResponse();
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        response.setHeader(Constants.HEADER_CONTENT_LOCATION,
+                requestDetails.getFhirServerBase() + "/$export-poll-status?_jobId=" + job.getId());
+    }
+
+    @Operation(name = "$export-poll-status", idempotent = true, manualResponse = true)
+    public void pollStatus(@OperationParam(name = "_jobId", min = 1) StringType jobId,
+                           ServletRequestDetails requestDetails) throws IOException {
+        ExportJob job = findJob(jobId);
+        HttpServletResponse response = requestDetails.getServletResponse();
+
+        switch (job.getStatus()) {
+            case ACCEPTED, RUNNING -> {
+                response.setStatus(HttpServletResponse.SC_ACCEPTED);
+                response.setHeader("X-Progress", job.getStatus() + ", " + job.getExported() + " resources written");
+                response.setHeader(Constants.HEADER_RETRY_AFTER, "5");
+            }
+            case FAILED -> {
+                // The kick-off itself succeeded, so the failure is reported with the job rather than as an OperationOutcome
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                ObjectNode body = objectMapper.createObjectNode().put("error", job.getError());
+                writeJson(response, body);
+            }
+            case COMPLETE -> {
+                response.setStatus(HttpServletResponse.SC_OK);
+                writeJson(response, manifest(job, requestDetails.getFhirServerBase()));
+            }
+        }
+    }
+
+    @Operation(name = "$export-download", idempotent = true, manualResponse = true)
+    public void download(@OperationParam(name = "_jobId", min = 1) StringType jobId,
+                         @OperationParam(name = "_file", min = 1) StringType fileName,
+                         ServletRequestDetails requestDetails) throws IOException {
+        ExportJob job = findJob(jobId);
+        // Only names from the manifest are served, never a path taken from the request
+        ExportJob.OutputFile file = job.findFile(fileName.getValue());
+        if (file == null) {
+            throw new ResourceNotFoundException("Export " + job.getId() + " has no file " + fileName.getValue());
+        }
+
+        HttpServletResponse response = requestDetails.getServletResponse();
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(Constants.CT_FHIR_NDJSON);
+        String acceptEncoding = requestDetails.getHeader(Constants.HEADER_ACCEPT_ENCODING);
+        boolean sendGzipped = file.gzip() && acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (sendGzipped) {
+            response.setHeader(Constants.HEADER_CONTENT_ENCODING, "gzip");
+            response.setContentLengthLong(Files.size(file.path()));
+        }
+
+        try (InputStream stored = Files.newInputStream(file.path());
+             InputStream in = file.gzip() && !sendGzipped ? new GZIPInputStream(stored, 64 * 1024) : stored) {
+            OutputStream out = response.getOutputStream();
+            in.transferTo(out);
+            out.flush();
+        }
+    }
+
+    private ExportJob findJob(StringType jobId) {
+        ExportJob job = exportService.get(jobId.getValue());
+        if (job == null) {
+            throw new ResourceNotFoundException("Unknown or expired export job: " + jobId.getValue());
+        }
+        return job;
+    }
+
+    private ObjectNode manifest(ExportJob job, String serverBase) {
+        ObjectNode manifest = objectMapper.createObjectNode();
+        manifest.put("transactionTime", job.getTransactionTime().toString());
+        manifest.put("request", job.getRequestUrl());
+        manifest.put("requiresAccessToken", false);
+        ArrayNode output = manifest.putArray("output");
+        for (ExportJob.OutputFile file : job.getFiles()) {
+            output.addObject()
+                    .put("type", "Patient")
+                    .put("url", serverBase + "/$export-download?_jobId=" + job.getId() + "&_file=" + file.name())
+                    .put("count", file.count());
+        }
+        manifest.putArray("error");
+        return manifest;
+    }
+
+    private void writeJson(HttpServletResponse response, ObjectNode body) throws IOException {
+        response.setContentType(Constants.CT_JSON);
+        response.setCharacterEncoding("UTF-8");
+        objectMapper.writeValue(response.getOutputStream(), body);
+    }
+}
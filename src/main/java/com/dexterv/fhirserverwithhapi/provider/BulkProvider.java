@@ -0,0 +1,213 @@
+package com.dexterv.fhirserverwithhapi.provider;
+
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.Transaction;
+import ca.uhn.fhir.rest.annotation.TransactionParam;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.param.ParameterUtil;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import com.dexterv.fhirserverwithhapi.bulk.BulkEntryOutcome;
+import com.dexterv.fhirserverwithhapi.bulk.ImportSummary;
+import com.dexterv.fhirserverwithhapi.bulk.PatientBulkService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.hl7.fhir.instance.model.api.IBaseOperationOutcome;
+import org.hl7.fhir.r5.model.*;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Server-level bulk writes: batch/transaction Bundles ({@code POST /fhir}) and NDJSON import
+ * ({@code POST /fhir/$import}). Patient creates go through {@link PatientBulkService}; updates and reads
+ * in a Bundle are handed to {@link PatientResourceProvider} one by one.
+ */
+@Component
+@RequiredArgsConstructor
+public class BulkProvider {
+
+    private final PatientBulkService bulkService;
+    private final PatientResourceProvider patientProvider;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Handles both Bundle types. A transaction is all-or-nothing in one database transaction: creates first,
+     * then updates, then reads, as the spec orders them. A batch processes every entry independently and
+     * reports a status per entry.
+     */
+    @Transaction
+    public Bundle transaction(@TransactionParam Bundle bundle) {
+        if (bundle.getType() == Bundle.BundleType.TRANSACTION) {
+            return transactionTemplate.execute(status -> process(bundle, true));
+        }
+        if (bundle.getType() == Bundle.BundleType.BATCH) {
+            return process(bundle, false);
+        }
+        throw new InvalidRequestException("Bundle type must be batch or transaction, got: " + bundle.getType());
+    }
+
+    private Bundle process(Bundle bundle, boolean atomic) {
+        List<Bundle.BundleEntryComponent> entries = bundle.getEntry();
+        Bundle.BundleEntryResponseComponent[] responses = new Bundle.BundleEntryResponseComponent[entries.size()];
+        Patient[] readResults = new Patient[entries.size()];
+
+        // 1. Creates, all in one bulk pass
+        List<Integer> createIndexes = new ArrayList<>();
+        List<Patient> creates = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            Bundle.BundleEntryComponent entry = entries.get(i);
+            if (entry.getRequest().getMethod() == Bundle.HTTPVerb.POST) {
+                if (!isPatientType(entry.getRequest().getUrl()) || !(entry.getResource() instanceof Patient)) {
+                    responses[i] = failed(atomic, i, new InvalidRequestException("Only Patient creates are supported"));
+                    continue;
+                }
+                createIndexes.add(i);
+                creates.add((Patient) entry.getResource());
+            }
+        }
+        if (!creates.isEmpty()) {
+            List<BulkEntryOutcome> outcomes = bulkService.createAll(creates, atomic);
+            for (BulkEntryOutcome outcome : outcomes) {
+                int i = createIndexes.get(outcome.index());
+                responses[i] = outcome.isCreated()
+                        ? response("201 Created", "Patient/" + outcome.resourceId() + "/_history/1")
+                        : failed(atomic, i, outcome.error());
+            }
+        }
+
+        // 2. Updates, then 3. reads
+        for (Bundle.HTTPVerb verb : new Bundle.HTTPVerb[]{Bundle.HTTPVerb.PUT, Bundle.HTTPVerb.GET}) {
+            for (int i = 0; i < entries.size(); i++) {
+                Bundle.BundleEntryComponent entry = entries.get(i);
+                if (entry.getRequest().getMethod() != verb) {
+                    continue;
+                }
+                try {
+                    if (verb == Bundle.HTTPVerb.PUT) {
+                        responses[i] = update(entry);
+                    } else {
+                        readResults[i] = read(entry);
+                        responses[i] = response("200 OK", null);
+                        responses[i].setEtag(etag(readResults[i].getIdElement().getVersionIdPart()));
+                    }
+                } catch (BaseServerResponseException e) {
+                    responses[i] = failed(atomic, i, e);
+                }
+            }
+        }
+
+        Bundle response = new Bundle();
+        response.setType(atomic ? Bundle.BundleType.TRANSACTIONRESPONSE : Bundle.BundleType.BATCHRESPONSE);
+        for (int i = 0; i < entries.size(); i++) {
+            Bundle.BundleEntryResponseComponent entryResponse = responses[i] != null
+                    ? responses[i]
+                    : failed(atomic, i, new InvalidRequestException("Unsupported method: " + entries.get(i).getRequest().getMethod()));
+            // a read's Patient goes in the entry itself; response.outcome is only for OperationOutcomes
+            response.addEntry().setResource(readResults[i]).setResponse(entryResponse);
+        }
+        return response;
+    }
+
+    private Bundle.BundleEntryResponseComponent update(Bundle.BundleEntryComponent entry) {
+        IdType id = new IdType(entry.getRequest().getUrl());
+        if (!"Patient".equals(id.getResourceType()) || !(entry.getResource() instanceof Patient patient)) {
+            throw new InvalidRequestException("Only Patient updates are supported");
+        }
+        // entry.request.ifMatch works like the If-Match header: the update only applies to that version (412)
+        String ifMatch = entry.getRequest().getIfMatch();
+        if (ifMatch != null && !ifMatch.isBlank()) {
+            id = id.withVersion(ParameterUtil.parseETagValue(ifMatch));
+        }
+        MethodOutcome outcome = patientProvider.updatePatient(id, patient);
+        Bundle.BundleEntryResponseComponent response = response("200 OK", outcome.getId().getValue());
+        response.setEtag(etag(outcome.getId().getVersionIdPart()));
+        return response;
+    }
+
+    private Patient read(Bundle.BundleEntryComponent entry) {
+        IdType id = new IdType(entry.getRequest().getUrl());
+        if (!"Patient".equals(id.getResourceType()) || !id.hasIdPart()) {
+            throw new InvalidRequestException("Only Patient reads are supported");
+        }
+        return patientProvider.readPatientById(id);
+    }
+
+    private static String etag(String version) {
+        return "W/\"" + version + "\"";
+    }
+
+    private static boolean isPatientType(String url) {
+        return "Patient".equals(url) || "Patient/".equals(url);
+    }
+
+    private static Bundle.BundleEntryResponseComponent response(String status, String location) {
+        Bundle.BundleEntryResponseComponent response = new Bundle.BundleEntryResponseComponent();
+        response.setStatus(status);
+        if (location != null) {
+            response.setLocation(location);
+        }
+        return response;
+    }
+
+    /**
+     * In a transaction any failure aborts the whole Bundle with the entry's status and OperationOutcome;
+     * in a batch it becomes that entry's response.
+     */
+    private static Bundle.BundleEntryResponseComponent failed(boolean atomic, int index, BaseServerResponseException e) {
+        if (atomic) {
+            BaseServerResponseException abort = BaseServerResponseException.newInstance(e.getStatusCode(),
+                    "Transaction entry " + index + " failed: " + e.getMessage());
+            abort.setOperationOutcome(e.getOperationOutcome());
+            throw abort;
+        }
+        Bundle.BundleEntryResponseComponent response = response(String.valueOf(e.getStatusCode()), null);
+        response.setOutcome(toOperationOutcome(e));
+        return response;
+    }
+
+    private static OperationOutcome toOperationOutcome(BaseServerResponseException e) {
+        IBaseOperationOutcome outcome = e.getOperationOutcome();
+        if (outcome instanceof OperationOutcome operationOutcome) {
+            return operationOutcome;
+        }
+        OperationOutcome operationOutcome = new OperationOutcome();
+        operationOutcome.addIssue()
+                .setSeverity(OperationOutcome.IssueSeverity.ERROR)
+                .setCode(OperationOutcome.IssueType.PROCESSING)
+                .setDiagnostics(e.getMessage());
+        return operationOutcome;
+    }
+
+    /**
+     * Creates the Patients in an NDJSON body ({@code application/fhir+ndjson}, one resource per line).
+     * The body is streamed and written in chunks, each committed on its own; the response counts
+     * created and failed lines and lists the first failures with their line numbers.
+     */
+    @Operation(name = "$import", idempotent = false, manualRequest = true)
+    public Parameters importNdjson(HttpServletRequest request) throws IOException {
+        ImportSummary summary;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8))) {
+            summary = bulkService.importNdjson(reader);
+        }
+
+        Parameters parameters = new Parameters();
+        parameters.addParameter("received", new Integer64Type(summary.received()));
+        parameters.addParameter("created", new Integer64Type(summary.created()));
+        parameters.addParameter("failed", new Integer64Type(summary.failed()));
+        parameters.addParameter("millis", new Integer64Type(summary.millis()));
+        for (BulkEntryOutcome failure : summary.reportedFailures()) {
+            Parameters.ParametersParameterComponent part = parameters.addParameter().setName("failure");
+            part.addPart().setName("line").setValue(new IntegerType(failure.index()));
+            part.addPart().setName("status").setValue(new IntegerType(failure.error().getStatusCode()));
+            part.addPart().setName("outcome").setResource(toOperationOutcome(failure.error()));
+        }
+        return parameters;
+    }
+}
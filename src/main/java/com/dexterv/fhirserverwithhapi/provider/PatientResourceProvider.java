@@ -1,38 +1,99 @@
 package com.dexterv.fhirserverwithhapi.provider;
-import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.i18n.Msg;
 import ca.uhn.fhir.rest.annotation.*;
+import ca.uhn.fhir.rest.annotation.Count;
+import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.PatchTypeEnum;
+import ca.uhn.fhir.rest.api.SummaryEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ParameterUtil;
 import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.server.IPagingProvider;
 import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.NotModifiedException;
+import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
-import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
-import ca.uhn.fhir.validation.FhirValidator;
-import ca.uhn.fhir.validation.SingleValidationMessage;
-import ca.uhn.fhir.validation.ValidationResult;
+import ca.uhn.fhir.rest.server.exceptions.ResourceVersionConflictException;
+import com.dexterv.fhirserverwithhapi.cache.PatientResourceCache;
+import com.dexterv.fhirserverwithhapi.cache.PatientSearchResultCache;
+import com.dexterv.fhirserverwithhapi.changes.PatientChangeOutbox;
+import com.dexterv.fhirserverwithhapi.config.NameIndexProperties;
+import com.dexterv.fhirserverwithhapi.config.UpdateProperties;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientChangeType;
 import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientValidationIssueEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientValidationStatus;
+import com.dexterv.fhirserverwithhapi.locking.ResourceLocks;
+import com.dexterv.fhirserverwithhapi.mappers.PatientMapper;
+import com.dexterv.fhirserverwithhapi.metrics.FhirMetrics;
+import com.dexterv.fhirserverwithhapi.metrics.FhirMetrics.Phase;
+import com.dexterv.fhirserverwithhapi.patch.PatientPatcher;
+import com.dexterv.fhirserverwithhapi.repositories.PatientHistoryArchiveRepository;
+import com.dexterv.fhirserverwithhapi.repositories.PatientHistoryRepository;
 import com.dexterv.fhirserverwithhapi.repositories.PatientRepository;
+import com.dexterv.fhirserverwithhapi.repositories.PatientSearchRepository;
+import com.dexterv.fhirserverwithhapi.repositories.PatientValidationIssueRepository;
+import com.dexterv.fhirserverwithhapi.repositories.PatientVersionInfo;
+import com.dexterv.fhirserverwithhapi.repositories.ResourceIdAllocator;
+import com.dexterv.fhirserverwithhapi.search.PatientHistoryBundleProvider;
+import com.dexterv.fhirserverwithhapi.search.PatientHistoryCriteria;
+import com.dexterv.fhirserverwithhapi.search.PatientNameIndex;
+import com.dexterv.fhirserverwithhapi.search.PatientReindexJob;
+import com.dexterv.fhirserverwithhapi.search.PatientSearchBundleProvider;
+import com.dexterv.fhirserverwithhapi.search.PatientSearchCriteria;
+import com.dexterv.fhirserverwithhapi.search.PatientSearchIndexer;
+import com.dexterv.fhirserverwithhapi.validation.PatientWriteValidator;
 import jakarta.validation.constraints.Null;
 import lombok.RequiredArgsConstructor;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r5.model.*;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 @Component
 @RequiredArgsConstructor
 public class PatientResourceProvider implements IResourceProvider {
 
     private final PatientRepository patientRepository;
-    private final FhirContext fhirContext;
-    private final FhirValidator fhirValidator;
+    private final ResourceIdAllocator resourceIdAllocator;
+    private final PatientWriteValidator writeValidator;
+    private final PatientValidationIssueRepository validationIssueRepository;
+    private final PatientMapper patientMapper;
+    private final PatientResourceCache patientCache;
+    private final PatientSearchIndexer searchIndexer;
+    private final PatientSearchRepository searchRepository;
+    private final PatientSearchResultCache searchResultCache;
+    private final PatientNameIndex nameIndex;
+    private final NameIndexProperties nameIndexProperties;
+    private final PatientHistoryRepository historyRepository;
+    private final PatientHistoryArchiveRepository historyArchiveRepository;
+    private final IPagingProvider pagingProvider;
+    private final PatientReindexJob reindexJob;
+    private final TransactionTemplate transactionTemplate;
+    private final FhirMetrics metrics;
+    private final ResourceLocks resourceLocks;
+    private final UpdateProperties updateProperties;
+    private final PatientPatcher patientPatcher;
+    private final PatientChangeOutbox changeOutbox;
 
     @Override
     public Class<? extends IBaseResource> getResourceType() {
@@ -50,28 +111,34 @@ public class PatientResourceProvider implements IResourceProvider {
         LocalDateTime localDateTime = LocalDateTime.now();
         // convert LocalDateTime → Date
         Date date = Date.from(localDateTime.atZone(ZoneId.systemDefault()).toInstant());
-        Long resourceId = patientRepository.getNextResourceId();
+        long phase = metrics.start();
+        Long resourceId = resourceIdAllocator.next();
+        metrics.record(Phase.ID_ALLOCATION, phase);
 
         // Manual add identifier atm
-        Identifier identifier = patient.addIdentifier();
-        identifier.setSystem("http://hospital.example.org/mrn"); // I just set it to this atm
-        String randomVal = "MRN" + UUID.randomUUID().toString();
-        identifier.setValue(randomVal);
-        // **** hapi fhir fluent coding
-        // patient.addIdentifier().setSystem("com.dexterv.fhirserverwithhapi").setValue(randomVal);
+        patientMapper.addGeneratedMrn(patient);
 
-        validateWithFhirSpec(patient);
-        validateResourceWithCustomRules(patient);
+        PatientValidationStatus validationStatus = validate(patient);
 
-        String json = FhirContext.forR5().newJsonParser().encodeResourceToString(patient);
+        phase = metrics.start();
+        String json = patientMapper.toJson(patient);
+        metrics.record(Phase.JSON_ENCODE, phase);
         PatientEntity entity = PatientEntity.builder()
                 .resourceId(resourceId)
                 .version(1)
-                .resource(json)
+                .current(true)
+                .validationStatus(validationStatus)
                 .lastUpdated(localDateTime)
                 .build();
+        patientMapper.writeResource(entity, json);
 
-        patientRepository.save(entity);
+        phase = metrics.start();
+        transactionTemplate.executeWithoutResult(status -> {
+            patientRepository.save(entity);
+            searchIndexer.index(resourceId, patient);
+            changeOutbox.record(entity, PatientChangeType.CREATE);
+        });
+        metrics.record(Phase.DB_WRITE, phase);
 
         // Set Patient resource Patient/<logical id> and set default version ID for new Patient resource
         patient.setId(
@@ -102,7 +169,7 @@ public class PatientResourceProvider implements IResourceProvider {
      * @return Returns a resource matching this identifier, or null if none exists.
      */
     @Read(version = true)
-    public Patient readPatientById(@IdParam IdType theId) {
+    public Patient readPatientById(@IdParam IdType theId, RequestDetails theRequestDetails) {
 
         long resourceId;
 
@@ -111,30 +178,150 @@ public class PatientResourceProvider implements IResourceProvider {
         } catch (NumberFormatException e) {
             throw new InvalidRequestException("Invalid with ID " + theId.getIdPart() + " not found");
         }
-        PatientEntity entity;
-        if (theId.hasVersionIdPart()) {
-            Integer versionId = Integer.parseInt(theId.getVersionIdPart());
+        Integer requestedVersion = requestedVersion(theId);
+        if (theRequestDetails != null) {
+            throwIfNotModified(resourceId, requestedVersion, theRequestDetails);
+        }
+        // A version never changes once written, so a cached copy can be served without touching the database
+        Integer cachedVersion = requestedVersion != null
+                ? requestedVersion
+                : patientCache.getCurrentVersion(resourceId);
+        if (cachedVersion != null) {
+            Patient cached = patientCache.get(resourceId, cachedVersion);
+            if (cached != null) {
+                return cached;
+            }
+        }
 
-            entity = patientRepository.findByResourceIdAndVersion(resourceId, versionId)
-                    .orElseThrow(() -> new ResourceNotFoundException("Patient/" + resourceId + "/_history/" + versionId + " not found"));
+        long dbRead = metrics.start();
+        PatientEntity entity;
+        if (requestedVersion != null) {
+            entity = findVersion(resourceId, requestedVersion)
+                    .orElseThrow(() -> new ResourceNotFoundException("Patient/" + resourceId + "/_history/" + requestedVersion + " not found"));
         } else {
-            entity = patientRepository.findTopByResourceIdOrderByVersionDesc(resourceId)
+            entity = patientRepository.findByResourceIdAndCurrentTrue(resourceId)
                     .orElseThrow(() -> new ResourceNotFoundException("Patient with ID " + resourceId + " not found"));
+            patientCache.putCurrentVersion(resourceId, entity.getVersion());
         }
+        metrics.record(Phase.DB_READ, dbRead);
 
-        Patient patient = (Patient) fhirContext
-                .newJsonParser()
-                .parseResource(entity.getResource());
+        return patientCache.get(entity, this::toPatient);
+    }
+
+    /**
+     * A stored version, from {@code patients} or, once PatientHistoryArchiver has moved it, {@code patient_history}.
+     */
+    private Optional<PatientEntity> findVersion(long resourceId, int version) {
+        return patientRepository.findByResourceIdAndVersion(resourceId, version)
+                .or(() -> historyArchiveRepository.findByResourceIdAndVersion(resourceId, version));
+    }
 
-        // 🔑 Always set the FHIR id before returning
-        patient.setId(new IdType("Patient", entity.getResourceId().toString(), entity.getVersion().toString()));
+    /**
+     * The version of a vread, or null for a plain read.
+     */
+    private static Integer requestedVersion(IdType theId) {
+        if (!theId.hasVersionIdPart()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(theId.getVersionIdPart());
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("Invalid version id: " + theId.getVersionIdPart());
+        }
+    }
 
-        return patient;
+    /**
+     * Read without conditional request headers, for callers inside the server.
+     */
+    public Patient readPatientById(IdType theId) {
+        return readPatientById(theId, null);
+    }
+
+    /**
+     * Answers a conditional read with 304 Not Modified when the client's copy is still current. Only the
+     * version and lastUpdated are looked at (from the cache or a projection query), never the resource body.
+     * If-Modified-Since is only looked at here without If-None-Match, but HAPI still checks it against the
+     * returned resource, so a request with both can get a 304 from either. A vread's version comes
+     * from the URL and may not exist, so it is always checked; the current version only skips the database when
+     * the cache knows it.
+     */
+    private void throwIfNotModified(long resourceId, Integer requestedVersion, RequestDetails theRequestDetails) {
+        Set<String> etags = parseIfNoneMatch(theRequestDetails.getHeader(Constants.HEADER_IF_NONE_MATCH));
+        Instant modifiedSince = etags.isEmpty()
+                ? parseHttpDate(theRequestDetails.getHeader(Constants.HEADER_IF_MODIFIED_SINCE))
+                : null;
+        if (etags.isEmpty() && modifiedSince == null) {
+            return;
+        }
+
+        Integer cachedVersion = requestedVersion == null ? patientCache.getCurrentVersion(resourceId) : null;
+        if (!etags.isEmpty() && cachedVersion != null) {
+            if (etags.contains("*") || etags.contains(cachedVersion.toString())) {
+                throw new NotModifiedException("Not Modified");
+            }
+            return;
+        }
+
+        long dbRead = metrics.start();
+        Optional<PatientVersionInfo> info = requestedVersion != null
+                ? patientRepository.findVersionInfoByResourceIdAndVersion(resourceId, requestedVersion)
+                        .or(() -> historyArchiveRepository.findVersionInfoByResourceIdAndVersion(resourceId, requestedVersion))
+                : patientRepository.findVersionInfoByResourceIdAndCurrentTrue(resourceId);
+        metrics.record(Phase.DB_READ, dbRead);
+        if (info.isEmpty()) {
+            return; // the regular read reports the 404
+        }
+        if (requestedVersion == null) {
+            patientCache.putCurrentVersion(resourceId, info.get().getVersion());
+        }
+
+        boolean notModified = etags.isEmpty()
+                ? info.get().getLastUpdated() != null && !info.get().getLastUpdated()
+                        .atZone(ZoneId.systemDefault()).toInstant().truncatedTo(ChronoUnit.SECONDS).isAfter(modifiedSince)
+                : etags.contains("*") || etags.contains(info.get().getVersion().toString());
+        if (notModified) {
+            throw new NotModifiedException("Not Modified");
+        }
+    }
+
+    /**
+     * Version ids from an If-None-Match header such as {@code W/"3"} or {@code "2", "3"}.
+     */
+    private static Set<String> parseIfNoneMatch(String header) {
+        if (header == null || header.isBlank()) {
+            return Set.of();
+        }
+        Set<String> versions = new HashSet<>();
+        for (String tag : header.split(",")) {
+            String version = tag.trim();
+            if (version.startsWith("W/")) {
+                version = version.substring(2);
+            }
+            versions.add(version.replace("\"", ""));
+        }
+        return versions;
+    }
+
+    private static Instant parseHttpDate(String header) {
+        if (header == null || header.isBlank()) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+            // HAPI re-checks the header after the read and cannot handle an invalid date either
+            throw new InvalidRequestException("Invalid If-Modified-Since header: " + header);
+        }
     }
 
     /**
      * The "@Update" annotation indicates that this method supports replacing an existing
      * resource (by ID) with a new instance of that resource.
+     * <p>
+     * With an If-Match header (HAPI puts its version on {@code theId}) the update only applies to that version
+     * and answers 412 Precondition Failed otherwise. Without it, an update that loses a race against another
+     * writer is retried on the new current version, up to fhir.update.max-retries times.
+     * </p>
      *
      * @param theId      This is the ID of the patient to update
      * @param incomingPatient This is the actual resource to save
@@ -142,61 +329,231 @@ public class PatientResourceProvider implements IResourceProvider {
      */
     @Update()
     public MethodOutcome updatePatient(@IdParam IdType theId, @ResourceParam Patient incomingPatient) {
-        LocalDateTime localDateTime = LocalDateTime.now();
-        // convert LocalDateTime → Date
-        Date date = Date.from(localDateTime.atZone(ZoneId.systemDefault()).toInstant());
-
         Long resourceId = getValidId(theId, incomingPatient);
-//        String versionId = theId.getVersionIdPart();
+        Integer expectedVersion = expectedVersion(theId.hasVersionIdPart() ? theId.getVersionIdPart() : null);
+
+        // Only depends on the incoming resource, so it runs before taking the lock
+        PatientValidationStatus validationStatus = validate(incomingPatient);
+
+        return withRetries(resourceId, () -> {
+            PatientEntity latest = readLatest(resourceId, expectedVersion);
+//          // 2. Parse existing JSON into FHIR Patient
+            Patient existingPatient = patientCache.get(latest, this::toPatient);
+
+            // 3. Merge Updates
+            patientMapper.mergePatient(existingPatient, incomingPatient);
+            return writeNextVersion(latest, expectedVersion, existingPatient, validationStatus);
+        });
+    }
 
-        validateWithFhirSpec(incomingPatient);
-        validateResourceWithCustomRules(incomingPatient);
+    /**
+     * The "@Patch" annotation indicates that this method supports changing part of an existing resource. The
+     * patch (JSON Patch or FHIRPath Patch, see {@link PatientPatcher}) is applied to the current version, and
+     * every change it makes is kept, unlike update which only takes name, gender and birthDate.
+     * <p>
+     * Only the changed elements are spec validated when possible (see
+     * {@link PatientWriteValidator#validateChanges}). A patch that changes nothing writes no new version.
+     * If-Match and concurrent writers are handled as for update; a retry re-applies the patch to the new
+     * current version.
+     * </p>
+     */
+    @Patch
+    public MethodOutcome patchPatient(@IdParam IdType theId, PatchTypeEnum thePatchType, @ResourceParam String theBody,
+                                      RequestDetails theRequestDetails) {
+        if (theId == null || !theId.hasIdPart()) {
+            throw new InvalidRequestException("Missing resource ID in URL");
+        }
+        Long resourceId;
+        try {
+            resourceId = Long.parseLong(theId.getIdPart());
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("Patient ID must be numeric, got: " + theId.getIdPart());
+        }
+        // HAPI only moves If-Match onto the id for update
+        String ifMatch = theRequestDetails == null ? null : theRequestDetails.getHeader(Constants.HEADER_IF_MATCH);
+        Integer expectedVersion = expectedVersion(theId.hasVersionIdPart() ? theId.getVersionIdPart()
+                : ifMatch == null || ifMatch.isBlank() ? null : ParameterUtil.parseETagValue(ifMatch));
+
+        return withRetries(resourceId, () -> {
+            PatientEntity latest = readLatest(resourceId, expectedVersion);
+            Patient current = patientCache.get(latest, this::toPatient);
+
+            long phase = metrics.start();
+            Patient patched = patientPatcher.apply(current, thePatchType, theBody);
+            Patient changes = PatientPatcher.changedElements(current, patched);
+            metrics.record(Phase.PATCH_APPLY, phase);
+            if (changes == null) {
+                MethodOutcome outcome = new MethodOutcome();
+                outcome.setId(new IdType("Patient", resourceId.toString(), latest.getVersion().toString()));
+                outcome.setResource(current);
+                return outcome;
+            }
 
-//        String json = FhirContext.forR5().newJsonParser().encodeResourceToString(patient);
+            phase = metrics.start();
+            try {
+                writeValidator.validateCustomRules(patched);
+            } finally {
+                metrics.record(Phase.CUSTOM_RULES, phase);
+            }
+            phase = metrics.start();
+            PatientValidationStatus validationStatus;
+            try {
+                validationStatus = writeValidator.validateChanges(patched, latest.getValidationStatus(), changes);
+            } finally {
+                metrics.record(Phase.SPEC_VALIDATION, phase);
+            }
+            return writeNextVersion(latest, expectedVersion, patched, validationStatus);
+        });
+    }
 
+    private static Integer expectedVersion(String version) {
+        if (version == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(version);
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("Invalid If-Match version: " + version);
+        }
+    }
+
+    /**
+     * Runs a write of the next version under the resource's lock. Without If-Match, a write that loses a race
+     * against another writer is retried on the new current version, up to fhir.update.max-retries times.
+     */
+    private MethodOutcome withRetries(Long resourceId, Supplier<MethodOutcome> write) {
+        for (int attempt = 0; ; attempt++) {
+            try (ResourceLocks.Handle ignored = resourceLocks.lock(resourceId)) {
+                return write.get();
+            } catch (ConcurrentUpdateException | DataIntegrityViolationException e) {
+                // A unique violation aborts an enclosing transaction (transaction Bundle), so only retry on our own
+                boolean retryable = e instanceof ConcurrentUpdateException
+                        || !TransactionSynchronizationManager.isActualTransactionActive();
+                if (!retryable || attempt >= updateProperties.getMaxRetries()) {
+                    throw new ResourceVersionConflictException(
+                            "Patient/" + resourceId + " was updated concurrently, try again");
+                }
+            }
+        }
+    }
+
+    private PatientEntity readLatest(Long resourceId, Integer expectedVersion) {
         // 1. Get latest version of the patient
-        PatientEntity latest = patientRepository.findTopByResourceIdOrderByVersionDesc(resourceId)
+        long phase = metrics.start();
+        PatientEntity latest = patientRepository.findByResourceIdAndCurrentTrue(resourceId)
                 .orElseThrow(() -> new ResourceNotFoundException("Patient with ID " + resourceId + " not found"));
+        metrics.record(Phase.DB_READ, phase);
+        if (expectedVersion != null && !expectedVersion.equals(latest.getVersion())) {
+            throw new PreconditionFailedException("If-Match version " + expectedVersion + " of Patient/" + resourceId
+                    + " is not the current version " + latest.getVersion());
+        }
+        return latest;
+    }
 
-//      // 2. Parse existing JSON into FHIR Patient
-        Patient existingPatient = (Patient) fhirContext
-                .newJsonParser()
-                .parseResource(latest.getResource());
-        
-        // 3. Merge Updates
-        mergePatient(existingPatient, incomingPatient);
+    private MethodOutcome writeNextVersion(PatientEntity latest, Integer expectedVersion, Patient newPatient,
+                                           PatientValidationStatus validationStatus) {
+        Long resourceId = latest.getResourceId();
+        LocalDateTime localDateTime = LocalDateTime.now();
+        // convert LocalDateTime → Date
+        Date date = Date.from(localDateTime.atZone(ZoneId.systemDefault()).toInstant());
+
+        newPatient.setId(new IdType("Patient", resourceId.toString(), String.valueOf(latest.getVersion() + 1)));
+        newPatient.getMeta().setLastUpdated(date);
 
-        String newJSON = FhirContext.forR5().newJsonParser().encodeResourceToString(existingPatient);
+        long phase = metrics.start();
+        String newJSON = patientMapper.toJson(newPatient);
+        metrics.record(Phase.JSON_ENCODE, phase);
 
         // 4. Create new DB row for versioned resources
         PatientEntity newVersion = PatientEntity.builder()
                 .resourceId(resourceId)
                 .version(latest.getVersion() + 1)
-                .resource(newJSON)
+                .current(true)
+                .validationStatus(validationStatus)
                 .lastUpdated(localDateTime)
                 .build();
-
-        patientRepository.save(newVersion);
+        patientMapper.writeResource(newVersion, newJSON);
+
+        phase = metrics.start();
+        Boolean written = transactionTemplate.execute(status -> {
+            // Move the current pointer and insert the new version atomically; the unique (resource_id, version)
+            // constraint backs this up if two writers still get past it
+            if (patientRepository.markSuperseded(latest.getId()) == 0) {
+                // nothing written; returning rather than throwing keeps an enclosing transaction usable for a retry
+                return false;
+            }
+            patientRepository.save(newVersion);
+            searchIndexer.index(resourceId, newPatient);
+            changeOutbox.record(newVersion, PatientChangeType.UPDATE);
+            return true;
+        });
+        metrics.record(Phase.DB_WRITE, phase);
+        if (!Boolean.TRUE.equals(written)) {
+            if (expectedVersion != null) {
+                throw new PreconditionFailedException("Patient/" + resourceId + "/_history/" + expectedVersion
+                        + " was updated concurrently");
+            }
+            throw new ConcurrentUpdateException(resourceId, latest.getVersion());
+        }
+        // Inside a transaction Bundle the new version only exists once the outer transaction commits
+        afterCommit(() -> {
+            patientCache.invalidateCurrentVersion(resourceId, newVersion.getVersion());
+            patientCache.put(resourceId, newVersion.getVersion(), newPatient, newJSON.length());
+        });
 
         MethodOutcome outcome = new MethodOutcome();
         outcome.setId(new IdType("Patient", resourceId.toString(), newVersion.getVersion().toString()));
-        outcome.setResource(existingPatient);
+        outcome.setResource(newPatient);
 
         return outcome;
 
     }
 
-    private void mergePatient(Patient existing, Patient incoming) {
-        if (incoming.hasName()) {
-            existing.setName(incoming.getName());
+    /**
+     * Another writer superseded the version this update was based on; the update can be retried.
+     */
+    private static final class ConcurrentUpdateException extends ResourceVersionConflictException {
+        private ConcurrentUpdateException(Long resourceId, Integer version) {
+            super("Patient/" + resourceId + "/_history/" + version + " was updated concurrently");
+        }
+    }
+
+    /**
+     * Business rules, then spec validation for the configured mode, each timed as its own phase.
+     */
+    private PatientValidationStatus validate(Patient patient) {
+        long phase = metrics.start();
+        try {
+            writeValidator.validateCustomRules(patient);
+        } finally {
+            metrics.record(Phase.CUSTOM_RULES, phase);
         }
-        if (incoming.hasGender()) {
-            existing.setGender(incoming.getGender());
+        phase = metrics.start();
+        try {
+            return writeValidator.validate(patient);
+        } finally {
+            metrics.record(Phase.SPEC_VALIDATION, phase);
         }
-        if (incoming.hasBirthDate()) {
-            existing.setBirthDate(incoming.getBirthDate());
+    }
+
+    private Patient toPatient(PatientEntity entity) {
+        long phase = metrics.start();
+        Patient patient = patientMapper.toPatient(entity);
+        metrics.record(Phase.JSON_PARSE, phase);
+        return patient;
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
         }
-        // 🔑 Leave other fields untouched unless explicitly updated
     }
 
     private static @NotNull Long getValidId(IdType theId, Patient patient) {
@@ -224,8 +581,16 @@ public class PatientResourceProvider implements IResourceProvider {
         }
     }
 
+    /**
+     * Instance history, newest version first. Pages are loaded and parsed on demand; see
+     * {@link PatientHistoryBundleProvider}.
+     */
     @History
-    public List<IBaseResource> historyPatient(@IdParam IdType theId) {
+    public IBundleProvider historyPatient(@IdParam IdType theId,
+                                          @Since InstantType theSince,
+                                          @At DateRangeParam theAt,
+                                          @Count Integer theCount,
+                                          @Offset Integer theOffset) {
         long resourceId;
 
         try {
@@ -234,128 +599,134 @@ public class PatientResourceProvider implements IResourceProvider {
             throw new InvalidRequestException("Invalid with ID " + theId.getIdPart() + " not found");
         }
 
-        List<PatientEntity> patientEntities = patientRepository.findAllByResourceIdOrderByVersionDesc(resourceId);
+        long dbRead = metrics.start();
+        boolean exists = patientRepository.existsByResourceId(resourceId);
+        metrics.record(Phase.DB_READ, dbRead);
+        if (!exists) {
+            throw new ResourceNotFoundException("Patient with ID " + resourceId + " not found");
+        }
 
-        return patientEntities.stream()
-                .map(e-> {
-                    Patient patient = (Patient) fhirContext
-                            .newJsonParser()
-                            .parseResource(e.getResource());
-                    // 🔑 Always set the FHIR id before returning
-                    patient.setId(new IdType("Patient", e.getResourceId().toString(), e.getVersion().toString()));
-                    return patient;
-                })
-                .collect(Collectors.toList());
+        return history(PatientHistoryCriteria.builder().resourceId(resourceId), theSince, theAt, theCount, theOffset);
     }
 
-    @Search
-    public Bundle searchPatient(
-            @OptionalParam(name = Patient.SP_FAMILY) StringParam family,
-            @OptionalParam(name = Patient.SP_GENDER) StringParam gender) {
-
-        List<PatientEntity> entities = patientRepository.findAll(); // fetch all
-
-        // I don't have separate columns (like family, gender)
-        // need to store searchable FHIR attributes (like family, given, gender) in separate DB columns in PatientEntity.
-        // Will map all search result at the moment
-        List<Patient> matched = entities.stream()
-                .map(e -> {
-                    Patient patient = (Patient) fhirContext.newJsonParser().parseResource(Patient.class, e.getResource());
-                    patient.setId(new IdType("Patient", e.getResourceId().toString(), e.getVersion().toString()));
-                    return patient;
-                })
-                .filter(p -> {
-                    boolean matches = true;
-                    if (family != null) {
-                        matches &= p.getName().stream()
-                                .anyMatch(n -> family.getValue().equalsIgnoreCase(n.getFamily()));
-                    }
-                    if (gender != null) {
-                        matches &= gender.getValue().equalsIgnoreCase(p.getGender().toCode());
-                    }
-                    return matches;
-                })
-                .toList();
-
-        // Build a Bundle response (FHIR standard for searches)
-        Bundle bundle = new Bundle();
-        bundle.setType(Bundle.BundleType.SEARCHSET);
-        bundle.setTotal(matched.size());
-
-        matched.forEach(p -> bundle.addEntry()
-                .setResource(p)
-                .setFullUrl("Patient/" + p.getIdElement().getIdPart()));
-
-        return bundle;
+    /**
+     * Type level history ({@code GET /fhir/Patient/_history}): every version of every Patient, most recently
+     * updated first. Incremental sync clients poll this with {@code _since}.
+     */
+    @History
+    public IBundleProvider historyPatientType(@Since InstantType theSince,
+                                              @At DateRangeParam theAt,
+                                              @Count Integer theCount,
+                                              @Offset Integer theOffset) {
+        return history(PatientHistoryCriteria.builder(), theSince, theAt, theCount, theOffset);
     }
 
-    @Search
-    public List<Patient> getAllPatients(
-//            @OptionalParam(name = "_count") Integer count,
-//            @OptionalParam(name = "_offset") Integer offset
-    ) {
-//        Integer pageSize = (count != null && count>0) ? count : 10;
-//        Integer pageOffset = (offset != null && offset>0) ? offset : 0;
-//        Pageable pageable = PageRequest.of(pageOffset / pageSize, pageSize);
-//        List<PatientEntity> entities = patientRepository.findAll(pageable).getContent();
-
-        List<PatientEntity> entities = patientRepository.findAll();
+    private IBundleProvider history(PatientHistoryCriteria.PatientHistoryCriteriaBuilder criteria,
+                                    InstantType since, DateRangeParam at, Integer count, Integer offset) {
+        // history pages are not capped by the paging provider, so an unbounded _count would load everything
+        if (count != null && count > pagingProvider.getMaximumPageSize()) {
+            throw new InvalidRequestException("_count must not exceed " + pagingProvider.getMaximumPageSize());
+        }
+        if (offset != null && offset < 0) {
+            throw new InvalidRequestException("_offset must not be negative");
+        }
 
-        List<Patient> patients = new ArrayList<>();
+        criteria.since(since == null ? null : since.getValue()).at(at);
+        return new PatientHistoryBundleProvider(criteria.build(), offset == null ? 0 : offset, count,
+                historyRepository, patientRepository, historyArchiveRepository, patientMapper, patientCache, metrics);
+    }
 
-        for (PatientEntity entity : entities) {
-            System.out.println(entity);
-            Patient patient = (Patient) fhirContext
-                    .newJsonParser()
-                    .parseResource(entity.getResource());
-            patient.setId("Patient/" + entity.getId());
-            patients.add(patient);
-        }
+    @Search
+    public IBundleProvider searchPatient(
+            @OptionalParam(name = Patient.SP_FAMILY) StringParam family,
+            @OptionalParam(name = Patient.SP_GIVEN) StringParam given,
+            @OptionalParam(name = Patient.SP_NAME) StringParam name,
+            @OptionalParam(name = Patient.SP_GENDER) TokenParam gender,
+            @OptionalParam(name = Patient.SP_BIRTHDATE) DateRangeParam birthdate,
+            @OptionalParam(name = Patient.SP_IDENTIFIER) TokenParam identifier,
+            @OptionalParam(name = Patient.SP_PHONETIC) StringParam phonetic,
+            SummaryEnum theSummary) {
+
+        PatientSearchCriteria criteria = PatientSearchCriteria.builder()
+                .family(family)
+                .given(given)
+                .name(name)
+                .gender(gender)
+                .birthdate(birthdate)
+                .identifier(identifier)
+                .phonetic(phonetic)
+                .build();
 
-        return patients;
+        // Taken before the name index is read, so a write after this point keeps the result out of the cache
+        PatientSearchResultCache.Ticket ticket = searchResultCache.ticket(criteria.cacheKey());
+        // Name parameters are resolved to resource ids in memory when the name index is built, everything else
+        // is matched in SQL against the search index tables; pages are loaded and parsed on demand. The name
+        // index is only asked when a page or the count is not answered by a cached result.
+        return new PatientSearchBundleProvider(criteria, nameIndex, nameIndexProperties,
+                searchRepository, patientRepository, patientMapper, patientCache, metrics)
+                .withResultCache(ticket, theSummary == SummaryEnum.COUNT);
     }
 
     /**
-     * This method just provides simple business validation for resources we are storing.
-     *
-     * @param patient The patient to validate
+     * Rebuilds the search index tables from the stored rows, e.g. for data written before indexing existed.
+     * Runs in the background; call again to see whether the previous run is still going.
      */
-    private void validateResourceWithCustomRules(Patient patient) {
-
-        if (!patient.hasName() || patient.getNameFirstRep().getFamily() == null) {
-            throw new InvalidRequestException("Patient must have a family name");
-        }
-
-        if (!patient.hasGender()) {
-            throw new InvalidRequestException("Patient must have a gender");
-        }
-
-        if (patient.hasBirthDate() && patient.getBirthDate().after(new Date())) {
-            throw new InvalidRequestException("Patient birthDate cannot be in the future");
-        }
+    @Operation(name = "$reindex", idempotent = false)
+    public Parameters reindex() {
+        boolean started = reindexJob.start();
+
+        Parameters parameters = new Parameters();
+        parameters.addParameter("started", started);
+        parameters.addParameter("running", reindexJob.isRunning());
+        parameters.addParameter("processed", new Integer64Type(reindexJob.getProcessed()));
+        return parameters;
     }
 
     /**
-     * This method comply with FHIR specs validation
-     *
-     * @param patient The patient to validate
+     * Reports the spec validation outcome of the current version (or the version in the id), mainly for
+     * resources accepted in DEFERRED validation mode and checked afterwards by the background worker.
      */
-    private void validateWithFhirSpec(Patient patient) {
-
-        ValidationResult result = fhirValidator.validateWithResult(patient);
+    @Operation(name = "$validation-status", idempotent = true)
+    public OperationOutcome validationStatus(@IdParam IdType theId) {
+        long resourceId;
 
-        if (!result.isSuccessful()) {
-            OperationOutcome outcome = new OperationOutcome();
+        try {
+            resourceId = Long.parseLong(theId.getIdPart());
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("Invalid with ID " + theId.getIdPart() + " not found");
+        }
 
-            for (SingleValidationMessage msg : result.getMessages()) {
-                OperationOutcome.OperationOutcomeIssueComponent issue = outcome.addIssue();
-                issue.setSeverity(OperationOutcome.IssueSeverity.fromCode(msg.getSeverity().getCode()));
-                issue.setCode(OperationOutcome.IssueType.PROCESSING);
-                issue.setDiagnostics(msg.getMessage());
+        Integer requestedVersion = requestedVersion(theId);
+        PatientEntity entity = requestedVersion != null
+                ? findVersion(resourceId, requestedVersion)
+                        .orElseThrow(() -> new ResourceNotFoundException("Patient/" + resourceId + "/_history/" + theId.getVersionIdPart() + " not found"))
+                : patientRepository.findByResourceIdAndCurrentTrue(resourceId)
+                        .orElseThrow(() -> new ResourceNotFoundException("Patient with ID " + resourceId + " not found"));
+
+        OperationOutcome outcome = new OperationOutcome();
+        PatientValidationStatus status = entity.getValidationStatus();
+        outcome.addIssue()
+                .setSeverity(OperationOutcome.IssueSeverity.INFORMATION)
+                .setCode(OperationOutcome.IssueType.INFORMATIONAL)
+                .setDiagnostics("Patient/" + resourceId + "/_history/" + entity.getVersion()
+                        + " validation status: " + (status == null ? PatientValidationStatus.VALID : status));
+
+        for (PatientValidationIssueEntity issue : validationIssueRepository.findByResourceIdAndVersionOrderById(resourceId, entity.getVersion())) {
+            OperationOutcome.OperationOutcomeIssueComponent component = outcome.addIssue()
+                    .setSeverity(OperationOutcome.IssueSeverity.fromCode(issue.getSeverity()))
+                    .setCode(OperationOutcome.IssueType.PROCESSING)
+                    .setDiagnostics(issue.getMessage());
+            if (issue.getLocation() != null) {
+                component.addExpression(issue.getLocation());
             }
-
-            throw new UnprocessableEntityException(fhirContext, outcome);
         }
+        return outcome;
+    }
 
+    @Search
+    public IBundleProvider getAllPatients(SummaryEnum theSummary) {
+        PatientSearchCriteria criteria = PatientSearchCriteria.builder().build();
+        return new PatientSearchBundleProvider(criteria, searchRepository, patientRepository, patientMapper, patientCache, metrics)
+                .withResultCache(searchResultCache.ticket(criteria.cacheKey()), theSummary == SummaryEnum.COUNT);
     }
 }
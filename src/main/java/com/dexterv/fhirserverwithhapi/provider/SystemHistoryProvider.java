@@ -0,0 +1,31 @@
+package com.dexterv.fhirserverwithhapi.provider;
+
+import ca.uhn.fhir.rest.annotation.At;
+import ca.uhn.fhir.rest.annotation.Count;
+import ca.uhn.fhir.rest.annotation.History;
+import ca.uhn.fhir.rest.annotation.Offset;
+import ca.uhn.fhir.rest.annotation.Since;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import lombok.RequiredArgsConstructor;
+import org.hl7.fhir.r5.model.InstantType;
+import org.springframework.stereotype.Component;
+
+/**
+ * Server level history ({@code GET /fhir/_history}). Patient is the only stored resource type, so this is
+ * the Patient type level history served from the server root.
+ */
+@Component
+@RequiredArgsConstructor
+public class SystemHistoryProvider {
+
+    private final PatientResourceProvider patientProvider;
+
+    @History
+    public IBundleProvider historyServer(@Since InstantType theSince,
+                                         @At DateRangeParam theAt,
+                                         @Count Integer theCount,
+                                         @Offset Integer theOffset) {
+        return patientProvider.historyPatientType(theSince, theAt, theCount, theOffset);
+    }
+}
@@ -0,0 +1,86 @@
+package com.dexterv.fhirserverwithhapi.repositories;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientDateIndexEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientStringIndexEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientTokenIndexEntity;
+import com.dexterv.fhirserverwithhapi.search.PatientSearchIndexRows;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JDBC batch inserts for brand-new Patients and their search index rows, bypassing the JPA session:
+ * one prepared statement per table and chunk instead of a persist and flush per row.
+ * Callers provide the transaction.
+ */
+@Repository
+@RequiredArgsConstructor
+public class PatientBulkRepository {
+
+    private static final String INSERT_PATIENT = "INSERT INTO patients"
+            + " (resource_id, version, is_current, validation_status, last_updated, resource, resource_bytes, resource_format, resource_size)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_STRING = "INSERT INTO patient_search_string"
+            + " (resource_id, param_name, value_normalized, value_exact) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_TOKEN = "INSERT INTO patient_search_token"
+            + " (resource_id, param_name, token_system, token_value) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_DATE = "INSERT INTO patient_search_date"
+            + " (resource_id, param_name, value_low, value_high) VALUES (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void insertAll(List<PatientEntity> patients, List<PatientSearchIndexRows> indexRows) {
+        jdbcTemplate.batchUpdate(INSERT_PATIENT, patients, patients.size(), (ps, p) -> {
+            ps.setLong(1, p.getResourceId());
+            ps.setInt(2, p.getVersion());
+            ps.setBoolean(3, Boolean.TRUE.equals(p.getCurrent()));
+            ps.setString(4, p.getValidationStatus() == null ? null : p.getValidationStatus().name());
+            ps.setTimestamp(5, Timestamp.valueOf(p.getLastUpdated()));
+            ps.setString(6, p.getResource());
+            if (p.getResourceBytes() == null) {
+                ps.setNull(7, Types.VARBINARY);
+            } else {
+                ps.setBytes(7, p.getResourceBytes());
+            }
+            ps.setString(8, p.getResourceFormat() == null ? null : p.getResourceFormat().name());
+            if (p.getResourceSize() == null) {
+                ps.setNull(9, Types.INTEGER);
+            } else {
+                ps.setInt(9, p.getResourceSize());
+            }
+        });
+
+        List<PatientStringIndexEntity> strings = new ArrayList<>();
+        List<PatientTokenIndexEntity> tokens = new ArrayList<>();
+        List<PatientDateIndexEntity> dates = new ArrayList<>();
+        for (PatientSearchIndexRows rows : indexRows) {
+            strings.addAll(rows.strings());
+            tokens.addAll(rows.tokens());
+            dates.addAll(rows.dates());
+        }
+        jdbcTemplate.batchUpdate(INSERT_STRING, strings, strings.size(), (ps, row) -> {
+            ps.setLong(1, row.getResourceId());
+            ps.setString(2, row.getParamName());
+            ps.setString(3, row.getValueNormalized());
+            ps.setString(4, row.getValueExact());
+        });
+        jdbcTemplate.batchUpdate(INSERT_TOKEN, tokens, tokens.size(), (ps, row) -> {
+            ps.setLong(1, row.getResourceId());
+            ps.setString(2, row.getParamName());
+            ps.setString(3, row.getSystem());
+            ps.setString(4, row.getValue());
+        });
+        jdbcTemplate.batchUpdate(INSERT_DATE, dates, dates.size(), (ps, row) -> {
+            ps.setLong(1, row.getResourceId());
+            ps.setString(2, row.getParamName());
+            ps.setTimestamp(3, Timestamp.valueOf(row.getValueLow()));
+            ps.setTimestamp(4, Timestamp.valueOf(row.getValueHigh()));
+        });
+    }
+}
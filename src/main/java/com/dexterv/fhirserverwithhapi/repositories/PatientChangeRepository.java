@@ -0,0 +1,177 @@
+package com.dexterv.fhirserverwithhapi.repositories;
+
+import com.dexterv.fhirserverwithhapi.changes.PatientChangeEvent;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientChangeEntity;
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * JDBC access to the change feed tables: the {@code patient_changes} outbox and the {@code patient_change_cursors}
+ * positions. Callers provide the transaction; outbox rows must be written in the one that writes the version.
+ */
+@Repository
+@RequiredArgsConstructor
+public class PatientChangeRepository {
+
+    private static final String INSERT = "INSERT INTO patient_changes (resource_id, version, change_type, changed_at)"
+            + " VALUES (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    public void insertAll(List<PatientChangeEntity> changes) {
+        jdbcTemplate.batchUpdate(INSERT, changes, changes.size(), (ps, c) -> {
+            ps.setLong(1, c.getResourceId());
+            ps.setInt(2, c.getVersion());
+            ps.setString(3, c.getChangeType().name());
+            ps.setTimestamp(4, Timestamp.valueOf(c.getChangedAt()));
+        });
+    }
+
+    /**
+     * Outbox rows that have no offset yet, in the order they were inserted.
+     */
+    public List<Long> findUnassigned(int limit) {
+        return jdbcTemplate.queryForList("SELECT id FROM patient_changes WHERE feed_offset IS NULL ORDER BY id LIMIT ?",
+                Long.class, limit);
+    }
+
+    /**
+     * Gives the rows consecutive offsets starting at {@code firstOffset}, in the order of the list.
+     */
+    public void assignOffsets(List<Long> ids, long firstOffset) {
+        jdbcTemplate.batchUpdate("UPDATE patient_changes SET feed_offset = ? WHERE id = ?", new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ps.setLong(1, firstOffset + i);
+                ps.setLong(2, ids.get(i));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return ids.size();
+            }
+        });
+    }
+
+    /**
+     * Changes with an offset after {@code after}, in offset order.
+     */
+    public List<PatientChangeEvent> findAfter(long after, int limit) {
+        return jdbcTemplate.query("SELECT feed_offset, resource_id, version, change_type, changed_at FROM patient_changes"
+                        + " WHERE feed_offset > ? ORDER BY feed_offset LIMIT ?",
+                (rs, i) -> {
+                    String id = Long.toString(rs.getLong("resource_id"));
+                    String version = Integer.toString(rs.getInt("version"));
+                    return new PatientChangeEvent(
+                            rs.getLong("feed_offset"),
+                            rs.getString("change_type").toLowerCase(Locale.ROOT),
+                            "Patient/" + id + "/_history/" + version,
+                            id,
+                            version,
+                            rs.getTimestamp("changed_at").toLocalDateTime().atZone(ZoneId.systemDefault()).toInstant().toString());
+                },
+                after, limit);
+    }
+
+    /**
+     * The lowest offset still stored, or null when no change with an offset is left.
+     */
+    public Long findFirstOffset() {
+        return jdbcTemplate.queryForObject("SELECT MIN(feed_offset) FROM patient_changes", Long.class);
+    }
+
+    /**
+     * Deletes changes up to {@code maxOffset} that are older than {@code before}.
+     */
+    public int deleteDelivered(long maxOffset, LocalDateTime before) {
+        return jdbcTemplate.update("DELETE FROM patient_changes WHERE feed_offset <= ? AND changed_at < ?",
+                maxOffset, Timestamp.valueOf(before));
+    }
+
+    /**
+     * Creates the cursor at {@code initialOffset} unless it exists. Safe to call from several instances at once.
+     */
+    public void createCursor(String name, long initialOffset) {
+        try {
+            jdbcTemplate.update("INSERT INTO patient_change_cursors (name, feed_offset) SELECT ?, ?"
+                    + " WHERE NOT EXISTS (SELECT 1 FROM patient_change_cursors WHERE name = ?)", name, initialOffset, name);
+        } catch (DuplicateKeyException e) {
+            // another instance created it between the check and the insert
+        }
+    }
+
+    public Optional<Long> findCursor(String name) {
+        return jdbcTemplate.queryForList("SELECT feed_offset FROM patient_change_cursors WHERE name = ?", Long.class, name)
+                .stream().findFirst();
+    }
+
+    /**
+     * Locks the cursor until the transaction ends, waiting for an instance that holds it.
+     */
+    public long lockCursor(String name) {
+        return jdbcTemplate.queryForObject("SELECT feed_offset FROM patient_change_cursors WHERE name = ? FOR UPDATE",
+                Long.class, name);
+    }
+
+    public void updateCursor(String name, long offset) {
+        jdbcTemplate.update("UPDATE patient_change_cursors SET feed_offset = ? WHERE name = ?", offset, name);
+    }
+
+    /**
+     * Leases the cursor to {@code owner} until {@code until} if it is free, its lease has run out, or the owner
+     * already holds it. The row is only locked for this one statement.
+     *
+     * @return the cursor's offset, or empty when another owner holds the lease
+     */
+    public Optional<Long> tryLeaseCursor(String name, String owner, LocalDateTime now, LocalDateTime until) {
+        int leased = jdbcTemplate.update("UPDATE patient_change_cursors SET lease_owner = ?, lease_until = ?"
+                        + " WHERE name = ? AND (lease_owner IS NULL OR lease_owner = ? OR lease_until < ?)",
+                owner, Timestamp.valueOf(until), name, owner, Timestamp.valueOf(now));
+        return leased == 0 ? Optional.empty() : findCursor(name);
+    }
+
+    /**
+     * Moves a leased cursor and extends the lease to {@code until}.
+     *
+     * @return false when the lease was lost to another owner in the meantime; the cursor is then left alone
+     */
+    public boolean advanceLeasedCursor(String name, String owner, long offset, LocalDateTime until) {
+        return jdbcTemplate.update("UPDATE patient_change_cursors SET feed_offset = ?, lease_until = ?"
+                + " WHERE name = ? AND lease_owner = ?", offset, Timestamp.valueOf(until), name, owner) == 1;
+    }
+
+    /**
+     * Gives up the owner's lease, so another instance can take over without waiting for it to run out.
+     */
+    public void releaseCursor(String name, String owner) {
+        jdbcTemplate.update("UPDATE patient_change_cursors SET lease_owner = NULL, lease_until = NULL"
+                + " WHERE name = ? AND lease_owner = ?", name, owner);
+    }
+
+    /**
+     * The lowest position among the given cursors, or null when none of them exists.
+     */
+    public Long findMinCursor(Collection<String> names) {
+        if (names.isEmpty()) {
+            return null;
+        }
+        return namedJdbcTemplate.queryForObject("SELECT MIN(feed_offset) FROM patient_change_cursors WHERE name IN (:names)",
+                new MapSqlParameterSource("names", names), Long.class);
+    }
+}
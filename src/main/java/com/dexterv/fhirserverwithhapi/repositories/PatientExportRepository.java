@@ -0,0 +1,66 @@
+package com.dexterv.fhirserverwithhapi.repositories;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.ResourceFormat;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+/**
+ * Streams current Patient rows for bulk export through a forward-only, read-only cursor with a fixed
+ * fetch size, handing each row to the caller as it arrives. Nothing is collected, so memory does not
+ * depend on the number of rows. PostgreSQL only uses a server-side cursor inside a transaction, so
+ * callers must provide one.
+ */
+@Repository
+public class PatientExportRepository {
+
+    private static final String CURRENT_ROWS = "SELECT id, resource_id, version, last_updated, resource, resource_bytes, resource_format"
+            + " FROM patients WHERE is_current = true";
+
+    private final DataSource dataSource;
+
+    public PatientExportRepository(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param since only rows updated after this time, or all current rows when null
+     */
+    public void streamCurrent(LocalDateTime since, int fetchSize, Consumer<PatientEntity> consumer) {
+        // A template of its own, so the fetch size does not leak to other queries
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(fetchSize);
+
+        if (since == null) {
+            jdbcTemplate.query(CURRENT_ROWS + " ORDER BY resource_id", rs -> {
+                consumer.accept(toEntity(rs));
+            });
+        } else {
+            jdbcTemplate.query(CURRENT_ROWS + " AND last_updated > ? ORDER BY resource_id", rs -> {
+                consumer.accept(toEntity(rs));
+            }, Timestamp.valueOf(since));
+        }
+    }
+
+    private static PatientEntity toEntity(ResultSet rs) throws SQLException {
+        String format = rs.getString("resource_format");
+        Timestamp lastUpdated = rs.getTimestamp("last_updated");
+        return PatientEntity.builder()
+                .id(rs.getLong("id"))
+                .resourceId(rs.getLong("resource_id"))
+                .version(rs.getInt("version"))
+                .current(true)
+                .lastUpdated(lastUpdated == null ? null : lastUpdated.toLocalDateTime())
+                .resource(rs.getString("resource"))
+                .resourceBytes(rs.getBytes("resource_bytes"))
+                .resourceFormat(format == null ? null : ResourceFormat.valueOf(format))
+                .build();
+    }
+}
@@ -0,0 +1,181 @@
+package com.dexterv.fhirserverwithhapi.repositories;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientValidationStatus;
+import com.dexterv.fhirserverwithhapi.domain.entities.ResourceFormat;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Archived Patient versions in {@code patient_history}, and the move of superseded versions out of
+ * {@code patients}. Archived rows keep the id they had in {@code patients}, so history pages address both tables
+ * with the same row ids. On PostgreSQL the table is range partitioned by month of last_updated
+ * (schema-postgresql.sql); partitions are created here as versions arrive. Callers provide the transaction.
+ */
+@Repository
+@RequiredArgsConstructor
+public class PatientHistoryArchiveRepository {
+
+    private static final String COLUMNS = "id, resource_id, version, last_updated, validation_status, resource_format,"
+            + " resource_bytes, resource_size";
+    private static final String INSERT = "INSERT INTO patient_history (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final RowMapper<PatientEntity> ARCHIVED_ROW = (rs, i) -> {
+        PatientEntity entity = toEntity(rs);
+        if (entity.getResourceFormat() == ResourceFormat.JSON) {
+            // JSON is stored as UTF-8 bytes here, while ResourceCodecs reads JSON rows from the text column
+            entity.setResource(new String(entity.getResourceBytes(), StandardCharsets.UTF_8));
+            entity.setResourceBytes(null);
+        }
+        return entity;
+    };
+
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private volatile Boolean partitioned;
+
+    public Optional<PatientEntity> findByResourceIdAndVersion(Long resourceId, Integer version) {
+        return jdbcTemplate.query("SELECT " + COLUMNS + " FROM patient_history WHERE resource_id = ? AND version = ?",
+                ARCHIVED_ROW, resourceId, version).stream().findFirst();
+    }
+
+    public Optional<PatientVersionInfo> findVersionInfoByResourceIdAndVersion(Long resourceId, Integer version) {
+        return jdbcTemplate.query("SELECT version, last_updated FROM patient_history WHERE resource_id = ? AND version = ?",
+                (rs, i) -> (PatientVersionInfo) new ArchivedVersionInfo(rs.getInt("version"),
+                        rs.getTimestamp("last_updated").toLocalDateTime()),
+                resourceId, version).stream().findFirst();
+    }
+
+    public List<PatientEntity> findAllById(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return namedJdbcTemplate.query("SELECT " + COLUMNS + " FROM patient_history WHERE id IN (:ids)",
+                new MapSqlParameterSource("ids", ids), ARCHIVED_ROW);
+    }
+
+    /**
+     * Locks the oldest superseded versions written before the cutoff, skipping rows another archiver holds.
+     * Versions still waiting for deferred validation stay where the worker looks for them.
+     */
+    public List<PatientEntity> lockArchivable(LocalDateTime cutoff, int limit) {
+        return jdbcTemplate.query("SELECT id, resource_id, version, last_updated, validation_status, resource,"
+                        + " resource_bytes, resource_format, resource_size FROM patients"
+                        + " WHERE is_current = false AND last_updated < ?"
+                        + " AND (validation_status IS NULL OR validation_status <> 'PENDING')"
+                        + " ORDER BY last_updated, id LIMIT ? FOR UPDATE SKIP LOCKED",
+                (rs, i) -> {
+                    PatientEntity entity = toEntity(rs);
+                    entity.setResource(rs.getString("resource"));
+                    return entity;
+                },
+                Timestamp.valueOf(cutoff), limit);
+    }
+
+    /**
+     * Copies the versions into {@code patient_history} and deletes them from {@code patients}.
+     *
+     * @param archived the locked rows, their body already encoded in the archive format
+     */
+    public void move(List<PatientEntity> archived) {
+        createPartitions(archived.stream().map(p -> YearMonth.from(p.getLastUpdated())).collect(Collectors.toSet()));
+        jdbcTemplate.batchUpdate(INSERT, archived, archived.size(), (ps, p) -> {
+            ps.setLong(1, p.getId());
+            ps.setLong(2, p.getResourceId());
+            ps.setInt(3, p.getVersion());
+            ps.setTimestamp(4, Timestamp.valueOf(p.getLastUpdated()));
+            ps.setString(5, p.getValidationStatus() == null ? null : p.getValidationStatus().name());
+            ps.setString(6, p.getResourceFormat().name());
+            ps.setBytes(7, p.getResourceBytes());
+            if (p.getResourceSize() == null) {
+                ps.setNull(8, Types.INTEGER);
+            } else {
+                ps.setInt(8, p.getResourceSize());
+            }
+        });
+        List<Long> ids = archived.stream().map(PatientEntity::getId).toList();
+        int deleted = namedJdbcTemplate.update("DELETE FROM patients WHERE id IN (:ids) AND is_current = false",
+                new MapSqlParameterSource("ids", ids));
+        if (deleted != ids.size()) {
+            // the rows are locked, so this means one became current again; roll the batch back
+            throw new IllegalStateException("Expected to archive " + ids.size() + " Patient versions, removed " + deleted);
+        }
+    }
+
+    /**
+     * Creates the monthly partitions that do not exist yet. Runs inside the moving transaction, so a partition
+     * is only kept if the versions it was created for are.
+     */
+    private void createPartitions(Set<YearMonth> months) {
+        if (!isPartitioned()) {
+            return;
+        }
+        for (YearMonth month : months) {
+            String name = String.format("patient_history_y%04dm%02d", month.getYear(), month.getMonthValue());
+            if (jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, name)) {
+                continue;
+            }
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF patient_history"
+                    + " FOR VALUES FROM ('" + month.atDay(1) + "') TO ('" + month.plusMonths(1).atDay(1) + "')");
+        }
+    }
+
+    private boolean isPartitioned() {
+        Boolean result = partitioned;
+        if (result == null) {
+            // only schema-postgresql.sql partitions the table; elsewhere (H2 benchmarks) it is a plain table
+            result = "PostgreSQL".equals(jdbcTemplate.execute(
+                    (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName()));
+            partitioned = result;
+        }
+        return result;
+    }
+
+    private static PatientEntity toEntity(ResultSet rs) throws SQLException {
+        String status = rs.getString("validation_status");
+        String format = rs.getString("resource_format");
+        int size = rs.getInt("resource_size");
+        boolean sizeUnknown = rs.wasNull();
+        return PatientEntity.builder()
+                .id(rs.getLong("id"))
+                .resourceId(rs.getLong("resource_id"))
+                .version(rs.getInt("version"))
+                .current(false)
+                .lastUpdated(rs.getTimestamp("last_updated").toLocalDateTime())
+                .validationStatus(status == null ? null : PatientValidationStatus.valueOf(status))
+                .resourceBytes(rs.getBytes("resource_bytes"))
+                .resourceFormat(format == null ? null : ResourceFormat.valueOf(format))
+                .resourceSize(sizeUnknown ? null : size)
+                .build();
+    }
+
+    private record ArchivedVersionInfo(Integer version, LocalDateTime lastUpdated) implements PatientVersionInfo {
+        @Override
+        public Integer getVersion() {
+            return version;
+        }
+
+        @Override
+        public LocalDateTime getLastUpdated() {
+            return lastUpdated;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.dexterv.fhirserverwithhapi.repositories;
+
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import com.dexterv.fhirserverwithhapi.search.PatientHistoryCriteria;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Turns {@link PatientHistoryCriteria} into SQL over the version rows, newest first. Versions live in
+ * {@code patients} until PatientHistoryArchiver moves them to {@code patient_history}, keeping their row id, so
+ * every query reads both. Only row ids are returned; callers load and parse the matching rows themselves.
+ * <p>
+ * Instance history walks ux_patients_resource_version and idx_patient_history_resource_version; type and server
+ * level history walk idx_patients_last_updated and idx_patient_history_last_updated, so a {@code _since} poll
+ * reads only the rows changed since then.
+ */
+@Repository
+@RequiredArgsConstructor
+public class PatientHistoryRepository {
+
+    /**
+     * Every stored version. Filters on it are pushed down into both tables, and a single statement sees a version
+     * in exactly one of them even while the archiver moves it.
+     */
+    private static final String VERSIONS = "(SELECT id, resource_id, version, last_updated FROM patients"
+            + " UNION ALL SELECT id, resource_id, version, last_updated FROM patient_history)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Returns the internal row ids of one page of history. History pages are addressed by {@code _offset},
+     * so there is no keyset to continue from; the offset only walks the filtered index range, never the
+     * whole table.
+     */
+    public List<Long> findPageRowIds(PatientHistoryCriteria criteria, int offset, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("limit", limit)
+                .addValue("offset", offset);
+
+        String sql = "SELECT p.id FROM " + VERSIONS + " p WHERE " + buildWhere(criteria, params)
+                + (criteria.isInstance() ? " ORDER BY p.version DESC" : " ORDER BY p.last_updated DESC, p.id DESC")
+                + " LIMIT :limit OFFSET :offset";
+
+        return jdbcTemplate.queryForList(sql, params, Long.class);
+    }
+
+    private static String buildWhere(PatientHistoryCriteria criteria, MapSqlParameterSource params) {
+        StringBuilder where = new StringBuilder();
+        if (criteria.isInstance()) {
+            params.addValue("resourceId", criteria.getResourceId());
+            where.append("p.resource_id = :resourceId");
+        } else {
+            // every writer sets last_updated; rows without one have no place in a time ordered history
+            where.append("p.last_updated IS NOT NULL");
+        }
+
+        if (criteria.getSince() != null) {
+            params.addValue("since", toLocalDateTime(criteria.getSince()));
+            where.append(" AND p.last_updated >= :since");
+        }
+
+        DateRangeParam at = criteria.getAt();
+        if (at != null && !at.isEmpty()) {
+            Date lower = at.getLowerBoundAsInstant();
+            Date upper = at.getUpperBoundAsInstant();
+            // a version was current from its own last_updated until the next version was written
+            if (upper != null) {
+                params.addValue("atHigh", toLocalDateTime(upper));
+                where.append(" AND p.last_updated <= :atHigh");
+            }
+            if (lower != null) {
+                params.addValue("atLow", toLocalDateTime(lower));
+                where.append(" AND NOT EXISTS (SELECT 1 FROM ").append(VERSIONS)
+                        .append(" n WHERE n.resource_id = p.resource_id")
+                        .append(" AND n.version > p.version AND n.last_updated <= :atLow)");
+            }
+        }
+        return where.toString();
+    }
+
+    private static LocalDateTime toLocalDateTime(Date date) {
+        return LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+    }
+}
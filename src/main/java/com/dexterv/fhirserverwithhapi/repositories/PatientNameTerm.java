@@ -0,0 +1,8 @@
+package com.dexterv.fhirserverwithhapi.repositories;
+
+/**
+ * One name value of a Patient as stored in {@code patient_search_string}: the parameter it belongs to
+ * (family, given or name) and its normalized form.
+ */
+public record PatientNameTerm(long resourceId, String paramName, String value) {
+}
@@ -0,0 +1,46 @@
+package com.dexterv.fhirserverwithhapi.repositories;
+
+import org.hl7.fhir.r5.model.Patient;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads the normalized name values out of {@code patient_search_string} for the in-memory name index.
+ * The table only covers current versions, so no JSON has to be parsed to build the index.
+ */
+@Repository
+public class PatientNameTermRepository {
+
+    private static final String NAME_TERMS = "SELECT resource_id, param_name, value_normalized FROM patient_search_string"
+            + " WHERE param_name IN ('" + Patient.SP_FAMILY + "', '" + Patient.SP_GIVEN + "', '" + Patient.SP_NAME + "')";
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+
+    public PatientNameTermRepository(DataSource dataSource, JdbcTemplate jdbcTemplate) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Streams every name term with a fixed fetch size. PostgreSQL only uses a server-side cursor inside a
+     * transaction, so callers must provide one.
+     */
+    public void streamAll(int fetchSize, Consumer<PatientNameTerm> consumer) {
+        // A template of its own, so the fetch size does not leak to other queries
+        JdbcTemplate streaming = new JdbcTemplate(dataSource);
+        streaming.setFetchSize(fetchSize);
+        streaming.query(NAME_TERMS, rs -> {
+            consumer.accept(new PatientNameTerm(rs.getLong(1), rs.getString(2), rs.getString(3)));
+        });
+    }
+
+    public List<PatientNameTerm> findByResourceId(long resourceId) {
+        return jdbcTemplate.query(NAME_TERMS + " AND resource_id = ?",
+                (rs, rowNum) -> new PatientNameTerm(rs.getLong(1), rs.getString(2), rs.getString(3)), resourceId);
+    }
+}
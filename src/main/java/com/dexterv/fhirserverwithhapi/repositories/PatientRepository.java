@@ -1,10 +1,15 @@
 package com.dexterv.fhirserverwithhapi.repositories;
 
 import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientValidationStatus;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -13,7 +18,43 @@ public interface PatientRepository extends JpaRepository<PatientEntity, Long> {
     @Query(value = "SELECT nextval('resource_seq')", nativeQuery = true)
     Long getNextResourceId();
 
-    Optional<PatientEntity> findTopByResourceIdOrderByVersionDesc(Long resourceId);
-    List<PatientEntity> findAllByResourceIdOrderByVersionDesc(Long resourceId);
+    Optional<PatientEntity> findByResourceIdAndCurrentTrue(Long resourceId);
+    boolean existsByResourceId(Long resourceId);
     Optional<PatientEntity> findByResourceIdAndVersion(Long resourceId, Integer version);
+
+    // Projections: only version and last_updated are selected, the resource body stays in the database
+    Optional<PatientVersionInfo> findVersionInfoByResourceIdAndCurrentTrue(Long resourceId);
+    Optional<PatientVersionInfo> findVersionInfoByResourceIdAndVersion(Long resourceId, Integer version);
+
+    List<PatientEntity> findByResourceIdInAndCurrentTrueOrderByResourceId(Collection<Long> resourceIds);
+
+    @Query("SELECT p.resourceId FROM PatientEntity p WHERE p.current = true AND p.resourceId > :after ORDER BY p.resourceId")
+    List<Long> findCurrentResourceIdsAfter(@Param("after") Long after, Pageable pageable);
+
+    /**
+     * Clears the current flag of a row that is being superseded. Returns 0 when another writer got there
+     * first, which callers treat as a version conflict: the {@code current = true} guard lets only one writer
+     * supersede a row, and on PostgreSQL the unique index on current rows rejects a second current version.
+     */
+    @Modifying
+    @Query("UPDATE PatientEntity p SET p.current = false WHERE p.id = :id AND p.current = true")
+    int markSuperseded(@Param("id") Long id);
+
+    /**
+     * The oldest versions after {@code after} that wait for deferred validation. Nothing is locked, so writers are
+     * never held up by validation; workers on several instances may read the same rows and
+     * {@link #completeValidation} keeps only the first outcome.
+     */
+    @Query(value = "SELECT * FROM patients WHERE validation_status = 'PENDING' AND id > :after ORDER BY id LIMIT :limit",
+            nativeQuery = true)
+    List<PatientEntity> findPendingValidation(@Param("after") Long after, @Param("limit") int limit);
+
+    /**
+     * Records the deferred validation outcome of a version that is still PENDING. Returns 0 when another
+     * instance's worker recorded it first.
+     */
+    @Modifying
+    @Query("UPDATE PatientEntity p SET p.validationStatus = :status WHERE p.id = :id"
+            + " AND p.validationStatus = com.dexterv.fhirserverwithhapi.domain.entities.PatientValidationStatus.PENDING")
+    int completeValidation(@Param("id") Long id, @Param("status") PatientValidationStatus status);
 }
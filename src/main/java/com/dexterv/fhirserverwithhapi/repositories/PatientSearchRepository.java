@@ -0,0 +1,217 @@
+package com.dexterv.fhirserverwithhapi.repositories;
+
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import com.dexterv.fhirserverwithhapi.search.PatientKeysetCursor;
+import com.dexterv.fhirserverwithhapi.search.PatientSearchCriteria;
+import com.dexterv.fhirserverwithhapi.search.PatientSearchParameterExtractor;
+import lombok.RequiredArgsConstructor;
+import org.hl7.fhir.r5.model.Patient;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Turns {@link PatientSearchCriteria} into SQL over the search index tables.
+ * Only row ids are returned; callers load and parse the matching rows themselves.
+ */
+@Repository
+@RequiredArgsConstructor
+public class PatientSearchRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Only the current version of each resource is searchable.
+     */
+    private static final String CURRENT_VERSION = "p.is_current = true";
+
+    /**
+     * Returns the internal row ids of one page of matches, ordered by (resource_id, version).
+     *
+     * @param after  keyset position; only rows strictly after it are returned
+     * @param offset rows to skip after the keyset position, non-zero only when a client jumps to a page
+     *               whose start position has not been seen yet
+     */
+    public List<Long> findPageRowIds(PatientSearchCriteria criteria, PatientKeysetCursor after, int offset, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("afterResourceId", after.resourceId())
+                .addValue("afterVersion", after.version())
+                .addValue("limit", limit)
+                .addValue("offset", offset);
+
+        String sql = "SELECT p.id FROM patients p WHERE " + buildWhere(criteria, params)
+                + " AND (p.resource_id, p.version) > (:afterResourceId, :afterVersion)"
+                + " ORDER BY p.resource_id, p.version LIMIT :limit OFFSET :offset";
+
+        return jdbcTemplate.queryForList(sql, params, Long.class);
+    }
+
+    /**
+     * The resource ids of the first {@code limit} matches, ascending. Only current versions match, so each
+     * resource appears once.
+     */
+    public List<Long> findResourceIds(PatientSearchCriteria criteria, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource().addValue("limit", limit);
+        String sql = "SELECT p.resource_id FROM patients p WHERE " + buildWhere(criteria, params)
+                + " ORDER BY p.resource_id LIMIT :limit";
+
+        return jdbcTemplate.queryForList(sql, params, Long.class);
+    }
+
+    public int count(PatientSearchCriteria criteria) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String sql = "SELECT COUNT(*) FROM patients p WHERE " + buildWhere(criteria, params);
+
+        Integer count = jdbcTemplate.queryForObject(sql, params, Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Like {@link #findPageRowIds}, for resources already matched by the name index: only the given resource
+     * ids are considered and the starts-with / {@code :contains} name parameters are not checked again.
+     *
+     * @param resourceIds ascending, every one after the page's keyset position
+     */
+    public List<Long> findPageRowIdsAmong(PatientSearchCriteria criteria, List<Long> resourceIds, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("resourceIds", resourceIds)
+                .addValue("limit", limit);
+
+        String sql = "SELECT p.id FROM patients p WHERE " + buildWhere(criteria, params, true)
+                + " AND p.resource_id IN (:resourceIds) ORDER BY p.resource_id, p.version LIMIT :limit";
+
+        return jdbcTemplate.queryForList(sql, params, Long.class);
+    }
+
+    public int countAmong(PatientSearchCriteria criteria, List<Long> resourceIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource().addValue("resourceIds", resourceIds);
+        String sql = "SELECT COUNT(*) FROM patients p WHERE " + buildWhere(criteria, params, true)
+                + " AND p.resource_id IN (:resourceIds)";
+
+        Integer count = jdbcTemplate.queryForObject(sql, params, Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    private static String buildWhere(PatientSearchCriteria criteria, MapSqlParameterSource params) {
+        return buildWhere(criteria, params, false);
+    }
+
+    /**
+     * Every search parameter becomes an EXISTS against one index table, correlated on resource_id.
+     *
+     * @param namesMatched the name index already applied the non-exact name parameters
+     */
+    private static String buildWhere(PatientSearchCriteria criteria, MapSqlParameterSource params, boolean namesMatched) {
+        StringBuilder where = new StringBuilder(CURRENT_VERSION);
+        List<IndexPredicate> predicates = buildPredicates(criteria, params, namesMatched);
+        for (int i = 0; i < predicates.size(); i++) {
+            IndexPredicate predicate = predicates.get(i);
+            String alias = "x" + i;
+            where.append(" AND EXISTS (SELECT 1 FROM ").append(predicate.table()).append(' ').append(alias)
+                    .append(" WHERE ").append(alias).append(".resource_id = p.resource_id AND ")
+                    .append(predicate.condition(alias))
+                    .append(')');
+        }
+        return where.toString();
+    }
+
+    /**
+     * A condition on one index table; "%ALIAS%" in the condition is replaced by the table alias.
+     */
+    private record IndexPredicate(String table, String condition) {
+        String condition(String alias) {
+            return condition.replace("%ALIAS%", alias);
+        }
+    }
+
+    private static List<IndexPredicate> buildPredicates(PatientSearchCriteria criteria, MapSqlParameterSource params, boolean namesMatched) {
+        List<IndexPredicate> predicates = new ArrayList<>();
+        addString(predicates, params, Patient.SP_FAMILY, unlessMatched(criteria.getFamily(), namesMatched));
+        addString(predicates, params, Patient.SP_GIVEN, unlessMatched(criteria.getGiven(), namesMatched));
+        addString(predicates, params, Patient.SP_NAME, unlessMatched(criteria.getName(), namesMatched));
+        addToken(predicates, params, Patient.SP_GENDER, criteria.getGender());
+        addToken(predicates, params, Patient.SP_IDENTIFIER, criteria.getIdentifier());
+        addDate(predicates, params, Patient.SP_BIRTHDATE, criteria.getBirthdate());
+        return predicates;
+    }
+
+    private static StringParam unlessMatched(StringParam param, boolean namesMatched) {
+        // the name index does not keep the unnormalized values, :exact is always checked here
+        return namesMatched && param != null && !param.isExact() ? null : param;
+    }
+
+    private static void addString(List<IndexPredicate> predicates, MapSqlParameterSource params, String paramName, StringParam param) {
+        if (param == null || param.getValue() == null) {
+            return;
+        }
+        String key = paramName + "_value";
+        params.addValue(paramName + "_name", paramName);
+        String condition;
+        if (param.isExact()) {
+            params.addValue(key, param.getValue());
+            condition = "%ALIAS%.value_exact = :" + key;
+        } else {
+            String normalized = escapeLike(PatientSearchParameterExtractor.normalize(param.getValue()));
+            params.addValue(key, param.isContains() ? "%" + normalized + "%" : normalized + "%");
+            condition = "%ALIAS%.value_normalized LIKE :" + key + " ESCAPE '\\'";
+        }
+        predicates.add(new IndexPredicate("patient_search_string",
+                "%ALIAS%.param_name = :" + paramName + "_name AND " + condition));
+    }
+
+    private static void addToken(List<IndexPredicate> predicates, MapSqlParameterSource params, String paramName, TokenParam param) {
+        if (param == null || (param.getValue() == null && param.getSystem() == null)) {
+            return;
+        }
+        params.addValue(paramName + "_name", paramName);
+        StringBuilder condition = new StringBuilder("%ALIAS%.param_name = :")
+                .append(paramName).append("_name");
+        if (param.getValue() != null) {
+            // gender codes are lower case in the spec but clients commonly send "FEMALE"
+            String value = Patient.SP_GENDER.equals(paramName) ? param.getValue().toLowerCase() : param.getValue();
+            params.addValue(paramName + "_value", value);
+            condition.append(" AND %ALIAS%.token_value = :").append(paramName).append("_value");
+        }
+        if (param.getSystem() != null && !param.getSystem().isEmpty()) {
+            params.addValue(paramName + "_system", param.getSystem());
+            condition.append(" AND %ALIAS%.token_system = :").append(paramName).append("_system");
+        }
+        predicates.add(new IndexPredicate("patient_search_token", condition.toString()));
+    }
+
+    private static void addDate(List<IndexPredicate> predicates, MapSqlParameterSource params, String paramName, DateRangeParam param) {
+        if (param == null || param.isEmpty()) {
+            return;
+        }
+        params.addValue(paramName + "_name", paramName);
+        StringBuilder condition = new StringBuilder("%ALIAS%.param_name = :")
+                .append(paramName).append("_name");
+        Date lower = param.getLowerBoundAsInstant();
+        Date upper = param.getUpperBoundAsInstant();
+        if (lower != null) {
+            params.addValue(paramName + "_low", toLocalDateTime(lower));
+            condition.append(" AND %ALIAS%.value_low >= :").append(paramName).append("_low");
+        }
+        if (upper != null) {
+            params.addValue(paramName + "_high", toLocalDateTime(upper));
+            condition.append(" AND %ALIAS%.value_high <= :").append(paramName).append("_high");
+        }
+        predicates.add(new IndexPredicate("patient_search_date", condition.toString()));
+    }
+
+    private static LocalDateTime toLocalDateTime(Date date) {
+        return LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,15 @@
+package com.dexterv.fhirserverwithhapi.repositories;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientStringIndexEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface PatientStringIndexRepository extends JpaRepository<PatientStringIndexEntity, Long> {
+    @Modifying
+    @Query("DELETE FROM PatientStringIndexEntity i WHERE i.resourceId = :resourceId")
+    void deleteByResourceId(@Param("resourceId") Long resourceId);
+}
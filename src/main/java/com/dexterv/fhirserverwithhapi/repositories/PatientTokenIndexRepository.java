@@ -0,0 +1,15 @@
+package com.dexterv.fhirserverwithhapi.repositories;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientTokenIndexEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface PatientTokenIndexRepository extends JpaRepository<PatientTokenIndexEntity, Long> {
+    @Modifying
+    @Query("DELETE FROM PatientTokenIndexEntity i WHERE i.resourceId = :resourceId")
+    void deleteByResourceId(@Param("resourceId") Long resourceId);
+}
@@ -0,0 +1,12 @@
+package com.dexterv.fhirserverwithhapi.repositories;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientValidationIssueEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface PatientValidationIssueRepository extends JpaRepository<PatientValidationIssueEntity, Long> {
+    List<PatientValidationIssueEntity> findByResourceIdAndVersionOrderById(Long resourceId, Integer version);
+}
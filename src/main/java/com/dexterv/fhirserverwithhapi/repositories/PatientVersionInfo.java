@@ -0,0 +1,12 @@
+package com.dexterv.fhirserverwithhapi.repositories;
+
+import java.time.LocalDateTime;
+
+/**
+ * Version and timestamp of a stored Patient row without its resource body, for conditional reads.
+ */
+public interface PatientVersionInfo {
+    Integer getVersion();
+
+    LocalDateTime getLastUpdated();
+}
@@ -0,0 +1,75 @@
+package com.dexterv.fhirserverwithhapi.routing;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tells the {@link ReplicaRouter} what each FHIR request does: reads (read, vread, history, search and their
+ * next pages) may go to a replica, everything else stays on the primary, and writes record the primary's
+ * position for the client before the response is sent. Does nothing when no replicas are configured.
+ */
+@Component
+@Interceptor
+@RequiredArgsConstructor
+public class ReadRoutingInterceptor {
+
+    private final ReplicaRouter router;
+
+    @Hook(Pointcut.SERVER_INCOMING_REQUEST_PRE_HANDLED)
+    public void route(RequestDetails requestDetails, ServletRequestDetails servletRequestDetails) {
+        if (!router.isEnabled()) {
+            return;
+        }
+        if (isRead(requestDetails.getRestOperationType())) {
+            router.routeRead(client(servletRequestDetails));
+        } else {
+            router.routeToPrimary();
+        }
+    }
+
+    // Runs before the response body is written, so the client cannot read ahead of the recorded position
+    @Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
+    public boolean outgoingResponse(RequestDetails requestDetails, ServletRequestDetails servletRequestDetails) {
+        if (router.isEnabled()
+                && !isRead(requestDetails.getRestOperationType())
+                && requestDetails.getRequestType() != RequestTypeEnum.GET) {
+            router.recordWrite(client(servletRequestDetails));
+        }
+        return true;
+    }
+
+    @Hook(Pointcut.SERVER_PROCESSING_COMPLETED)
+    public void processingCompleted() {
+        router.routeToPrimary();
+    }
+
+    private static boolean isRead(RestOperationTypeEnum type) {
+        if (type == null) {
+            return false;
+        }
+        switch (type) {
+            case READ:
+            case VREAD:
+            case HISTORY_INSTANCE:
+            case HISTORY_TYPE:
+            case HISTORY_SYSTEM:
+            case SEARCH_TYPE:
+            case SEARCH_SYSTEM:
+            case GET_PAGE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static String client(ServletRequestDetails servletRequestDetails) {
+        return servletRequestDetails.getServletRequest().getRemoteAddr();
+    }
+}
@@ -0,0 +1,55 @@
+package com.dexterv.fhirserverwithhapi.routing;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * The application's DataSource when replicas are configured: connections come from the replica
+ * {@link ReplicaRouter} pinned for the current request, and from the primary otherwise. A replica that
+ * refuses a connection is reported to the router and the primary is used instead, so a replica going down
+ * costs at most one connection timeout.
+ */
+public class ReadWriteRoutingDataSource extends AbstractDataSource {
+
+    private final ReplicaRouter router;
+
+    public ReadWriteRoutingDataSource(ReplicaRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        ReplicaRouter.Replica replica = router.current();
+        if (replica != null) {
+            try {
+                return replica.dataSource().getConnection();
+            } catch (SQLException e) {
+                router.connectionFailed(replica, e);
+            }
+        }
+        return router.getPrimary().getConnection();
+    }
+
+    // Explicit credentials bypass routing; Hikari answers SQLFeatureNotSupportedException as the contract allows
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return router.getPrimary().getConnection(username, password);
+    }
+
+    // Pool metrics and health indicators unwrap to the primary's Hikari pool
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return (T) this;
+        }
+        return router.getPrimary().unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || router.getPrimary().isWrapperFor(iface);
+    }
+}
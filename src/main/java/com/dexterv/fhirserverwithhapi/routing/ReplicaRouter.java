@@ -0,0 +1,262 @@
+package com.dexterv.fhirserverwithhapi.routing;
+
+import com.dexterv.fhirserverwithhapi.config.DataSourceRoutingProperties;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Owns the primary and replica pools and decides which one serves the reads of the current request.
+ * <p>
+ * A background probe compares each replica's replay position (Postgres WAL LSN) with the primary's; replicas
+ * that cannot be reached, are not in recovery or trail by more than fhir.datasource.max-replica-lag-bytes are
+ * skipped. After a client writes, the primary's position is remembered for that client, and for
+ * fhir.datasource.read-your-writes-window its reads only go to replicas that had replayed past it at the last
+ * probe, so a client never reads an older version than the one it just wrote. Reads no replica qualifies for,
+ * writes and everything outside a FHIR request (startup, background jobs) use the primary.
+ * </p>
+ * The choice is pinned to the request thread by {@link ReadRoutingInterceptor} and applies to every connection
+ * the request takes, so pages and totals of one search come from the same database. Positions are kept per server
+ * instance; behind a load balancer read-your-writes needs sticky sessions.
+ */
+@Slf4j
+public class ReplicaRouter implements MeterBinder, AutoCloseable {
+
+    private static final String PRIMARY_POSITION = "SELECT pg_current_wal_lsn() - '0/0'::pg_lsn";
+    private static final String REPLAY_POSITION = "SELECT pg_last_wal_replay_lsn() - '0/0'::pg_lsn";
+
+    private static final ThreadLocal<Replica> ROUTE = new ThreadLocal<>();
+
+    private final HikariDataSource primary;
+    private final JdbcTemplate primaryJdbc;
+    private final List<Replica> replicas;
+    private final long maxLagBytes;
+    private final long windowNanos;
+    private final Map<String, ClientPosition> clientPositions = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder primaryReads = new LongAdder();
+    private final ScheduledExecutorService probe;
+
+    public ReplicaRouter(HikariDataSource primary, List<HikariDataSource> replicaPools, DataSourceRoutingProperties properties) {
+        this.primary = primary;
+        this.primaryJdbc = new JdbcTemplate(primary);
+        this.replicas = replicaPools.stream().map(Replica::new).toList();
+        this.maxLagBytes = properties.getMaxReplicaLagBytes();
+        this.windowNanos = properties.getReadYourWritesWindow().toNanos();
+        if (replicas.isEmpty()) {
+            probe = null;
+            return;
+        }
+        probe = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getHealthCheckInterval().toMillis();
+        probe.scheduleWithFixedDelay(this::probe, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return !replicas.isEmpty();
+    }
+
+    public HikariDataSource getPrimary() {
+        return primary;
+    }
+
+    /**
+     * Pins the reads of the current request to a replica that qualifies for this client, or to the primary.
+     * Replicas are taken in turn so the load spreads evenly.
+     */
+    public void routeRead(String client) {
+        long required = requiredPosition(client);
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.serves(required, maxLagBytes)) {
+                replica.reads.increment();
+                ROUTE.set(replica);
+                return;
+            }
+        }
+        primaryReads.increment();
+        ROUTE.remove();
+    }
+
+    public void routeToPrimary() {
+        ROUTE.remove();
+    }
+
+    /**
+     * Remembers the primary's position after a client's write, so its next reads wait for replicas to replay it.
+     * Must be called after the write committed and before the client gets the response.
+     */
+    public void recordWrite(String client) {
+        long position;
+        try {
+            position = primaryJdbc.queryForObject(PRIMARY_POSITION, Long.class);
+        } catch (DataAccessException e) {
+            // Without a position the client's reads stay on the primary for the whole window
+            log.warn("Could not read the primary's WAL position: {}", e.getMessage());
+            position = Long.MAX_VALUE;
+        }
+        ClientPosition fresh = new ClientPosition(position, System.nanoTime() + windowNanos);
+        clientPositions.merge(client, fresh, (existing, candidate) ->
+                new ClientPosition(Math.max(existing.position(), candidate.position()), candidate.expiresAt()));
+    }
+
+    Replica current() {
+        return ROUTE.get();
+    }
+
+    /**
+     * Whether the current request reads from a replica, i.e. may see data older than the primary's.
+     */
+    public static boolean isReadingFromReplica() {
+        return ROUTE.get() != null;
+    }
+
+    /**
+     * A pinned replica refused a connection: it is skipped until the next successful probe and the rest of the
+     * request reads from the primary.
+     */
+    void connectionFailed(Replica replica, SQLException e) {
+        ROUTE.remove();
+        if (replica.up) {
+            replica.up = false;
+            log.warn("Replica {} is unavailable, reading from the primary: {}", replica.name(), e.getMessage());
+        }
+    }
+
+    private long requiredPosition(String client) {
+        ClientPosition position = client == null ? null : clientPositions.get(client);
+        if (position == null) {
+            return 0;
+        }
+        if (System.nanoTime() - position.expiresAt() > 0) {
+            clientPositions.remove(client, position);
+            return 0;
+        }
+        return position.position();
+    }
+
+    void probe() {
+        long primaryPosition;
+        try {
+            primaryPosition = primaryJdbc.queryForObject(PRIMARY_POSITION, Long.class);
+        } catch (RuntimeException e) {
+            // Lag cannot be measured; keep the last known state rather than guessing
+            log.warn("Could not read the primary's WAL position: {}", e.getMessage());
+            return;
+        }
+        for (Replica replica : replicas) {
+            try {
+                Long replayed = replica.jdbc.queryForObject(REPLAY_POSITION, Long.class);
+                if (replayed == null) {
+                    replica.down("it is not in recovery, so not a replica of the primary");
+                } else {
+                    // The replica is read after the primary, so it can appear to be ahead
+                    replica.replayed = replayed;
+                    replica.lagBytes = Math.max(0, primaryPosition - replayed);
+                    replica.up();
+                }
+            } catch (RuntimeException e) {
+                replica.down(e.getMessage());
+            }
+        }
+        long now = System.nanoTime();
+        clientPositions.values().removeIf(position -> now - position.expiresAt() > 0);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("fhir.datasource.reads", primaryReads, LongAdder::sum)
+                .description("FHIR read requests by the database that served them")
+                .tag("target", "primary")
+                .register(registry);
+        for (Replica replica : replicas) {
+            FunctionCounter.builder("fhir.datasource.reads", replica.reads, LongAdder::sum)
+                    .description("FHIR read requests by the database that served them")
+                    .tag("target", replica.name())
+                    .register(registry);
+            Gauge.builder("fhir.datasource.replica.lag", replica, r -> r.lagBytes)
+                    .description("WAL the replica had not replayed at the last health check")
+                    .baseUnit("bytes")
+                    .tag("replica", replica.name())
+                    .register(registry);
+            Gauge.builder("fhir.datasource.replica.up", replica, r -> r.up ? 1 : 0)
+                    .tag("replica", replica.name())
+                    .register(registry);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (probe != null) {
+            probe.shutdownNow();
+        }
+        replicas.forEach(replica -> replica.dataSource.close());
+        primary.close();
+    }
+
+    private record ClientPosition(long position, long expiresAt) {
+    }
+
+    static final class Replica {
+        private final HikariDataSource dataSource;
+        private final JdbcTemplate jdbc;
+        private final LongAdder reads = new LongAdder();
+        private volatile boolean up;
+        private volatile boolean probed;
+        private volatile long replayed;
+        private volatile long lagBytes;
+
+        private Replica(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+            this.jdbc = new JdbcTemplate(dataSource);
+        }
+
+        String name() {
+            return dataSource.getPoolName();
+        }
+
+        HikariDataSource dataSource() {
+            return dataSource;
+        }
+
+        private boolean serves(long requiredPosition, long maxLagBytes) {
+            return up && lagBytes <= maxLagBytes && replayed >= requiredPosition;
+        }
+
+        private void up() {
+            probed = true;
+            if (!up) {
+                up = true;
+                log.info("Replica {} is serving reads, {} bytes behind the primary", name(), lagBytes);
+            }
+        }
+
+        private void down(String reason) {
+            if (up || !probed) {
+                log.warn("Replica {} is not serving reads: {}", name(), reason);
+            }
+            probed = true;
+            up = false;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import com.dexterv.fhirserverwithhapi.cache.PatientResourceCache;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.mappers.PatientMapper;
+import com.dexterv.fhirserverwithhapi.metrics.FhirMetrics;
+import com.dexterv.fhirserverwithhapi.repositories.PatientHistoryArchiveRepository;
+import com.dexterv.fhirserverwithhapi.repositories.PatientHistoryRepository;
+import com.dexterv.fhirserverwithhapi.repositories.PatientRepository;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.r5.model.InstantType;
+import org.hl7.fhir.r5.model.Patient;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lazily loaded Patient history, newest first. Like {@link PatientSearchBundleProvider} only the requested
+ * page is loaded and parsed. HAPI pages history with {@code _offset} links and calls the history method again
+ * for every page, so each provider serves a single page and nothing is kept between them. The total is
+ * reported as unknown so that polling a large history never counts it; HAPI then offers a next link for as
+ * long as pages come back full.
+ */
+public class PatientHistoryBundleProvider implements IBundleProvider {
+
+    private static final Comparator<PatientEntity> INSTANCE_ORDER =
+            Comparator.comparing(PatientEntity::getVersion).reversed();
+    private static final Comparator<PatientEntity> TYPE_ORDER =
+            Comparator.comparing(PatientEntity::getLastUpdated).thenComparing(PatientEntity::getId).reversed();
+
+    private final PatientHistoryCriteria criteria;
+    private final int offset;
+    private final Integer count;
+    private final PatientHistoryRepository historyRepository;
+    private final PatientRepository patientRepository;
+    private final PatientHistoryArchiveRepository archiveRepository;
+    private final PatientMapper patientMapper;
+    private final PatientResourceCache patientCache;
+    private final FhirMetrics metrics;
+    private final InstantType published = new InstantType(new Date());
+
+    /**
+     * @param offset the request's {@code _offset}; HAPI asks for resources starting at 0 and leaves skipping
+     *               to the provider
+     * @param count  the request's {@code _count}, or null for the server's default page size
+     */
+    public PatientHistoryBundleProvider(PatientHistoryCriteria criteria,
+                                        int offset,
+                                        Integer count,
+                                        PatientHistoryRepository historyRepository,
+                                        PatientRepository patientRepository,
+                                        PatientHistoryArchiveRepository archiveRepository,
+                                        PatientMapper patientMapper,
+                                        PatientResourceCache patientCache,
+                                        FhirMetrics metrics) {
+        this.criteria = criteria;
+        this.offset = offset;
+        this.count = count;
+        this.historyRepository = historyRepository;
+        this.patientRepository = patientRepository;
+        this.archiveRepository = archiveRepository;
+        this.patientMapper = patientMapper;
+        this.patientCache = patientCache;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public List<IBaseResource> getResources(int fromIndex, int toIndex) {
+        int limit = toIndex - fromIndex;
+        if (limit <= 0) {
+            return List.of();
+        }
+
+        long dbRead = metrics.start();
+        List<Long> rowIds = historyRepository.findPageRowIds(criteria, offset + fromIndex, limit);
+        if (rowIds.isEmpty()) {
+            metrics.record(FhirMetrics.Phase.DB_READ, dbRead);
+            return List.of();
+        }
+
+        List<PatientEntity> rows = patientRepository.findAllById(rowIds);
+        if (rows.size() < rowIds.size()) {
+            // archived versions, or versions the archiver moved since their ids were read
+            Set<Long> missing = new HashSet<>(rowIds);
+            rows.forEach(row -> missing.remove(row.getId()));
+            rows.addAll(archiveRepository.findAllById(missing));
+        }
+        metrics.record(FhirMetrics.Phase.DB_READ, dbRead);
+        rows.sort(criteria.isInstance() ? INSTANCE_ORDER : TYPE_ORDER);
+
+        return rows.stream()
+                .map(row -> (IBaseResource) patientCache.get(row, this::toPatient))
+                .toList();
+    }
+
+    private Patient toPatient(PatientEntity entity) {
+        long start = metrics.start();
+        Patient patient = patientMapper.toPatient(entity);
+        metrics.record(FhirMetrics.Phase.JSON_PARSE, start);
+        return patient;
+    }
+
+    @Override
+    public Integer size() {
+        return null;
+    }
+
+    @Override
+    public IPrimitiveType<Date> getPublished() {
+        return published;
+    }
+
+    @Override
+    public String getUuid() {
+        // assigned by the paging provider when it stores this result
+        return null;
+    }
+
+    @Override
+    public Integer preferredPageSize() {
+        return count;
+    }
+}
@@ -0,0 +1,32 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Date;
+
+/**
+ * Parameters of a history request: one Patient (instance level) or all of them (type and server level),
+ * narrowed by {@code _since} and {@code _at}.
+ */
+@Getter
+@Builder
+public class PatientHistoryCriteria {
+    /**
+     * Logical id for instance history, null for type and server level history.
+     */
+    private final Long resourceId;
+    /**
+     * {@code _since}: only versions last updated at or after this instant.
+     */
+    private final Date since;
+    /**
+     * {@code _at}: only versions that were current at some point during this range.
+     */
+    private final DateRangeParam at;
+
+    public boolean isInstance() {
+        return resourceId != null;
+    }
+}
@@ -0,0 +1,12 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+/**
+ * Position in a (resource_id, version) ordered result: the key of the last row already returned.
+ */
+public record PatientKeysetCursor(long resourceId, int version) {
+
+    /**
+     * Sorts before every stored row, resource ids and versions both start at 1.
+     */
+    public static final PatientKeysetCursor START = new PatientKeysetCursor(0L, 0);
+}
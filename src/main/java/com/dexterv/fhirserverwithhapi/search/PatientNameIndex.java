@@ -0,0 +1,377 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+import com.dexterv.fhirserverwithhapi.config.NameIndexProperties;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientStringIndexEntity;
+import com.dexterv.fhirserverwithhapi.repositories.PatientNameTerm;
+import com.dexterv.fhirserverwithhapi.repositories.PatientNameTermRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.language.DoubleMetaphone;
+import org.hl7.fhir.r5.model.Patient;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index over the normalized family/given/name values of current Patients, answering
+ * starts-with, {@code :contains} and phonetic name searches with resource ids, before any row is read
+ * or parsed.
+ * <p>
+ * Every distinct value is a term in a sorted dictionary (starts-with is a range of it). Terms are reachable
+ * by their trigrams ({@code :contains}) and by the Double Metaphone codes of their words
+ * ({@code phonetic}); each term holds one sorted {@code long[]} postings list of resource ids per
+ * parameter. Names repeat a lot, so the dictionary stays small and the postings carry the volume.
+ * </p>
+ * <p>
+ * The index is built at startup from {@code patient_search_string} and then kept current by
+ * {@link PatientSearchIndexer} and the bulk writer, which hand over the terms a resource had before and
+ * after each write once it commits. Writes that commit while the index is being built are replayed when the
+ * build is done. Until then {@link #match} declines and searches fall back to SQL.
+ * </p>
+ */
+@Slf4j
+@Component
+public class PatientNameIndex {
+
+    private static final List<String> PARAMS = List.of(Patient.SP_FAMILY, Patient.SP_GIVEN, Patient.SP_NAME);
+
+    private final PatientNameTermRepository termRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final NameIndexProperties properties;
+    private final DoubleMetaphone metaphone = new DoubleMetaphone();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "patient-name-index"));
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // all guarded by lock, except while the build thread fills them before the index is ready
+    private final NavigableMap<String, Term> terms = new TreeMap<>();
+    private final List<Term> termsById = new ArrayList<>();
+    private final Map<String, SortedLongSet> termsByTrigram = new HashMap<>();
+    private final Map<String, SortedLongSet> termsByPhonetic = new HashMap<>();
+    private final List<Change> pendingChanges = new ArrayList<>();
+    private volatile boolean ready;
+
+    public PatientNameIndex(PatientNameTermRepository termRepository,
+                            TransactionTemplate transactionTemplate,
+                            NameIndexProperties properties) {
+        this.termRepository = termRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+    }
+
+    private static final class Term {
+        final int id;
+        final String value;
+        // indexed like PARAMS: family, given, name
+        final SortedLongSet[] postings = new SortedLongSet[PARAMS.size()];
+
+        Term(int id, String value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    private record Change(long resourceId, Set<PatientNameTerm> removed, Set<PatientNameTerm> added) {
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (properties.isEnabled()) {
+            executor.submit(this::build);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    private void build() {
+        long started = System.currentTimeMillis();
+        long[] rows = new long[1];
+        try {
+            transactionTemplate.executeWithoutResult(status -> termRepository.streamAll(properties.getFetchSize(), term -> {
+                add(term);
+                rows[0]++;
+            }));
+        } catch (RuntimeException e) {
+            log.error("Patient name index build failed after {} rows, name searches stay on SQL", rows[0], e);
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Change change : pendingChanges) {
+                apply(change);
+            }
+            pendingChanges.clear();
+            terms.values().forEach(term -> Arrays.stream(term.postings).filter(Objects::nonNull).forEach(SortedLongSet::trim));
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Patient name index built: {} name values, {} distinct terms in {} ms",
+                rows[0], termsById.size(), System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Records that a resource now has {@code after} instead of {@code before} as its name terms, once the
+     * current transaction commits (immediately when there is none). Only the difference touches the index,
+     * so updates that keep the names cost nothing.
+     */
+    public void replaceAfterCommit(long resourceId, Collection<PatientNameTerm> before, Collection<PatientNameTerm> after) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Set<PatientNameTerm> removed = new HashSet<>(before);
+        removed.removeAll(after);
+        Set<PatientNameTerm> added = new HashSet<>(after);
+        added.removeAll(before);
+        if (removed.isEmpty() && added.isEmpty()) {
+            return;
+        }
+
+        Change change = new Change(resourceId, removed, added);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(change);
+                }
+            });
+        } else {
+            submit(change);
+        }
+    }
+
+    /**
+     * The name terms among freshly extracted search index rows.
+     */
+    public static List<PatientNameTerm> terms(long resourceId, List<PatientStringIndexEntity> strings) {
+        List<PatientNameTerm> result = new ArrayList<>(strings.size());
+        for (PatientStringIndexEntity row : strings) {
+            if (PARAMS.contains(row.getParamName())) {
+                result.add(new PatientNameTerm(resourceId, row.getParamName(), row.getValueNormalized()));
+            }
+        }
+        return result;
+    }
+
+    private void submit(Change change) {
+        lock.writeLock().lock();
+        try {
+            if (ready) {
+                apply(change);
+            } else {
+                pendingChanges.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(Change change) {
+        for (PatientNameTerm term : change.removed()) {
+            remove(term);
+        }
+        for (PatientNameTerm term : change.added()) {
+            add(term);
+        }
+    }
+
+    private void add(PatientNameTerm nameTerm) {
+        int param = PARAMS.indexOf(nameTerm.paramName());
+        if (param < 0 || nameTerm.value() == null) {
+            return;
+        }
+        Term term = terms.get(nameTerm.value());
+        if (term == null) {
+            term = new Term(termsById.size(), nameTerm.value());
+            terms.put(term.value, term);
+            termsById.add(term);
+            for (String trigram : trigrams(term.value)) {
+                termsByTrigram.computeIfAbsent(trigram, k -> new SortedLongSet()).add(term.id);
+            }
+            for (String code : phoneticCodes(term.value)) {
+                termsByPhonetic.computeIfAbsent(code, k -> new SortedLongSet()).add(term.id);
+            }
+        }
+        if (term.postings[param] == null) {
+            term.postings[param] = new SortedLongSet();
+        }
+        term.postings[param].add(nameTerm.resourceId());
+    }
+
+    private void remove(PatientNameTerm nameTerm) {
+        int param = PARAMS.indexOf(nameTerm.paramName());
+        Term term = nameTerm.value() == null ? null : terms.get(nameTerm.value());
+        // the term itself stays in the dictionary, it is likely to come back
+        if (param >= 0 && term != null && term.postings[param] != null) {
+            term.postings[param].remove(nameTerm.resourceId());
+        }
+    }
+
+    /**
+     * Resource ids, ascending, of the Patients matching every starts-with / {@code :contains} name parameter
+     * and the phonetic parameter of the criteria. {@code :exact} parameters are left to SQL.
+     *
+     * @return null when the criteria have nothing the index can answer, or the index is not built yet
+     * @throws InvalidRequestException for phonetic search when the index is disabled
+     */
+    public long[] match(PatientSearchCriteria criteria) {
+        boolean hasNames = isIndexable(criteria.getFamily()) || isIndexable(criteria.getGiven()) || isIndexable(criteria.getName());
+        boolean hasPhonetic = criteria.getPhonetic() != null && criteria.getPhonetic().getValue() != null;
+        if (!hasNames && !hasPhonetic) {
+            return null;
+        }
+        if (hasPhonetic && !properties.isEnabled()) {
+            throw new InvalidRequestException("Unsupported parameter: phonetic needs the name index (fhir.search.name-index.enabled)");
+        }
+        if (!ready) {
+            if (hasPhonetic) {
+                throw new UnclassifiedServerFailureException(503,
+                        "Phonetic search is available once the name index has been built, try again shortly");
+            }
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            long[] result = null;
+            result = and(result, matchParam(Patient.SP_FAMILY, criteria.getFamily()));
+            result = and(result, matchParam(Patient.SP_GIVEN, criteria.getGiven()));
+            result = and(result, matchParam(Patient.SP_NAME, criteria.getName()));
+            if (hasPhonetic) {
+                result = and(result, matchPhonetic(criteria.getPhonetic().getValue()));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean isIndexable(StringParam param) {
+        return param != null && param.getValue() != null && !param.isExact();
+    }
+
+    private static long[] and(long[] result, long[] matches) {
+        if (matches == null) {
+            return result;
+        }
+        return result == null ? matches : SortedLongSet.intersect(result, matches);
+    }
+
+    private long[] matchParam(String paramName, StringParam param) {
+        if (!isIndexable(param)) {
+            return null;
+        }
+        int index = PARAMS.indexOf(paramName);
+        String value = PatientSearchParameterExtractor.normalize(param.getValue());
+
+        List<SortedLongSet> postings = new ArrayList<>();
+        for (Term term : param.isContains() ? containing(value) : terms.subMap(value, true, value + Character.MAX_VALUE, false).values()) {
+            if (term.postings[index] != null && !term.postings[index].isEmpty()) {
+                postings.add(term.postings[index]);
+            }
+        }
+        return SortedLongSet.union(postings);
+    }
+
+    private Collection<Term> containing(String value) {
+        List<String> trigrams = trigrams(value);
+        if (trigrams.isEmpty()) {
+            // one or two characters: the dictionary is small enough to scan
+            return terms.values().stream().filter(term -> term.value.contains(value)).toList();
+        }
+
+        long[] candidates = null;
+        for (String trigram : trigrams) {
+            SortedLongSet termIds = termsByTrigram.get(trigram);
+            if (termIds == null) {
+                return List.of();
+            }
+            candidates = candidates == null ? termIds.toArray() : SortedLongSet.intersect(candidates, termIds.toArray());
+        }
+        // sharing all trigrams does not make the value a substring, e.g. "ANANA" and "ANAN"
+        List<Term> result = new ArrayList<>();
+        for (long id : candidates) {
+            Term term = termsById.get((int) id);
+            if (term.value.contains(value)) {
+                result.add(term);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Every word of the value has to sound like a word of a family or given name.
+     */
+    private long[] matchPhonetic(String value) {
+        long[] result = null;
+        for (String word : words(PatientSearchParameterExtractor.normalize(value))) {
+            List<SortedLongSet> postings = new ArrayList<>();
+            for (String code : phoneticCodes(word)) {
+                SortedLongSet termIds = termsByPhonetic.get(code);
+                if (termIds == null) {
+                    continue;
+                }
+                for (long id : termIds.toArray()) {
+                    Term term = termsById.get((int) id);
+                    for (String param : List.of(Patient.SP_FAMILY, Patient.SP_GIVEN)) {
+                        SortedLongSet resources = term.postings[PARAMS.indexOf(param)];
+                        if (resources != null && !resources.isEmpty()) {
+                            postings.add(resources);
+                        }
+                    }
+                }
+            }
+            result = and(result, SortedLongSet.union(postings));
+        }
+        return result == null ? new long[0] : result;
+    }
+
+    private static List<String> trigrams(String value) {
+        if (value.length() < 3) {
+            return List.of();
+        }
+        Set<String> trigrams = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= value.length(); i++) {
+            trigrams.add(value.substring(i, i + 3));
+        }
+        return new ArrayList<>(trigrams);
+    }
+
+    private Set<String> phoneticCodes(String value) {
+        Set<String> codes = new HashSet<>();
+        for (String word : words(value)) {
+            String primary = metaphone.doubleMetaphone(word);
+            String alternate = metaphone.doubleMetaphone(word, true);
+            if (primary != null && !primary.isEmpty()) {
+                codes.add(primary);
+            }
+            if (alternate != null && !alternate.isEmpty()) {
+                codes.add(alternate);
+            }
+        }
+        return codes;
+    }
+
+    private static List<String> words(String value) {
+        return Arrays.stream(value.split("[^\\p{L}]+")).filter(word -> !word.isEmpty()).toList();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,115 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.mappers.PatientMapper;
+import com.dexterv.fhirserverwithhapi.repositories.PatientRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Backfills the search index tables from the rows already in {@code patients}.
+ * Walks resource ids in ascending batches and re-indexes the current version of each one,
+ * so it is safe to run again or to run while the server is taking writes.
+ */
+@Slf4j
+@Component
+public class PatientReindexJob {
+
+    private final PatientRepository patientRepository;
+    private final PatientMapper patientMapper;
+    private final PatientSearchIndexer searchIndexer;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final boolean reindexOnStartup;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "patient-reindex"));
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong processed = new AtomicLong();
+
+    public PatientReindexJob(PatientRepository patientRepository,
+                             PatientMapper patientMapper,
+                             PatientSearchIndexer searchIndexer,
+                             TransactionTemplate transactionTemplate,
+                             @Value("${fhir.search.reindex.batch-size:500}") int batchSize,
+                             @Value("${fhir.search.reindex.on-startup:false}") boolean reindexOnStartup) {
+        this.patientRepository = patientRepository;
+        this.patientMapper = patientMapper;
+        this.searchIndexer = searchIndexer;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.reindexOnStartup = reindexOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (reindexOnStartup) {
+            start();
+        }
+    }
+
+    /**
+     * Starts a reindex in the background.
+     *
+     * @return false if a reindex is already running
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        processed.set(0);
+        executor.submit(() -> {
+            try {
+                reindexAll();
+            } catch (RuntimeException e) {
+                log.error("Patient reindex failed after {} resources", processed.get(), e);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    private void reindexAll() {
+        long started = System.currentTimeMillis();
+        long after = 0L;
+        while (true) {
+            List<Long> resourceIds = patientRepository.findCurrentResourceIdsAfter(after, PageRequest.ofSize(batchSize));
+            if (resourceIds.isEmpty()) {
+                break;
+            }
+            transactionTemplate.executeWithoutResult(status -> {
+                for (PatientEntity entity : patientRepository.findByResourceIdInAndCurrentTrueOrderByResourceId(resourceIds)) {
+                    searchIndexer.index(entity.getResourceId(), patientMapper.toPatient(entity));
+                }
+            });
+            processed.addAndGet(resourceIds.size());
+            after = resourceIds.get(resourceIds.size() - 1);
+        }
+        log.info("Patient reindex finished: {} resources in {} ms", processed.get(), System.currentTimeMillis() - started);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
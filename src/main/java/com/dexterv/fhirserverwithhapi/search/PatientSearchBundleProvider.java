@@ -0,0 +1,294 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.param.StringParam;
+import com.dexterv.fhirserverwithhapi.cache.PatientResourceCache;
+import com.dexterv.fhirserverwithhapi.cache.PatientSearchResultCache;
+import com.dexterv.fhirserverwithhapi.config.NameIndexProperties;
+import com.dexterv.fhirserverwithhapi.metrics.FhirMetrics;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.mappers.PatientMapper;
+import com.dexterv.fhirserverwithhapi.repositories.PatientRepository;
+import com.dexterv.fhirserverwithhapi.repositories.PatientSearchRepository;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.r5.model.InstantType;
+import org.hl7.fhir.r5.model.Patient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Lazily loaded Patient search result. Nothing is read until HAPI asks for a page, and then only that
+ * page is loaded and parsed. The paging provider keeps this instance between page requests, so it
+ * remembers where each served page ended and the next page continues from that key instead of
+ * using an OFFSET that grows with the page number.
+ * <p>
+ * When {@link PatientNameIndex} answers the name parameters, pages are cut from the matching resource ids
+ * and the database only checks the remaining parameters, if any. Up to
+ * fhir.search.name-index.max-retained-matches ids are kept here between pages; a larger result is matched
+ * again for every page, which is cheaper than holding it on the heap until the paging provider evicts it.
+ * </p>
+ * With a {@link PatientSearchResultCache} ticket, a cached count and ids are used instead of the database. On a
+ * miss, small results are loaded as the full id list in one query that also yields the count, and stored.
+ */
+public class PatientSearchBundleProvider implements IBundleProvider {
+
+    private static final Comparator<PatientEntity> KEY_ORDER =
+            Comparator.comparing(PatientEntity::getResourceId).thenComparing(PatientEntity::getVersion);
+
+    private final PatientSearchCriteria criteria;
+    // asked for the name matches whenever they are needed and not kept; null when the database matches names
+    private volatile PatientNameIndex nameIndex;
+    // ascending resource ids from the name index or the result cache, when small enough to keep
+    private volatile long[] matches;
+    // every id in matches satisfies all parameters, no database filtering left
+    private volatile boolean matchesComplete;
+    private final int candidateChunkSize;
+    private final int maxRetainedMatches;
+    private final PatientSearchRepository searchRepository;
+    private final PatientRepository patientRepository;
+    private final PatientMapper patientMapper;
+    private final PatientResourceCache patientCache;
+    private final FhirMetrics metrics;
+    private final InstantType published = new InstantType(new Date());
+    private PatientSearchResultCache.Ticket ticket;
+    private boolean countOnly;
+
+    // result index -> key of the row just before it
+    private final ConcurrentSkipListMap<Integer, PatientKeysetCursor> cursors = new ConcurrentSkipListMap<>();
+    private volatile Integer size;
+
+    public PatientSearchBundleProvider(PatientSearchCriteria criteria,
+                                       PatientSearchRepository searchRepository,
+                                       PatientRepository patientRepository,
+                                       PatientMapper patientMapper,
+                                       PatientResourceCache patientCache,
+                                       FhirMetrics metrics) {
+        this(criteria, null, new NameIndexProperties(), searchRepository, patientRepository, patientMapper, patientCache, metrics);
+    }
+
+    /**
+     * @param nameIndex           resolves the name parameters of the criteria, see {@link PatientNameIndex#match}
+     * @param nameIndexProperties how many matches to hand to the database at once when other parameters remain,
+     *                            and how many to keep between pages
+     */
+    public PatientSearchBundleProvider(PatientSearchCriteria criteria,
+                                       PatientNameIndex nameIndex,
+                                       NameIndexProperties nameIndexProperties,
+                                       PatientSearchRepository searchRepository,
+                                       PatientRepository patientRepository,
+                                       PatientMapper patientMapper,
+                                       PatientResourceCache patientCache,
+                                       FhirMetrics metrics) {
+        this.criteria = criteria;
+        this.nameIndex = nameIndex;
+        this.candidateChunkSize = Math.max(1, nameIndexProperties.getCandidateChunkSize());
+        this.maxRetainedMatches = nameIndexProperties.getMaxRetainedMatches();
+        this.searchRepository = searchRepository;
+        this.patientRepository = patientRepository;
+        this.patientMapper = patientMapper;
+        this.patientCache = patientCache;
+        this.metrics = metrics;
+        cursors.put(0, PatientKeysetCursor.START);
+    }
+
+    /**
+     * Answers from the cached result when the ticket has one, and stores the result once it is computed.
+     *
+     * @param ticket    taken before the name index is consulted; null when the cache is off
+     * @param countOnly only the total is wanted ({@code _summary=count}), so ids are not loaded on a miss
+     */
+    public PatientSearchBundleProvider withResultCache(PatientSearchResultCache.Ticket ticket, boolean countOnly) {
+        this.ticket = ticket;
+        this.countOnly = countOnly;
+        PatientSearchResultCache.Hit hit = ticket == null ? null : ticket.cached();
+        if (hit != null) {
+            if (hit.resourceIds() != null) {
+                matchesComplete = true;
+                matches = hit.resourceIds();
+            }
+            size = hit.count();
+        }
+        return this;
+    }
+
+    @Override
+    public List<IBaseResource> getResources(int fromIndex, int toIndex) {
+        int limit = toIndex - fromIndex;
+        if (limit <= 0) {
+            return List.of();
+        }
+
+        // Normally there is a cursor exactly at fromIndex (the end of the previous page).
+        // When a client jumps ahead, start from the closest known cursor and skip the difference.
+        Map.Entry<Integer, PatientKeysetCursor> start = cursors.floorEntry(fromIndex);
+        long dbRead = metrics.start();
+        List<PatientEntity> rows;
+        long[] matched = matches();
+        if (matched == null) {
+            List<Long> rowIds = searchRepository.findPageRowIds(
+                    criteria, start.getValue(), fromIndex - start.getKey(), limit);
+            rows = rowIds.isEmpty() ? List.of() : patientRepository.findAllById(rowIds);
+        } else {
+            rows = loadMatches(matched, start.getValue(), fromIndex - start.getKey(), limit);
+        }
+        if (rows.isEmpty()) {
+            metrics.record(FhirMetrics.Phase.DB_READ, dbRead);
+            return List.of();
+        }
+        metrics.record(FhirMetrics.Phase.DB_READ, dbRead);
+        rows.sort(KEY_ORDER);
+
+        PatientEntity last = rows.get(rows.size() - 1);
+        cursors.put(fromIndex + rows.size(), new PatientKeysetCursor(last.getResourceId(), last.getVersion()));
+
+        return rows.stream()
+                .map(row -> (IBaseResource) patientCache.get(row, this::toPatient))
+                .toList();
+    }
+
+    /**
+     * The resource ids matched by the name index or stored in the result cache, or null when the database
+     * matches the names. A cached result with ids never reaches the name index.
+     */
+    private long[] matches() {
+        long[] matched = matches;
+        PatientNameIndex index = nameIndex;
+        if (matched != null || index == null) {
+            return matched;
+        }
+        matched = index.match(criteria);
+        if (matched == null) {
+            // no indexable names, or the index is not built yet: the whole search stays on SQL
+            nameIndex = null;
+        } else if (matched.length <= maxRetainedMatches) {
+            matches = matched;
+        }
+        return matched;
+    }
+
+    private List<PatientEntity> loadMatches(long[] matched, PatientKeysetCursor after, int skip, int limit) {
+        int position = Arrays.binarySearch(matched, after.resourceId());
+        position = position >= 0 ? position + 1 : -position - 1;
+
+        if (!needsDatabaseFilter()) {
+            // every match is a current Patient, the page is a slice of the ids
+            int from = Math.min(matched.length, position + skip);
+            int to = Math.min(matched.length, from + limit);
+            return from == to ? List.of() : patientRepository.findByResourceIdInAndCurrentTrueOrderByResourceId(slice(matched, from, to));
+        }
+
+        List<Long> rowIds = new ArrayList<>(limit);
+        while (rowIds.size() < limit && position < matched.length) {
+            int wanted = skip + limit - rowIds.size();
+            int end = Math.min(matched.length, position + Math.max(wanted, candidateChunkSize));
+            for (Long rowId : searchRepository.findPageRowIdsAmong(criteria, slice(matched, position, end), wanted)) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    rowIds.add(rowId);
+                }
+            }
+            position = end;
+        }
+        return rowIds.isEmpty() ? List.of() : patientRepository.findAllById(rowIds);
+    }
+
+    private boolean needsDatabaseFilter() {
+        return !matchesComplete && hasParametersBeyondNames();
+    }
+
+    private boolean hasParametersBeyondNames() {
+        return criteria.getGender() != null || criteria.getIdentifier() != null
+                || (criteria.getBirthdate() != null && !criteria.getBirthdate().isEmpty())
+                || isExact(criteria.getFamily()) || isExact(criteria.getGiven()) || isExact(criteria.getName());
+    }
+
+    private static boolean isExact(StringParam param) {
+        return param != null && param.isExact();
+    }
+
+    private static List<Long> slice(long[] matched, int from, int to) {
+        List<Long> ids = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            ids.add(matched[i]);
+        }
+        return ids;
+    }
+
+    private Patient toPatient(PatientEntity entity) {
+        long start = metrics.start();
+        Patient patient = patientMapper.toPatient(entity);
+        metrics.record(FhirMetrics.Phase.JSON_PARSE, start);
+        return patient;
+    }
+
+    @Override
+    public Integer size() {
+        Integer result = size;
+        if (result == null) {
+            long start = metrics.start();
+            long[] matched = matches();
+            if (matched != null) {
+                result = countMatches(matched);
+                if (ticket != null) {
+                    ticket.store(result, needsDatabaseFilter() ? null : matched);
+                }
+            } else if (ticket != null && !countOnly && ticket.maxIds() > 0) {
+                // one query answers both count and pages when the result is small; a larger one is counted
+                List<Long> ids = searchRepository.findResourceIds(criteria, ticket.maxIds() + 1);
+                if (ids.size() <= ticket.maxIds()) {
+                    matched = ids.stream().mapToLong(Long::longValue).toArray();
+                    matchesComplete = true;
+                    matches = matched;
+                    result = matched.length;
+                    ticket.store(result, matched);
+                } else {
+                    result = searchRepository.count(criteria);
+                    ticket.store(result, null);
+                }
+            } else {
+                result = searchRepository.count(criteria);
+                if (ticket != null) {
+                    ticket.store(result, null);
+                }
+            }
+            metrics.record(FhirMetrics.Phase.DB_READ, start);
+            size = result;
+        }
+        return result;
+    }
+
+    private int countMatches(long[] matched) {
+        if (!needsDatabaseFilter()) {
+            return matched.length;
+        }
+        int count = 0;
+        for (int from = 0; from < matched.length; from += candidateChunkSize) {
+            count += searchRepository.countAmong(criteria, slice(matched, from, Math.min(matched.length, from + candidateChunkSize)));
+        }
+        return count;
+    }
+
+    @Override
+    public IPrimitiveType<Date> getPublished() {
+        return published;
+    }
+
+    @Override
+    public String getUuid() {
+        // assigned by the paging provider when it stores this result
+        return null;
+    }
+
+    @Override
+    public Integer preferredPageSize() {
+        return null;
+    }
+}
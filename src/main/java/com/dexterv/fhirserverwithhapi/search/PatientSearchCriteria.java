@@ -0,0 +1,91 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import lombok.Builder;
+import lombok.Getter;
+import org.hl7.fhir.r5.model.Patient;
+
+import java.util.Date;
+
+/**
+ * Search parameters accepted by Patient search, as received from the REST layer.
+ */
+@Getter
+@Builder
+public class PatientSearchCriteria {
+    private final StringParam family;
+    private final StringParam given;
+    private final StringParam name;
+    private final TokenParam gender;
+    private final TokenParam identifier;
+    private final DateRangeParam birthdate;
+    /**
+     * Sounds-like match on family or given names, answered by {@link PatientNameIndex} only.
+     */
+    private final StringParam phonetic;
+
+    public boolean isEmpty() {
+        return family == null && given == null && name == null
+                && gender == null && identifier == null
+                && (birthdate == null || birthdate.isEmpty())
+                && phonetic == null;
+    }
+
+    /**
+     * Identifies the result set for {@code PatientSearchResultCache}: built from what the search actually
+     * compares, so spellings that match the same rows (case and accents of non-exact strings, {@code FEMALE}
+     * and {@code female}, {@code ge1972} and {@code ge1972-01-01}) share a key.
+     */
+    public String cacheKey() {
+        StringBuilder key = new StringBuilder();
+        appendString(key, Patient.SP_FAMILY, family);
+        appendString(key, Patient.SP_GIVEN, given);
+        appendString(key, Patient.SP_NAME, name);
+        appendString(key, Patient.SP_PHONETIC, phonetic);
+        appendToken(key, Patient.SP_GENDER, gender);
+        appendToken(key, Patient.SP_IDENTIFIER, identifier);
+        if (birthdate != null && !birthdate.isEmpty()) {
+            key.append(Patient.SP_BIRTHDATE).append('=').append(millis(birthdate.getLowerBoundAsInstant()))
+                    .append("..").append(millis(birthdate.getUpperBoundAsInstant())).append('&');
+        }
+        return key.toString();
+    }
+
+    private static void appendString(StringBuilder key, String paramName, StringParam param) {
+        if (param == null || param.getValue() == null) {
+            return;
+        }
+        key.append(paramName);
+        if (param.isExact()) {
+            key.append(":exact=").append(escape(param.getValue()));
+        } else {
+            key.append(param.isContains() ? ":contains=" : "=")
+                    .append(escape(PatientSearchParameterExtractor.normalize(param.getValue())));
+        }
+        key.append('&');
+    }
+
+    private static void appendToken(StringBuilder key, String paramName, TokenParam param) {
+        if (param == null || (param.getValue() == null && param.getSystem() == null)) {
+            return;
+        }
+        String value = param.getValue();
+        if (value != null && Patient.SP_GENDER.equals(paramName)) {
+            value = value.toLowerCase();
+        }
+        key.append(paramName).append('=')
+                .append(param.getSystem() == null ? "" : escape(param.getSystem())).append('|')
+                .append(value == null ? "" : escape(value)).append('&');
+    }
+
+    // values are free text, so the separators are escaped to keep different searches apart
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("&", "\\&").replace("|", "\\|");
+    }
+
+    private static String millis(Date date) {
+        return date == null ? "" : String.valueOf(date.getTime());
+    }
+}
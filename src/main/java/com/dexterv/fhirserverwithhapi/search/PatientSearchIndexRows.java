@@ -0,0 +1,16 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientDateIndexEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientStringIndexEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientTokenIndexEntity;
+
+import java.util.List;
+
+/**
+ * All search index rows extracted from one version of a Patient.
+ */
+public record PatientSearchIndexRows(
+        List<PatientStringIndexEntity> strings,
+        List<PatientTokenIndexEntity> tokens,
+        List<PatientDateIndexEntity> dates) {
+}
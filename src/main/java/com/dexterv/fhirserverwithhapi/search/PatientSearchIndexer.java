@@ -0,0 +1,55 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import com.dexterv.fhirserverwithhapi.cache.PatientSearchResultCache;
+import com.dexterv.fhirserverwithhapi.config.NameIndexProperties;
+import com.dexterv.fhirserverwithhapi.repositories.PatientDateIndexRepository;
+import com.dexterv.fhirserverwithhapi.repositories.PatientNameTerm;
+import com.dexterv.fhirserverwithhapi.repositories.PatientNameTermRepository;
+import com.dexterv.fhirserverwithhapi.repositories.PatientStringIndexRepository;
+import com.dexterv.fhirserverwithhapi.repositories.PatientTokenIndexRepository;
+import lombok.RequiredArgsConstructor;
+import org.hl7.fhir.r5.model.Patient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Keeps the search index tables in step with the current version of each Patient.
+ * Must be called in the same transaction that writes the new version; {@link PatientNameIndex} follows once
+ * it commits, then {@link PatientSearchResultCache} drops results cached before the change.
+ */
+@Component
+@RequiredArgsConstructor
+public class PatientSearchIndexer {
+
+    private final PatientSearchParameterExtractor extractor;
+    private final PatientStringIndexRepository stringIndexRepository;
+    private final PatientTokenIndexRepository tokenIndexRepository;
+    private final PatientDateIndexRepository dateIndexRepository;
+    private final PatientNameTermRepository nameTermRepository;
+    private final PatientNameIndex nameIndex;
+    private final NameIndexProperties nameIndexProperties;
+    private final PatientSearchResultCache searchResultCache;
+
+    @Transactional
+    public void index(Long resourceId, Patient patient) {
+        // the in-memory name index is told which names went away, so it needs them before they are deleted
+        List<PatientNameTerm> namesBefore = nameIndexProperties.isEnabled()
+                ? nameTermRepository.findByResourceId(resourceId)
+                : List.of();
+
+        // Drop whatever the previous version contributed, the index only ever covers the current version
+        stringIndexRepository.deleteByResourceId(resourceId);
+        tokenIndexRepository.deleteByResourceId(resourceId);
+        dateIndexRepository.deleteByResourceId(resourceId);
+
+        PatientSearchIndexRows rows = extractor.extract(resourceId, patient);
+        stringIndexRepository.saveAll(rows.strings());
+        tokenIndexRepository.saveAll(rows.tokens());
+        dateIndexRepository.saveAll(rows.dates());
+
+        nameIndex.replaceAfterCommit(resourceId, namesBefore, PatientNameIndex.terms(resourceId, rows.strings()));
+        searchResultCache.invalidateAfterCommit();
+    }
+}
@@ -0,0 +1,121 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import ca.uhn.fhir.util.StringUtil;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientDateIndexEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientStringIndexEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientTokenIndexEntity;
+import org.hl7.fhir.r5.model.DateType;
+import org.hl7.fhir.r5.model.HumanName;
+import org.hl7.fhir.r5.model.Identifier;
+import org.hl7.fhir.r5.model.Patient;
+import org.hl7.fhir.r5.model.StringType;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Pulls the supported search parameters (family, given, name, gender, birthdate, identifier)
+ * out of a Patient so they can be stored in the search index tables.
+ */
+@Component
+public class PatientSearchParameterExtractor {
+
+    static final int MAX_VALUE_LENGTH = 200;
+
+    public PatientSearchIndexRows extract(Long resourceId, Patient patient) {
+        // LinkedHashMap keyed on (param, value) so a name repeated across HumanNames is only indexed once
+        Map<String, PatientStringIndexEntity> strings = new LinkedHashMap<>();
+        List<PatientTokenIndexEntity> tokens = new ArrayList<>();
+        List<PatientDateIndexEntity> dates = new ArrayList<>();
+
+        for (HumanName name : patient.getName()) {
+            addString(strings, resourceId, Patient.SP_FAMILY, name.getFamily());
+            addString(strings, resourceId, Patient.SP_NAME, name.getFamily());
+            addString(strings, resourceId, Patient.SP_NAME, name.getText());
+            for (StringType given : name.getGiven()) {
+                addString(strings, resourceId, Patient.SP_GIVEN, given.getValue());
+                addString(strings, resourceId, Patient.SP_NAME, given.getValue());
+            }
+            for (StringType prefix : name.getPrefix()) {
+                addString(strings, resourceId, Patient.SP_NAME, prefix.getValue());
+            }
+            for (StringType suffix : name.getSuffix()) {
+                addString(strings, resourceId, Patient.SP_NAME, suffix.getValue());
+            }
+        }
+
+        if (patient.hasGender()) {
+            tokens.add(token(resourceId, Patient.SP_GENDER,
+                    patient.getGender().getSystem(), patient.getGender().toCode()));
+        }
+
+        for (Identifier identifier : patient.getIdentifier()) {
+            if (identifier.hasValue()) {
+                tokens.add(token(resourceId, Patient.SP_IDENTIFIER, identifier.getSystem(), identifier.getValue()));
+            }
+        }
+
+        if (patient.hasBirthDateElement() && patient.getBirthDateElement().getValue() != null) {
+            dates.add(date(resourceId, Patient.SP_BIRTHDATE, patient.getBirthDateElement()));
+        }
+
+        return new PatientSearchIndexRows(new ArrayList<>(strings.values()), tokens, dates);
+    }
+
+    /**
+     * Same normalization as the stored value_normalized column, so query values can be compared directly.
+     */
+    public static String normalize(String value) {
+        return StringUtil.left(StringUtil.normalizeStringForSearchIndexing(value), MAX_VALUE_LENGTH);
+    }
+
+    private static void addString(Map<String, PatientStringIndexEntity> rows, Long resourceId, String param, String value) {
+        if (value == null || value.isBlank()) {
+            return;
+        }
+        String exact = StringUtil.left(value, MAX_VALUE_LENGTH);
+        rows.putIfAbsent(param + '|' + exact, PatientStringIndexEntity.builder()
+                .resourceId(resourceId)
+                .paramName(param)
+                .valueNormalized(normalize(value))
+                .valueExact(exact)
+                .build());
+    }
+
+    private static PatientTokenIndexEntity token(Long resourceId, String param, String system, String value) {
+        return PatientTokenIndexEntity.builder()
+                .resourceId(resourceId)
+                .paramName(param)
+                .system(StringUtil.left(system, MAX_VALUE_LENGTH))
+                .value(StringUtil.left(value, MAX_VALUE_LENGTH))
+                .build();
+    }
+
+    private static PatientDateIndexEntity date(Long resourceId, String param, DateType value) {
+        LocalDate low;
+        LocalDate high;
+        switch (value.getPrecision()) {
+            case YEAR -> {
+                low = LocalDate.of(value.getYear(), 1, 1);
+                high = low.plusYears(1);
+            }
+            case MONTH -> {
+                low = LocalDate.of(value.getYear(), value.getMonth() + 1, 1);
+                high = low.plusMonths(1);
+            }
+            default -> {
+                low = LocalDate.of(value.getYear(), value.getMonth() + 1, value.getDay());
+                high = low.plusDays(1);
+            }
+        }
+        return PatientDateIndexEntity.builder()
+                .resourceId(resourceId)
+                .paramName(param)
+                .valueLow(low.atStartOfDay())
+                // inclusive upper bound, matching DateRangeParam#getUpperBoundAsInstant
+                .valueHigh(high.atStartOfDay().minusNanos(1_000_000))
+                .build();
+    }
+}
@@ -0,0 +1,129 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Set of longs kept as one sorted primitive array, used for the postings lists of {@link PatientNameIndex}.
+ * A boxed {@code Set<Long>} costs several times the memory per entry; here an entry is 8 bytes plus spare
+ * capacity. Resource ids are handed out in increasing order, so adding a new resource appends at the end.
+ * Not thread-safe.
+ */
+final class SortedLongSet {
+
+    private static final long[] EMPTY = new long[0];
+
+    private long[] values = EMPTY;
+    private int size;
+
+    boolean add(long value) {
+        if (size > 0 && value <= values[size - 1]) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                return false;
+            }
+            insertAt(-index - 1, value);
+        } else {
+            insertAt(size, value);
+        }
+        return true;
+    }
+
+    boolean remove(long value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Drops spare capacity, e.g. once a bulk load is done.
+     */
+    void trim() {
+        if (values.length != size) {
+            values = size == 0 ? EMPTY : Arrays.copyOf(values, size);
+        }
+    }
+
+    private void insertAt(int index, long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(4, size + (size >> 1)));
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+    }
+
+    /**
+     * Sorted, duplicate-free union of the given sets.
+     */
+    static long[] union(List<SortedLongSet> sets) {
+        if (sets.isEmpty()) {
+            return EMPTY;
+        }
+        if (sets.size() == 1) {
+            return sets.get(0).toArray();
+        }
+        int total = 0;
+        for (SortedLongSet set : sets) {
+            total += set.size;
+        }
+        long[] merged = new long[total];
+        int offset = 0;
+        for (SortedLongSet set : sets) {
+            System.arraycopy(set.values, 0, merged, offset, set.size);
+            offset += set.size;
+        }
+        Arrays.sort(merged);
+        int distinct = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (i == 0 || merged[i] != merged[distinct - 1]) {
+                merged[distinct++] = merged[i];
+            }
+        }
+        return distinct == merged.length ? merged : Arrays.copyOf(merged, distinct);
+    }
+
+    /**
+     * Intersection of two sorted, duplicate-free arrays.
+     */
+    static long[] intersect(long[] a, long[] b) {
+        if (a.length > b.length) {
+            long[] swap = a;
+            a = b;
+            b = swap;
+        }
+        long[] result = new long[a.length];
+        int count = 0;
+        int from = 0;
+        for (long value : a) {
+            // b is usually the longer list; a binary search from the last hit skips most of it
+            int index = Arrays.binarySearch(b, from, b.length, value);
+            if (index >= 0) {
+                result[count++] = value;
+                from = index + 1;
+            } else {
+                from = -index - 1;
+            }
+            if (from == b.length) {
+                break;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+}
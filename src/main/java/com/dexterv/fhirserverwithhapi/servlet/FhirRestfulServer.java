@@ -2,10 +2,19 @@ package com.dexterv.fhirserverwithhapi.servlet;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.server.FifoMemoryPagingProvider;
+import ca.uhn.fhir.rest.server.IPagingProvider;
 import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.RestfulServer;
 import ca.uhn.fhir.rest.server.interceptor.ResponseHighlighterInterceptor;
+import com.dexterv.fhirserverwithhapi.metrics.FhirMetricsInterceptor;
+import com.dexterv.fhirserverwithhapi.provider.BulkExportProvider;
+import com.dexterv.fhirserverwithhapi.provider.BulkProvider;
 import com.dexterv.fhirserverwithhapi.provider.PatientResourceProvider;
+import com.dexterv.fhirserverwithhapi.provider.SystemHistoryProvider;
+import com.dexterv.fhirserverwithhapi.routing.ReadRoutingInterceptor;
+import com.dexterv.fhirserverwithhapi.startup.StartupMetrics;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -17,13 +26,52 @@ import java.util.List;
 @Component
 public class FhirRestfulServer {
 
+    /**
+     * Keeps search results (lazy {@link ca.uhn.fhir.rest.api.server.IBundleProvider}s) between page requests
+     * so that next links can continue where the previous page stopped.
+     */
     @Bean
-    public ServletRegistrationBean<RestfulServer> fhirServlet(PatientResourceProvider patientProvider) {
-        RestfulServer server = new RestfulServer(FhirContext.forR5());
+    public IPagingProvider pagingProvider(
+            @Value("${fhir.paging.max-stored-searches:1000}") int maxStoredSearches,
+            @Value("${fhir.paging.default-page-size:20}") int defaultPageSize,
+            @Value("${fhir.paging.maximum-page-size:200}") int maximumPageSize) {
+        FifoMemoryPagingProvider pagingProvider = new FifoMemoryPagingProvider(maxStoredSearches);
+        pagingProvider.setDefaultPageSize(defaultPageSize);
+        pagingProvider.setMaximumPageSize(maximumPageSize);
+        return pagingProvider;
+    }
+
+    @Bean
+    public ServletRegistrationBean<RestfulServer> fhirServlet(FhirContext fhirContext,
+                                                              PatientResourceProvider patientProvider,
+                                                              BulkProvider bulkProvider,
+                                                              BulkExportProvider bulkExportProvider,
+                                                              SystemHistoryProvider systemHistoryProvider,
+                                                              IPagingProvider pagingProvider,
+                                                              StartupMetrics startupMetrics,
+                                                              FhirMetricsInterceptor metricsInterceptor,
+                                                              ReadRoutingInterceptor readRoutingInterceptor,
+                                                              @Value("${fhir.paging.default-page-size:20}") int defaultPageSize,
+                                                              @Value("${fhir.response-highlighter.enabled:true}") boolean responseHighlighter) {
+        // Same context as the provider and validator, so the R5 model is only scanned once
+        RestfulServer server = new RestfulServer(fhirContext);
         server.setResourceProviders(patientProvider);
-        server.setDefaultPrettyPrint(true);
+        server.registerProvider(bulkProvider);
+        server.registerProvider(bulkExportProvider);
+        server.registerProvider(systemHistoryProvider);
+        server.setPagingProvider(pagingProvider);
+        // History is paged with _offset links instead of the paging provider; without this a history request
+        // that has no _count would return every version in one page
+        server.setDefaultPageSize(defaultPageSize);
+        // Compact JSON unless the client asks for _pretty=true; browsers get the highlighted HTML view instead
+        server.setDefaultPrettyPrint(false);
         server.setDefaultResponseEncoding(EncodingEnum.JSON);
-        server.registerInterceptor(new ResponseHighlighterInterceptor());
+        if (responseHighlighter) {
+            server.registerInterceptor(new ResponseHighlighterInterceptor());
+        }
+        server.registerInterceptor(startupMetrics);
+        server.registerInterceptor(metricsInterceptor);
+        server.registerInterceptor(readRoutingInterceptor);
         server.setServerName("My FhirServerWithHapi");
         server.setServerVersion("1.0.0");
 
@@ -0,0 +1,75 @@
+package com.dexterv.fhirserverwithhapi.startup;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.validation.FhirValidator;
+import com.dexterv.fhirserverwithhapi.mappers.PatientMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r5.model.Enumerations;
+import org.hl7.fhir.r5.model.Patient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pays the FHIR cold-start costs before the application reports ready instead of on the first requests:
+ * the R5 model scan, parser setup and the structure definitions and FHIRPath engine behind the validator.
+ * <p>
+ * Spring Boot only moves the readiness state to ACCEPTING_TRAFFIC after all ApplicationRunners have
+ * finished, so a readiness probe on /actuator/health/readiness keeps traffic away until this is done,
+ * while liveness is already UP and the pod is not restarted.
+ * </p>
+ */
+@Slf4j
+@Component
+public class FhirWarmup implements ApplicationRunner {
+
+    private final FhirContext fhirContext;
+    private final FhirValidator fhirValidator;
+    private final PatientMapper patientMapper;
+    private final StartupMetrics startupMetrics;
+    private final boolean enabled;
+
+    public FhirWarmup(FhirContext fhirContext,
+                      FhirValidator fhirValidator,
+                      PatientMapper patientMapper,
+                      StartupMetrics startupMetrics,
+                      @Value("${fhir.warmup.enabled:true}") boolean enabled) {
+        this.fhirContext = fhirContext;
+        this.fhirValidator = fhirValidator;
+        this.patientMapper = patientMapper;
+        this.startupMetrics = startupMetrics;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        long started = System.currentTimeMillis();
+
+        // 1. Scan every R5 resource definition, the context otherwise does this lazily per type on first use
+        for (String resourceType : fhirContext.getResourceTypes()) {
+            fhirContext.getResourceDefinition(resourceType);
+        }
+        long modelDone = System.currentTimeMillis();
+
+        // 2. Round-trip a Patient through the storage parser
+        Patient patient = new Patient();
+        patient.addName().setFamily("Warmup").addGiven("Startup");
+        patient.setGender(Enumerations.AdministrativeGender.UNKNOWN);
+        patient.addIdentifier().setSystem("http://hospital.example.org/mrn").setValue("MRN-WARMUP");
+        patientMapper.newStorageParser().parseResource(Patient.class, patientMapper.toJson(patient));
+        long parserDone = System.currentTimeMillis();
+
+        // 3. Validate it, which loads the core StructureDefinitions, snapshots and terminology support
+        fhirValidator.validateWithResult(patient);
+        long validatorDone = System.currentTimeMillis();
+
+        long total = validatorDone - started;
+        startupMetrics.recordWarmup(total);
+        log.info("FHIR warm-up finished in {} ms (model {} ms, parser {} ms, validation support {} ms)",
+                total, modelDone - started, parserDone - modelDone, validatorDone - parserDone);
+    }
+}
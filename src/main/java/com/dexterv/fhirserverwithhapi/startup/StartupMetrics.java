@@ -0,0 +1,59 @@
+package com.dexterv.fhirserverwithhapi.startup;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cold-start timings: how long the warm-up took, and when the first FHIR request completed
+ * (measured from JVM start) together with that request's own latency.
+ * Registered on the RestfulServer as an interceptor; after the first request the hook is a single flag check.
+ */
+@Slf4j
+@Component
+@Interceptor
+public class StartupMetrics implements MeterBinder {
+
+    private final AtomicBoolean firstRequestSeen = new AtomicBoolean();
+    private volatile double warmupMillis = Double.NaN;
+    private volatile double timeToFirstRequestMillis = Double.NaN;
+    private volatile double firstRequestLatencyMillis = Double.NaN;
+
+    public void recordWarmup(long millis) {
+        warmupMillis = millis;
+    }
+
+    @Hook(Pointcut.SERVER_PROCESSING_COMPLETED)
+    public void processingCompleted(RequestDetails requestDetails) {
+        if (firstRequestSeen.get() || !firstRequestSeen.compareAndSet(false, true)) {
+            return;
+        }
+        timeToFirstRequestMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        firstRequestLatencyMillis = requestDetails.getRequestStopwatch().getMillis();
+        log.info("First FHIR request ({}) completed {} ms after JVM start, took {} ms",
+                requestDetails.getRestOperationType(), (long) timeToFirstRequestMillis, (long) firstRequestLatencyMillis);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        TimeGauge.builder("fhir.startup.warmup", this, TimeUnit.MILLISECONDS, m -> m.warmupMillis)
+                .description("Time spent preloading the FHIR model and validation support")
+                .register(registry);
+        TimeGauge.builder("fhir.startup.time.to.first.request", this, TimeUnit.MILLISECONDS, m -> m.timeToFirstRequestMillis)
+                .description("JVM start until the first FHIR request completed")
+                .register(registry);
+        TimeGauge.builder("fhir.startup.first.request.latency", this, TimeUnit.MILLISECONDS, m -> m.firstRequestLatencyMillis)
+                .description("Latency of the first FHIR request served")
+                .register(registry);
+    }
+}
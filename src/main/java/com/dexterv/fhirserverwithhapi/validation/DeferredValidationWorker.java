@@ -0,0 +1,171 @@
+package com.dexterv.fhirserverwithhapi.validation;
+
+import ca.uhn.fhir.validation.FhirValidator;
+import ca.uhn.fhir.validation.ResultSeverityEnum;
+import ca.uhn.fhir.validation.SingleValidationMessage;
+import ca.uhn.fhir.validation.ValidationResult;
+import com.dexterv.fhirserverwithhapi.config.ValidationProperties;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientValidationIssueEntity;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientValidationStatus;
+import com.dexterv.fhirserverwithhapi.mappers.PatientMapper;
+import com.dexterv.fhirserverwithhapi.repositories.PatientRepository;
+import com.dexterv.fhirserverwithhapi.repositories.PatientValidationIssueRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs full FHIR validation for versions written in DEFERRED mode. The PENDING status is stored on the row,
+ * so the backlog survives restarts; versions that fail are flagged INVALID and their errors recorded in
+ * {@code patient_validation_issues}. Stored data is never rejected or changed after the fact.
+ * <p>
+ * Pending rows are read without locks and validated outside any transaction, so writes to the same patients never
+ * wait for validation. Each outcome is then recorded in its own short transaction, guarded on the row still being
+ * PENDING: when several server instances pick up the same version only the first outcome and its issues are kept.
+ * A version that cannot be read or validated at all is flagged INVALID with a fatal issue instead of being retried
+ * forever ahead of the rest.
+ * </p>
+ */
+@Slf4j
+@Component
+public class DeferredValidationWorker {
+
+    private final PatientRepository patientRepository;
+    private final PatientValidationIssueRepository issueRepository;
+    private final PatientMapper patientMapper;
+    private final FhirValidator fhirValidator;
+    private final TransactionTemplate transactionTemplate;
+    private final ValidationProperties properties;
+
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "patient-deferred-validation"));
+    private final AtomicLong validated = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+
+    public DeferredValidationWorker(PatientRepository patientRepository,
+                                    PatientValidationIssueRepository issueRepository,
+                                    PatientMapper patientMapper,
+                                    FhirValidator fhirValidator,
+                                    TransactionTemplate transactionTemplate,
+                                    ValidationProperties properties) {
+        this.patientRepository = patientRepository;
+        this.issueRepository = issueRepository;
+        this.patientMapper = patientMapper;
+        this.fhirValidator = fhirValidator;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+    }
+
+    // Also started outside DEFERRED mode so versions left PENDING by an earlier deployment still get validated
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        long interval = properties.getDeferredPollInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::drain, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public long getValidated() {
+        return validated.get();
+    }
+
+    public long getInvalid() {
+        return invalid.get();
+    }
+
+    private void drain() {
+        try {
+            long after = 0;
+            List<PatientEntity> batch;
+            do {
+                batch = patientRepository.findPendingValidation(after, properties.getDeferredBatchSize());
+                for (PatientEntity entity : batch) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    validateAndRecord(entity);
+                    after = entity.getId();
+                }
+            } while (batch.size() == properties.getDeferredBatchSize());
+        } catch (RuntimeException e) {
+            // keep the schedule alive, unrecorded rows stay PENDING for the next round
+            log.error("Deferred Patient validation failed", e);
+        }
+    }
+
+    /**
+     * Validates one PENDING version and records the outcome unless another worker already did.
+     */
+    private void validateAndRecord(PatientEntity entity) {
+        List<PatientValidationIssueEntity> issues;
+        try {
+            issues = validate(entity);
+        } catch (RuntimeException e) {
+            // a row that cannot even be read or validated must not block the rows behind it
+            log.warn("Patient/{}/_history/{} could not be validated", entity.getResourceId(), entity.getVersion(), e);
+            issues = List.of(issue(entity, "fatal", null, "Stored resource could not be validated: " + e.getMessage()));
+        }
+        PatientValidationStatus status = issues.isEmpty() ? PatientValidationStatus.VALID : PatientValidationStatus.INVALID;
+        List<PatientValidationIssueEntity> recorded = issues;
+        boolean first = Boolean.TRUE.equals(transactionTemplate.execute(tx -> {
+            if (patientRepository.completeValidation(entity.getId(), status) == 0) {
+                return false;
+            }
+            issueRepository.saveAll(recorded);
+            return true;
+        }));
+        if (!first) {
+            return;
+        }
+
+        validated.incrementAndGet();
+        if (status == PatientValidationStatus.INVALID) {
+            invalid.incrementAndGet();
+            log.warn("Patient/{}/_history/{} failed deferred validation with {} issue(s)",
+                    entity.getResourceId(), entity.getVersion(), issues.size());
+        }
+    }
+
+    /**
+     * @return the error and fatal messages; empty when the version is valid
+     */
+    private List<PatientValidationIssueEntity> validate(PatientEntity entity) {
+        ValidationResult result = fhirValidator.validateWithResult(patientMapper.toPatient(entity));
+        List<PatientValidationIssueEntity> issues = new ArrayList<>();
+        if (!result.isSuccessful()) {
+            for (SingleValidationMessage msg : result.getMessages()) {
+                if (msg.getSeverity() == null || msg.getSeverity().ordinal() < ResultSeverityEnum.ERROR.ordinal()) {
+                    continue;
+                }
+                issues.add(issue(entity, msg.getSeverity().getCode(), msg.getLocationString(), msg.getMessage()));
+            }
+        }
+        return issues;
+    }
+
+    private static PatientValidationIssueEntity issue(PatientEntity entity, String severity, String location, String message) {
+        return PatientValidationIssueEntity.builder()
+                .resourceId(entity.getResourceId())
+                .version(entity.getVersion())
+                .severity(severity)
+                .location(location)
+                .message(message == null ? "(no message)" : message)
+                .detectedAt(LocalDateTime.now())
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
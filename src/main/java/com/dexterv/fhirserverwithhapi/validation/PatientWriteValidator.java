@@ -0,0 +1,127 @@
+package com.dexterv.fhirserverwithhapi.validation;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
+import ca.uhn.fhir.validation.FhirValidator;
+import ca.uhn.fhir.validation.SingleValidationMessage;
+import ca.uhn.fhir.validation.ValidationResult;
+import com.dexterv.fhirserverwithhapi.config.FhirValidationConfig;
+import com.dexterv.fhirserverwithhapi.config.ValidationProperties;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientValidationStatus;
+import org.hl7.fhir.r5.model.OperationOutcome;
+import org.hl7.fhir.r5.model.Patient;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Validation on the write path: the business rules, which always run, and FHIR spec validation according
+ * to {@code fhir.validation.mode}. Rejects invalid resources, otherwise tells the caller which status to
+ * store the version with. Thread safe, bulk writes validate on several threads at once.
+ */
+@Component
+public class PatientWriteValidator {
+
+    private final FhirContext fhirContext;
+    private final FhirValidator fhirValidator;
+    private final FhirValidator profileOnlyValidator;
+    private final ValidationProperties properties;
+
+    public PatientWriteValidator(FhirContext fhirContext,
+                                 FhirValidator fhirValidator,
+                                 @Qualifier(FhirValidationConfig.PROFILE_ONLY_VALIDATOR) FhirValidator profileOnlyValidator,
+                                 ValidationProperties properties) {
+        this.fhirContext = fhirContext;
+        this.fhirValidator = fhirValidator;
+        this.profileOnlyValidator = profileOnlyValidator;
+        this.properties = properties;
+    }
+
+    /**
+     * This method just provides simple business validation for resources we are storing.
+     *
+     * @param patient The patient to validate
+     */
+    public void validateCustomRules(Patient patient) {
+
+        if (!patient.hasName() || patient.getNameFirstRep().getFamily() == null) {
+            throw new InvalidRequestException("Patient must have a family name");
+        }
+
+        if (!patient.hasGender()) {
+            throw new InvalidRequestException("Patient must have a gender");
+        }
+
+        if (patient.hasBirthDate() && patient.getBirthDate().after(new Date())) {
+            throw new InvalidRequestException("Patient birthDate cannot be in the future");
+        }
+    }
+
+    /**
+     * @param patient The patient to validate
+     * @return the validation status to store with the new version
+     */
+    public PatientValidationStatus validate(Patient patient) {
+        switch (properties.getMode()) {
+            case PROFILE_ONLY:
+                validateWithFhirSpec(profileOnlyValidator, patient);
+                return PatientValidationStatus.VALID;
+            case SAMPLED:
+                if (ThreadLocalRandom.current().nextInt(100) >= properties.getSamplePercent()) {
+                    return PatientValidationStatus.NOT_SAMPLED;
+                }
+                validateWithFhirSpec(fhirValidator, patient);
+                return PatientValidationStatus.VALID;
+            case DEFERRED:
+                return PatientValidationStatus.PENDING;
+            case FULL:
+            default:
+                validateWithFhirSpec(fhirValidator, patient);
+                return PatientValidationStatus.VALID;
+        }
+    }
+
+    /**
+     * Spec validation for a patch. When the patched version passed spec validation and declares no profile,
+     * only the top-level elements the patch changed are validated: the unchanged ones already passed, and
+     * base Patient constraints do not span elements. Otherwise the whole resource is validated as on update.
+     *
+     * @param previousStatus validation status of the patched version, null for rows validated in full
+     * @param changes        the changed elements, see {@code PatientPatcher.changedElements}
+     * @return the validation status to store with the new version
+     */
+    public PatientValidationStatus validateChanges(Patient patched, PatientValidationStatus previousStatus, Patient changes) {
+        boolean previousValid = previousStatus == null || previousStatus == PatientValidationStatus.VALID;
+        if (!previousValid || patched.getMeta().hasProfile()) {
+            return validate(patched);
+        }
+        return validate(changes);
+    }
+
+    /**
+     * This method comply with FHIR specs validation
+     *
+     * @param validator The validator for the configured mode
+     * @param patient   The patient to validate
+     */
+    private void validateWithFhirSpec(FhirValidator validator, Patient patient) {
+
+        ValidationResult result = validator.validateWithResult(patient);
+
+        if (!result.isSuccessful()) {
+            OperationOutcome outcome = new OperationOutcome();
+
+            for (SingleValidationMessage msg : result.getMessages()) {
+                OperationOutcome.OperationOutcomeIssueComponent issue = outcome.addIssue();
+                issue.setSeverity(OperationOutcome.IssueSeverity.fromCode(msg.getSeverity().getCode()));
+                issue.setCode(OperationOutcome.IssueType.PROCESSING);
+                issue.setDiagnostics(msg.getMessage());
+            }
+
+            throw new UnprocessableEntityException(fhirContext, outcome);
+        }
+    }
+}
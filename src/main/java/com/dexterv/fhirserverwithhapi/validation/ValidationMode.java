@@ -0,0 +1,16 @@
+package com.dexterv.fhirserverwithhapi.validation;
+
+/**
+ * How much FHIR spec validation a create or update pays for before it is stored.
+ * The custom business rules in the provider always run.
+ */
+public enum ValidationMode {
+    /** Full instance validation against the spec, including terminology bindings. */
+    FULL,
+    /** Structure and profile validation only, without terminology checks. */
+    PROFILE_ONLY,
+    /** Full validation for a percentage of writes ({@code fhir.validation.sample-percent}), none for the rest. */
+    SAMPLED,
+    /** Accept the write and validate it in full on a background worker that flags invalid versions. */
+    DEFERRED
+}
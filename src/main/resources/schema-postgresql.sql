@@ -0,0 +1,37 @@
+-- One current row per resource. JPA cannot express partial indexes, so this lives here rather than on PatientEntity.
+CREATE UNIQUE INDEX IF NOT EXISTS ux_patients_current ON patients (resource_id) WHERE is_current;
+
+-- Rows written before is_current existed have it NULL: flag the latest version of each resource.
+-- The partial index only holds unmigrated rows, so after the first run this is a no-op lookup.
+CREATE INDEX IF NOT EXISTS idx_patients_current_unset ON patients (resource_id) WHERE is_current IS NULL;
+UPDATE patients p
+SET is_current = (p.version = (SELECT MAX(v.version) FROM patients v WHERE v.resource_id = p.resource_id))
+WHERE p.is_current IS NULL;
+
+-- Backlog of the deferred validation worker; stays tiny because rows leave it once validated.
+CREATE INDEX IF NOT EXISTS idx_patients_validation_pending ON patients (id) WHERE validation_status = 'PENDING';
+
+-- Compressed rows keep their body in resource_bytes and leave resource NULL (see ResourceCodecs).
+-- ddl-auto=update never relaxes an existing NOT NULL, so do it here.
+ALTER TABLE patients ALTER COLUMN resource DROP NOT NULL;
+
+-- Superseded versions the archiver has not picked up yet (see PatientHistoryArchiver). Rows leave it when they
+-- are archived, so it only holds the archiver's backlog.
+CREATE INDEX IF NOT EXISTS idx_patients_superseded ON patients (last_updated, id) WHERE is_current = false;
+
+-- Archived versions, one partition per month of last_updated, created by PatientHistoryArchiveRepository as
+-- versions arrive. This script runs before schema.sql, whose unpartitioned definition is then a no-op here.
+CREATE TABLE IF NOT EXISTS patient_history (
+    id                BIGINT       NOT NULL,
+    resource_id       BIGINT       NOT NULL,
+    version           INTEGER      NOT NULL,
+    last_updated      TIMESTAMP(6) NOT NULL,
+    validation_status VARCHAR(16),
+    resource_format   VARCHAR(24)  NOT NULL,
+    resource_bytes    BYTEA        NOT NULL,
+    resource_size     INTEGER,
+    PRIMARY KEY (id, last_updated)
+) PARTITION BY RANGE (last_updated);
+
+-- Outbox rows still waiting for their change feed offset (see PatientChangeFeed); stays tiny.
+CREATE INDEX IF NOT EXISTS idx_patient_changes_unassigned ON patient_changes (id) WHERE feed_offset IS NULL;
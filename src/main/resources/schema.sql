@@ -1,2 +1,19 @@
 -- Create the sequence for FHIR resource IDs if it does not exist
-CREATE SEQUENCE IF NOT EXISTS resource_seq START 1;
\ No newline at end of file
+CREATE SEQUENCE IF NOT EXISTS resource_seq START 1;
+
+-- Superseded Patient versions moved out of patients by PatientHistoryArchiver. On PostgreSQL
+-- schema-postgresql.sql has already created it partitioned by month; other databases (H2 benchmarks) get it plain.
+CREATE TABLE IF NOT EXISTS patient_history (
+    id                BIGINT       NOT NULL,
+    resource_id       BIGINT       NOT NULL,
+    version           INTEGER      NOT NULL,
+    last_updated      TIMESTAMP(6) NOT NULL,
+    validation_status VARCHAR(16),
+    resource_format   VARCHAR(24)  NOT NULL,
+    resource_bytes    BYTEA        NOT NULL,
+    resource_size     INTEGER,
+    PRIMARY KEY (id, last_updated)
+);
+-- vread and instance history, and type level history newest first; on PostgreSQL every partition gets them
+CREATE INDEX IF NOT EXISTS idx_patient_history_resource_version ON patient_history (resource_id, version);
+CREATE INDEX IF NOT EXISTS idx_patient_history_last_updated ON patient_history (last_updated, id);
@@ -0,0 +1,96 @@
+package com.dexterv.fhirserverwithhapi.perf;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Patients created per second over HTTP: one create request per patient, as clients load data today,
+ * against one NDJSON $import request per {@link #IMPORT_SIZE} patients. Scores are per patient
+ * (operations = patients), so the two benchmarks compare directly for each validation mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BulkImportBenchmark {
+
+    private static final int SEQUENTIAL_SIZE = 100;
+    private static final int IMPORT_SIZE = 5_000;
+
+    @Param({"full", "deferred"})
+    public String validationMode;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient http;
+    private URI createUri;
+    private URI importUri;
+    private String[] patients;
+    private String ndjson;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // The deferred worker would validate in the background and compete for the CPU being measured
+        context = PerfApplication.start(
+                "fhir.validation.mode=" + validationMode,
+                "fhir.validation.deferred-poll-interval=1h");
+        String base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/fhir";
+        createUri = URI.create(base + "/Patient");
+        importUri = URI.create(base + "/$import");
+        http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        IParser parser = FhirContext.forR5Cached().newJsonParser();
+        Random random = new Random(42);
+        patients = new String[IMPORT_SIZE];
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < IMPORT_SIZE; i++) {
+            patients[i] = parser.encodeResourceToString(PerfData.patient(random, 0));
+            lines.append(patients[i]).append('\n');
+        }
+        ndjson = lines.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEQUENTIAL_SIZE)
+    public int sequentialCreates() throws IOException, InterruptedException {
+        int created = 0;
+        for (int i = 0; i < SEQUENTIAL_SIZE; i++) {
+            created += post(createUri, "application/fhir+json", patients[i]) == 201 ? 1 : 0;
+        }
+        return created;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IMPORT_SIZE)
+    public int ndjsonImport() throws IOException, InterruptedException {
+        return post(importUri, "application/fhir+ndjson", ndjson);
+    }
+
+    private int post(URI uri, String contentType, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        if (status >= 300) {
+            throw new IllegalStateException("POST " + uri + " returned " + status);
+        }
+        return status;
+    }
+}
@@ -0,0 +1,107 @@
+package com.dexterv.fhirserverwithhapi.perf;
+
+import ca.uhn.fhir.rest.server.exceptions.ResourceVersionConflictException;
+import com.dexterv.fhirserverwithhapi.provider.PatientResourceProvider;
+import org.hl7.fhir.r5.model.IdType;
+import org.hl7.fhir.r5.model.Patient;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Update throughput when 8 threads write to a few hot Patients, with the in-process lock stripes
+ * (fhir.update.lock-stripes) and with retries alone. After each trial the stored history is checked: every
+ * resource must have versions 1..n without gaps or duplicates and exactly one current row, otherwise the
+ * trial fails. Updates that still conflict after fhir.update.max-retries are counted and printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Threads(8)
+@Fork(1)
+public class ConcurrentUpdateBenchmark {
+
+    @Param({"1", "64"})
+    public int hotResources;
+
+    @Param({"1024", "0"})
+    public int lockStripes;
+
+    private ConfigurableApplicationContext context;
+    private PatientResourceProvider provider;
+    private long[] resourceIds;
+    private Patient template;
+    private final AtomicLong conflicts = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Spec validation runs before the lock and is not what is measured here
+        context = PerfApplication.start(
+                "fhir.update.lock-stripes=" + lockStripes,
+                "fhir.validation.mode=deferred",
+                "fhir.validation.deferred-poll-interval=1h");
+        provider = context.getBean(PatientResourceProvider.class);
+
+        Random random = new Random(42);
+        template = PerfData.patient(random, 0);
+        resourceIds = new long[hotResources];
+        for (int i = 0; i < hotResources; i++) {
+            resourceIds[i] = Long.parseLong(provider.createPatient(PerfData.patient(random, 0)).getId().getIdPart());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        try {
+            verifyGaplessHistory(context.getBean(JdbcTemplate.class));
+        } finally {
+            context.close();
+        }
+    }
+
+    @Benchmark
+    public boolean update() {
+        long resourceId = resourceIds[ThreadLocalRandom.current().nextInt(resourceIds.length)];
+        Patient incoming = template.copy();
+        incoming.setId(String.valueOf(resourceId));
+        incoming.getNameFirstRep().setFamily("Family" + ThreadLocalRandom.current().nextInt(1000));
+        try {
+            provider.updatePatient(new IdType("Patient", resourceId), incoming);
+            return true;
+        } catch (ResourceVersionConflictException e) {
+            conflicts.incrementAndGet();
+            return false;
+        }
+    }
+
+    private void verifyGaplessHistory(JdbcTemplate jdbc) {
+        List<Map<String, Object>> rows = jdbc.queryForList(
+                "SELECT resource_id, COUNT(*) AS versions, COUNT(DISTINCT version) AS distinct_versions,"
+                        + " MIN(version) AS min_version, MAX(version) AS max_version,"
+                        + " SUM(CASE WHEN is_current THEN 1 ELSE 0 END) AS current_rows"
+                        + " FROM patients GROUP BY resource_id");
+        long written = 0;
+        for (Map<String, Object> row : rows) {
+            long versions = ((Number) row.get("versions")).longValue();
+            boolean gapless = versions == ((Number) row.get("distinct_versions")).longValue()
+                    && ((Number) row.get("min_version")).longValue() == 1
+                    && ((Number) row.get("max_version")).longValue() == versions
+                    && ((Number) row.get("current_rows")).longValue() == 1;
+            if (!gapless) {
+                throw new IllegalStateException("Broken version history: " + row);
+            }
+            written += versions - 1;
+        }
+        System.out.printf("%nHistory verified for %d resources: %d updates stored, %d gave up with 409 Conflict%n",
+                rows.size(), written, conflicts.get());
+    }
+}
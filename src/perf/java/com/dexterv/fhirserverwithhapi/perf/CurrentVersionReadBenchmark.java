@@ -0,0 +1,70 @@
+package com.dexterv.fhirserverwithhapi.perf;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.dexterv.fhirserverwithhapi.provider.PatientResourceProvider;
+import org.hl7.fhir.r5.model.IdType;
+import org.hl7.fhir.r5.model.Patient;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read latency of the current version for resources with a short and a long history.
+ * readCurrent and currentFlagLookup should not move between versions=1 and versions=1000;
+ * orderByVersionDescLookup is the query the read path used before the is_current flag, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CurrentVersionReadBenchmark {
+
+    private static final int RESOURCES = 100;
+
+    @Param({"1", "1000"})
+    public int versions;
+
+    private ConfigurableApplicationContext context;
+    private PatientResourceProvider provider;
+    private JdbcTemplate jdbc;
+    private long next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = PerfApplication.start();
+        provider = context.getBean(PatientResourceProvider.class);
+        jdbc = context.getBean(JdbcTemplate.class);
+        PerfData.seedVersions(jdbc, context.getBean(FhirContext.class), RESOURCES, versions);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    private long nextResourceId() {
+        next = next % RESOURCES + 1;
+        return next;
+    }
+
+    @Benchmark
+    public Patient readCurrent() {
+        return provider.readPatientById(new IdType("Patient", String.valueOf(nextResourceId())));
+    }
+
+    @Benchmark
+    public Long currentFlagLookup() {
+        return jdbc.queryForObject(
+                "SELECT id FROM patients WHERE resource_id = ? AND is_current = true", Long.class, nextResourceId());
+    }
+
+    @Benchmark
+    public Long orderByVersionDescLookup() {
+        return jdbc.queryForObject(
+                "SELECT id FROM patients WHERE resource_id = ? ORDER BY version DESC LIMIT 1", Long.class, nextResourceId());
+    }
+}
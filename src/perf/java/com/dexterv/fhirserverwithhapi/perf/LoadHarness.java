@@ -0,0 +1,338 @@
+package com.dexterv.fhirserverwithhapi.perf;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.dexterv.fhirserverwithhapi.search.PatientReindexJob;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.hl7.fhir.r5.model.Patient;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test through the real /fhir servlet, against embedded H2 in PostgreSQL mode.
+ * <p>
+ * Seeds {@code patients} resources with {@code versions} versions each, then sends requests at a fixed arrival
+ * rate (open model: a slow response does not delay the next request). Latency is measured from the time a
+ * request was scheduled, not sent, so queueing in the server is included (no coordinated omission).
+ * Per operation it prints throughput and HDR percentiles, writes the full distribution to
+ * {@code <out>/<operation>.hgrm}, and exits with status 1 when a threshold is exceeded.
+ * <p>
+ * Arguments are {@code key=value} pairs, all optional:
+ * <pre>
+ * patients=1000 versions=5          seed data
+ * rate=200 warmup=10 duration=60    requests/second, seconds
+ * mix=read:50,vread:10,search:15,history:5,create:10,update:10
+ * max-p99=250 max-p99.search=500    p99 thresholds in ms, overall and per operation
+ * max-error-rate=0.01               non-2xx or failed requests, per operation
+ * min-throughput=0.95               achieved / target rate
+ * max-in-flight=1000 out=target/load-test
+ * </pre>
+ * Any other {@code key=value} whose key contains a dot is passed to the application, e.g.
+ * {@code fhir.validation.mode=deferred} or {@code fhir.cache.patient.enabled=true}.
+ */
+public final class LoadHarness {
+
+    enum Operation {CREATE, READ, VREAD, UPDATE, SEARCH, HISTORY}
+
+    private static final String[] FAMILIES = {"Smith", "Johnson", "Nguyen", "García", "Müller", "O'Brien", "Kowalski", "Tanaka"};
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final Map<String, String> options;
+    private final int patients;
+    private final int versions;
+    private final Map<Operation, Integer> mix;
+    private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+    private final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final IParser parser = FhirContext.forR5Cached().newJsonParser();
+    private String base;
+
+    private LoadHarness(Map<String, String> options) {
+        this.options = options;
+        this.patients = intOption("patients", 1000);
+        this.versions = intOption("versions", 5);
+        this.mix = parseMix(options.getOrDefault("mix", "read:50,vread:10,search:15,history:5,create:10,update:10"));
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        boolean passed;
+        LoadHarness harness = new LoadHarness(options);
+        try (ConfigurableApplicationContext context = PerfApplication.start(harness.applicationProperties())) {
+            passed = harness.run(context);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private String[] applicationProperties() {
+        return options.entrySet().stream()
+                .filter(e -> e.getKey().contains("."))
+                .filter(e -> !e.getKey().startsWith("max-p99."))
+                .map(e -> e.getKey() + "=" + e.getValue())
+                .toArray(String[]::new);
+    }
+
+    private boolean run(ConfigurableApplicationContext context) throws Exception {
+        base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/fhir/Patient";
+        seed(context);
+
+        int rate = intOption("rate", 200);
+        int warmup = intOption("warmup", 10);
+        int duration = intOption("duration", 60);
+        System.out.printf("Load: %d req/s, %ds warm-up, %ds measured, mix %s%n", rate, warmup, duration, mix);
+        drive(rate, Duration.ofSeconds(warmup));
+        stats.values().forEach(Stats::reset);
+        long dropped = drive(rate, Duration.ofSeconds(duration));
+
+        return report(rate, duration, dropped);
+    }
+
+    /**
+     * Versions are inserted directly, which is far faster than going through the API; the sequence is then moved
+     * past them and the search tables are backfilled, so the data looks as if it had been written by the server.
+     */
+    private void seed(ConfigurableApplicationContext context) throws InterruptedException {
+        long started = System.currentTimeMillis();
+        JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+        PerfData.seedVersions(jdbc, context.getBean(FhirContext.class), patients, versions);
+        jdbc.execute("ALTER SEQUENCE resource_seq RESTART WITH " + (patients + 1));
+
+        PatientReindexJob reindexJob = context.getBean(PatientReindexJob.class);
+        reindexJob.start();
+        while (reindexJob.isRunning()) {
+            Thread.sleep(100);
+        }
+        System.out.printf("Seeded %d patients x %d versions in %d ms%n",
+                patients, versions, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Sends requests at the given rate for the given time on virtual threads.
+     *
+     * @return the number of requests not sent because max-in-flight requests were outstanding
+     */
+    private long drive(int rate, Duration duration) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(intOption("max-in-flight", 1000));
+        AtomicLong dropped = new AtomicLong();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        List<Operation> weighted = weightedOperations();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long i = 0; ; i++) {
+                long scheduled = start + i * intervalNanos;
+                if (scheduled >= end) {
+                    break;
+                }
+                long wait = scheduled - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                Operation operation = weighted.get(ThreadLocalRandom.current().nextInt(weighted.size()));
+                if (!inFlight.tryAcquire()) {
+                    dropped.incrementAndGet();
+                    stats.get(operation).dropped.incrementAndGet();
+                    continue;
+                }
+                executor.execute(() -> {
+                    try {
+                        execute(operation, scheduled);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        return dropped.get();
+    }
+
+    private void execute(Operation operation, long scheduled) {
+        Stats operationStats = stats.get(operation);
+        boolean ok;
+        try {
+            int status = http.send(request(operation), HttpResponse.BodyHandlers.discarding()).statusCode();
+            ok = status >= 200 && status < 300;
+        } catch (IOException e) {
+            ok = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduled);
+        operationStats.latency.recordValue(Math.min(micros, MAX_LATENCY_MICROS));
+        operationStats.requests.incrementAndGet();
+        if (!ok) {
+            operationStats.errors.incrementAndGet();
+        }
+    }
+
+    private HttpRequest request(Operation operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long id = random.nextLong(1, patients + 1);
+        return switch (operation) {
+            case READ -> get(base + "/" + id);
+            case VREAD -> get(base + "/" + id + "/_history/" + random.nextInt(1, versions + 1));
+            case HISTORY -> get(base + "/" + id + "/_history");
+            case SEARCH -> get(base + "?family=" + FAMILIES[random.nextInt(FAMILIES.length)].substring(0, 3) + "&_count=20");
+            case CREATE -> HttpRequest.newBuilder(URI.create(base))
+                    .header("Content-Type", "application/fhir+json")
+                    .POST(HttpRequest.BodyPublishers.ofString(patientJson(null)))
+                    .build();
+            case UPDATE -> HttpRequest.newBuilder(URI.create(base + "/" + id))
+                    .header("Content-Type", "application/fhir+json")
+                    .PUT(HttpRequest.BodyPublishers.ofString(patientJson(id)))
+                    .build();
+        };
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).header("Accept", "application/fhir+json").GET().build();
+    }
+
+    private String patientJson(Long id) {
+        Patient patient = PerfData.patient(new Random(ThreadLocalRandom.current().nextLong()), 0);
+        if (id != null) {
+            patient.setId(id.toString());
+        }
+        return parser.encodeResourceToString(patient);
+    }
+
+    private boolean report(int rate, int duration, long dropped) throws IOException {
+        Path out = Path.of(options.getOrDefault("out", "target/load-test"));
+        Files.createDirectories(out);
+        double maxErrorRate = Double.parseDouble(options.getOrDefault("max-error-rate", "0.01"));
+        double defaultMaxP99 = Double.parseDouble(options.getOrDefault("max-p99", "250"));
+        List<String> failures = new ArrayList<>();
+
+        PrintStream console = System.out;
+        console.printf("%n%-8s %9s %9s %7s %9s %9s %9s %9s %9s%n",
+                "op", "requests", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        long total = 0;
+        for (Operation operation : mix.keySet()) {
+            Stats operationStats = stats.get(operation);
+            Histogram histogram = operationStats.latency.copy();
+            long requests = operationStats.requests.get();
+            // a dropped request never got a response, so it counts as a failed attempt
+            long errors = operationStats.errors.get() + operationStats.dropped.get();
+            long attempts = requests + operationStats.dropped.get();
+            total += requests;
+            console.printf(Locale.ROOT, "%-8s %9d %9.1f %7d %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    name(operation), requests, requests / (double) duration, errors,
+                    millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9),
+                    histogram.getMaxValue() / 1000.0);
+            try (PrintStream hgrm = new PrintStream(Files.newOutputStream(out.resolve(name(operation) + ".hgrm")))) {
+                histogram.outputPercentileDistribution(hgrm, 1000.0);
+            }
+
+            double maxP99 = Double.parseDouble(options.getOrDefault("max-p99." + name(operation), String.valueOf(defaultMaxP99)));
+            if (millis(histogram, 99) > maxP99) {
+                failures.add(String.format(Locale.ROOT, "%s p99 %.2f ms > %.2f ms", name(operation), millis(histogram, 99), maxP99));
+            }
+            if (attempts > 0 && errors / (double) attempts > maxErrorRate) {
+                failures.add(String.format(Locale.ROOT, "%s error rate %.4f > %.4f", name(operation), errors / (double) attempts, maxErrorRate));
+            }
+        }
+
+        double achieved = total / (double) duration;
+        double minThroughput = Double.parseDouble(options.getOrDefault("min-throughput", "0.95"));
+        console.printf(Locale.ROOT, "%ntotal %.1f req/s of %d targeted, %d dropped at max-in-flight; histograms in %s%n",
+                achieved, rate, dropped, out.toAbsolutePath());
+        if (achieved < rate * minThroughput) {
+            failures.add(String.format(Locale.ROOT, "throughput %.1f req/s < %.0f%% of %d", achieved, minThroughput * 100, rate));
+        }
+
+        if (failures.isEmpty()) {
+            console.println("PASSED");
+            return true;
+        }
+        failures.forEach(failure -> console.println("FAILED: " + failure));
+        return false;
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static String name(Operation operation) {
+        return operation.name().toLowerCase(Locale.ROOT);
+    }
+
+    private List<Operation> weightedOperations() {
+        List<Operation> weighted = new ArrayList<>();
+        mix.forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                weighted.add(operation);
+            }
+        });
+        return weighted;
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            int weight = Integer.parseInt(parts[1]);
+            if (weight > 0) {
+                weights.put(Operation.valueOf(parts[0].toUpperCase(Locale.ROOT)), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("mix has no operations: " + mix);
+        }
+        return weights;
+    }
+
+    private int intOption(String key, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(key, String.valueOf(defaultValue)));
+    }
+
+    private static final class Stats {
+        // microseconds, 3 significant digits
+        final Histogram latency = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+
+        void reset() {
+            latency.reset();
+            requests.set(0);
+            errors.set(0);
+            dropped.set(0);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.dexterv.fhirserverwithhapi.perf;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import com.dexterv.fhirserverwithhapi.provider.PatientResourceProvider;
+import com.dexterv.fhirserverwithhapi.search.PatientNameIndex;
+import com.dexterv.fhirserverwithhapi.search.PatientReindexJob;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * First page (20 entries) plus total of a name search, answered by the in-memory name index
+ * ({@code nameIndex=true}) or by LIKE over patient_search_string ({@code nameIndex=false}). The seeded
+ * Patients are indexed through the $reindex job, so the name index is filled by the same incremental path
+ * as regular writes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NameSearchBenchmark {
+
+    private static final int PAGE = 20;
+
+    @Param({"20000"})
+    public int patients;
+
+    @Param({"true", "false"})
+    public boolean nameIndex;
+
+    private ConfigurableApplicationContext context;
+    private PatientResourceProvider provider;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        context = PerfApplication.start("fhir.search.name-index.enabled=" + nameIndex);
+        provider = context.getBean(PatientResourceProvider.class);
+
+        PerfData.seedVersions(context.getBean(JdbcTemplate.class), context.getBean(FhirContext.class), patients, 1);
+        PatientReindexJob reindexJob = context.getBean(PatientReindexJob.class);
+        reindexJob.start();
+        while (reindexJob.isRunning()) {
+            Thread.sleep(100);
+        }
+        PatientNameIndex index = context.getBean(PatientNameIndex.class);
+        while (nameIndex && !index.isReady()) {
+            Thread.sleep(100);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void familyStartsWith(Blackhole blackhole) {
+        firstPage(provider.searchPatient(new StringParam("ngu"), null, null, null, null, null, null, null), blackhole);
+    }
+
+    @Benchmark
+    public void familyContains(Blackhole blackhole) {
+        firstPage(provider.searchPatient(new StringParam("owal").setContains(true), null, null, null, null, null, null, null), blackhole);
+    }
+
+    @Benchmark
+    public void nameContainsAndGender(Blackhole blackhole) {
+        firstPage(provider.searchPatient(null, null, new StringParam("hlo").setContains(true),
+                new TokenParam("female"), null, null, null, null), blackhole);
+    }
+
+    private static void firstPage(IBundleProvider result, Blackhole blackhole) {
+        blackhole.consume(result.getResources(0, PAGE));
+        blackhole.consume(result.size());
+    }
+}
@@ -0,0 +1,163 @@
+package com.dexterv.fhirserverwithhapi.perf;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.dexterv.fhirserverwithhapi.codec.DeflateResourceCodec;
+import com.dexterv.fhirserverwithhapi.codec.ResourceCodec;
+import com.dexterv.fhirserverwithhapi.codec.ResourceCodecs;
+import com.dexterv.fhirserverwithhapi.domain.entities.ResourceFormat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds a preset deflate dictionary for Patient JSON from a sample and compares it with the shipped one.
+ * <p>
+ * The sample is split into JSON tokens (strings, numbers, literals, punctuation); runs of up to
+ * {@value #MAX_RUN} tokens that occur in at least {@code min-share} of the documents are scored by
+ * documents x (length - 3), roughly the bytes a back-reference saves, and the best are packed into
+ * {@code size} bytes. The highest scoring fragments go last, nearest to the data, where deflate's matches are
+ * cheapest. The training half of the sample builds the dictionary, the other half measures it.
+ * </p>
+ * Run with a representative sample, e.g. an NDJSON file from {@code $export}:
+ * <pre>
+ * ./mvnw -Pperf test-compile exec:exec@dict -Ddict.args="sample=patients.ndjson out=target/patient-v2.dict"
+ * </pre>
+ * Without {@code sample=} a synthetic {@link PerfData} corpus is used. A new dictionary must ship as a new
+ * {@link ResourceFormat} constant next to its file; the bytes of an existing one can never change.
+ */
+public final class PatientDictionaryTrainer {
+
+    private static final Pattern TOKEN = Pattern.compile("\"(?:[^\"\\\\]|\\\\.)*\"|-?[0-9][0-9.eE+-]*|true|false|null|[{}\\[\\]:,]");
+    private static final int MAX_RUN = 8;
+
+    private PatientDictionaryTrainer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int size = Integer.parseInt(options.getOrDefault("size", "4096"));
+        double minShare = Double.parseDouble(options.getOrDefault("min-share", "0.05"));
+        Path out = Path.of(options.getOrDefault("out", "target/patient-dict.bin"));
+
+        List<String> sample = options.containsKey("sample")
+                ? Files.readAllLines(Path.of(options.get("sample"))).stream().filter(line -> !line.isBlank()).toList()
+                : syntheticSample(Integer.parseInt(options.getOrDefault("count", "2000")));
+        List<String> training = new ArrayList<>();
+        List<String> holdOut = new ArrayList<>();
+        for (int i = 0; i < sample.size(); i++) {
+            (i % 2 == 0 ? training : holdOut).add(sample.get(i));
+        }
+
+        byte[] dictionary = train(training, size, minShare);
+        Files.createDirectories(out.toAbsolutePath().getParent());
+        Files.write(out, dictionary);
+        System.out.printf("Wrote %d byte dictionary to %s, trained on %d of %d documents%n",
+                dictionary.length, out, training.size(), sample.size());
+
+        ResourceCodecs codecs = new ResourceCodecs(ResourceFormat.JSON);
+        report("JSON", codecs.codec(ResourceFormat.JSON), holdOut);
+        report("JSON_DEFLATE", codecs.codec(ResourceFormat.JSON_DEFLATE), holdOut);
+        report("JSON_DEFLATE_DICT_V1", codecs.codec(ResourceFormat.JSON_DEFLATE_DICT_V1), holdOut);
+        report("trained", new DeflateResourceCodec(ResourceFormat.JSON_DEFLATE_DICT_V1, dictionary), holdOut);
+    }
+
+    static byte[] train(List<String> documents, int size, double minShare) {
+        // documents containing each run of tokens, counted once per document
+        Map<String, Integer> documentCounts = new HashMap<>();
+        for (String document : documents) {
+            List<String> tokens = tokenize(document);
+            Set<String> seen = new HashSet<>();
+            for (int start = 0; start < tokens.size(); start++) {
+                StringBuilder run = new StringBuilder();
+                for (int end = start; end < Math.min(tokens.size(), start + MAX_RUN); end++) {
+                    run.append(tokens.get(end));
+                    if (run.length() >= 4) {
+                        seen.add(run.toString());
+                    }
+                }
+            }
+            for (String fragment : seen) {
+                documentCounts.merge(fragment, 1, Integer::sum);
+            }
+        }
+
+        int minDocuments = Math.max(2, (int) Math.ceil(documents.size() * minShare));
+        List<Map.Entry<String, Integer>> candidates = documentCounts.entrySet().stream()
+                .filter(e -> e.getValue() >= minDocuments)
+                .sorted(Comparator.comparingLong((Map.Entry<String, Integer> e) -> score(e.getKey(), e.getValue())).reversed())
+                .toList();
+
+        List<String> chosen = new ArrayList<>();
+        int length = 0;
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            String fragment = candidate.getKey();
+            int bytes = fragment.getBytes(StandardCharsets.UTF_8).length;
+            if (length + bytes > size) {
+                continue;
+            }
+            if (chosen.stream().anyMatch(c -> c.contains(fragment))) {
+                continue;
+            }
+            chosen.add(fragment);
+            length += bytes;
+        }
+
+        // best last: deflate encodes nearby matches in fewer bits
+        StringBuilder dictionary = new StringBuilder(length);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            dictionary.append(chosen.get(i));
+        }
+        return dictionary.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long score(String fragment, int documents) {
+        return (long) documents * (fragment.length() - 3);
+    }
+
+    private static List<String> tokenize(String json) {
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(json);
+        while (matcher.find()) {
+            tokens.add(matcher.group());
+        }
+        return tokens;
+    }
+
+    private static List<String> syntheticSample(int count) {
+        // same mix as ResourceCodecBenchmark, with a different seed so its corpus is not the training set
+        IParser parser = FhirContext.forR5Cached().newJsonParser().setPrettyPrint(false);
+        Random random = new Random(7);
+        List<String> sample = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sample.add(parser.encodeResourceToString(PerfData.patient(random, random.nextInt(10) == 0 ? 3 : random.nextInt(2))));
+        }
+        return sample;
+    }
+
+    private static void report(String label, ResourceCodec codec, List<String> documents) {
+        long json = 0;
+        long stored = 0;
+        for (String document : documents) {
+            json += document.getBytes(StandardCharsets.UTF_8).length;
+            stored += codec.encode(document).length;
+        }
+        System.out.printf("%-22s %8.1f bytes/row  ratio %.3f%n", label, (double) stored / documents.size(), (double) stored / json);
+    }
+}
@@ -0,0 +1,128 @@
+package com.dexterv.fhirserverwithhapi.perf;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.PatchTypeEnum;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientValidationStatus;
+import com.dexterv.fhirserverwithhapi.mappers.PatientMapper;
+import com.dexterv.fhirserverwithhapi.patch.PatientPatcher;
+import com.dexterv.fhirserverwithhapi.search.PatientSearchIndexRows;
+import com.dexterv.fhirserverwithhapi.search.PatientSearchParameterExtractor;
+import com.dexterv.fhirserverwithhapi.validation.PatientWriteValidator;
+import org.hl7.fhir.r5.model.Patient;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of the per-resource work on the Patient read and write paths, using the application's own beans
+ * (shared FhirContext, validators, mapper, search extractor). {@code extraNames} grows the payload: 0 is a
+ * typical patient (~0.5 KB of JSON), 4 a larger one and 20 an outlier with a long name/contact history.
+ * Nothing here touches the database, so scores are comparable between runs on the same machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PatientHotPathBenchmark {
+
+    private static final int CORPUS = 64;
+    private static final String PHONE_PATCH =
+            "[{\"op\":\"add\",\"path\":\"/telecom/-\",\"value\":{\"system\":\"phone\",\"value\":\"555-0100\"}}]";
+
+    @Param({"0", "4", "20"})
+    public int extraNames;
+
+    private ConfigurableApplicationContext context;
+    private PatientMapper patientMapper;
+    private PatientWriteValidator writeValidator;
+    private PatientSearchParameterExtractor extractor;
+    private PatientPatcher patcher;
+    private Patient[] patients;
+    private String[] json;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = PerfApplication.start("fhir.validation.mode=full");
+        patientMapper = context.getBean(PatientMapper.class);
+        writeValidator = context.getBean(PatientWriteValidator.class);
+        extractor = context.getBean(PatientSearchParameterExtractor.class);
+        patcher = context.getBean(PatientPatcher.class);
+
+        IParser parser = context.getBean(FhirContext.class).newJsonParser();
+        Random random = new Random(42);
+        patients = new Patient[CORPUS];
+        json = new String[CORPUS];
+        for (int i = 0; i < CORPUS; i++) {
+            patients[i] = PerfData.patient(random, extraNames);
+            json[i] = parser.encodeResourceToString(patients[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % CORPUS;
+        return next;
+    }
+
+    @Benchmark
+    public Patient parse() {
+        return patientMapper.newStorageParser().parseResource(Patient.class, json[nextIndex()]);
+    }
+
+    @Benchmark
+    public String encode() {
+        return patientMapper.toJson(patients[nextIndex()]);
+    }
+
+    @Benchmark
+    public PatientValidationStatus validateWithFhirSpec() {
+        return writeValidator.validate(patients[nextIndex()]);
+    }
+
+    @Benchmark
+    public Patient validateCustomRules() {
+        Patient patient = patients[nextIndex()];
+        writeValidator.validateCustomRules(patient);
+        return patient;
+    }
+
+    /**
+     * Includes the copy the update path gets from the cache, since merge mutates its target.
+     */
+    @Benchmark
+    public Patient mergePatient() {
+        Patient existing = patients[nextIndex()].copy();
+        patientMapper.mergePatient(existing, patients[nextIndex()]);
+        return existing;
+    }
+
+    /**
+     * The PATCH path for a one-element change: apply a JSON Patch, find what changed and spec validate only that.
+     * Compare with {@link #validateWithFhirSpec()}, which an update of the same patient pays instead.
+     */
+    @Benchmark
+    public PatientValidationStatus patchAndValidateChanges() {
+        Patient current = patients[nextIndex()];
+        Patient patched = patcher.apply(current, PatchTypeEnum.JSON_PATCH, PHONE_PATCH);
+        return writeValidator.validateChanges(patched, PatientValidationStatus.VALID,
+                PatientPatcher.changedElements(current, patched));
+    }
+
+    /**
+     * The per-resource part of search: rows for the patient_search_* tables, built on every create and update.
+     */
+    @Benchmark
+    public PatientSearchIndexRows extractSearchParameters() {
+        return extractor.extract(1L, patients[nextIndex()]);
+    }
+}
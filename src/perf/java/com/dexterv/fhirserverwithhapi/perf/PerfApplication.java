@@ -0,0 +1,24 @@
+package com.dexterv.fhirserverwithhapi.perf;
+
+import com.dexterv.fhirserverwithhapi.FhirServerWithHapiApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Boots the real application against embedded H2 (see application-perf.properties).
+ */
+public final class PerfApplication {
+
+    private PerfApplication() {
+    }
+
+    /**
+     * @param properties extra "key=value" properties, applied on top of the perf profile
+     */
+    public static ConfigurableApplicationContext start(String... properties) {
+        return new SpringApplicationBuilder(FhirServerWithHapiApplication.class)
+                .profiles("perf")
+                .properties(properties)
+                .run();
+    }
+}
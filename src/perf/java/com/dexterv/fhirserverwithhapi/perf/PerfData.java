@@ -0,0 +1,73 @@
+package com.dexterv.fhirserverwithhapi.perf;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.r5.model.ContactPoint;
+import org.hl7.fhir.r5.model.DateType;
+import org.hl7.fhir.r5.model.Enumerations;
+import org.hl7.fhir.r5.model.Patient;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic but realistically shaped R5 Patients for benchmarks.
+ */
+public final class PerfData {
+
+    private static final String[] FAMILIES = {"Smith", "Johnson", "Nguyen", "García", "Müller", "O'Brien", "Kowalski", "Tanaka"};
+    private static final String[] GIVEN = {"Ann", "Bruno", "Chloé", "Dmitri", "Eve", "Farah", "Gustavo", "Hiro"};
+
+    private PerfData() {
+    }
+
+    /**
+     * A Patient with roughly {@code extraNames + 1} names, telecoms and addresses, so payload size can be varied.
+     */
+    public static Patient patient(Random random, int extraNames) {
+        Patient patient = new Patient();
+        patient.addIdentifier().setSystem("http://hospital.example.org/mrn").setValue("MRN" + random.nextInt(10_000_000));
+        for (int i = 0; i <= extraNames; i++) {
+            patient.addName()
+                    .setFamily(FAMILIES[random.nextInt(FAMILIES.length)])
+                    .addGiven(GIVEN[random.nextInt(GIVEN.length)])
+                    .addGiven(GIVEN[random.nextInt(GIVEN.length)]);
+            patient.addTelecom()
+                    .setSystem(ContactPoint.ContactPointSystem.PHONE)
+                    .setUse(ContactPoint.ContactPointUse.HOME)
+                    .setValue("+1-555-" + (1000 + random.nextInt(9000)));
+            patient.addAddress()
+                    .addLine(random.nextInt(999) + " Main Street")
+                    .setCity("Springfield")
+                    .setPostalCode(String.valueOf(10000 + random.nextInt(89999)))
+                    .setCountry("US");
+        }
+        patient.setGender(random.nextBoolean() ? Enumerations.AdministrativeGender.FEMALE : Enumerations.AdministrativeGender.MALE);
+        patient.setBirthDateElement(new DateType(1930 + random.nextInt(90) + "-0" + (1 + random.nextInt(9)) + "-1" + random.nextInt(10)));
+        return patient;
+    }
+
+    /**
+     * Inserts resources 1..resources directly into the patients table, each with the given number of versions.
+     */
+    public static void seedVersions(JdbcTemplate jdbc, FhirContext fhirContext, int resources, int versions) {
+        Random random = new Random(42);
+        String sql = "INSERT INTO patients (resource_id, version, is_current, last_updated, resource) VALUES (?, ?, ?, ?, ?)";
+        List<Object[]> batch = new ArrayList<>();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        for (long resourceId = 1; resourceId <= resources; resourceId++) {
+            String json = fhirContext.newJsonParser().encodeResourceToString(patient(random, 0));
+            for (int version = 1; version <= versions; version++) {
+                batch.add(new Object[]{resourceId, version, version == versions, now, json});
+                if (batch.size() == 1000) {
+                    jdbc.batchUpdate(sql, batch);
+                    batch.clear();
+                }
+            }
+        }
+        jdbc.batchUpdate(sql, batch);
+    }
+}
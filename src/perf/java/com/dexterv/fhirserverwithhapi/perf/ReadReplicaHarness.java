@@ -0,0 +1,232 @@
+package com.dexterv.fhirserverwithhapi.perf;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Patient;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks read replica routing against two running Postgres instances, a primary and a streaming replica of it
+ * (e.g. {@code docker compose --profile replica up}); there is no H2 variant because H2 cannot replicate.
+ * <p>
+ * Writer clients each update their own Patient and immediately read it back by id, through instance history and
+ * through a family search; every answer must show the version just written. Reader clients read and search
+ * without writing, so their reads should mostly be served by the replica. Each client sends from its own
+ * loopback address, which is how the server tells clients apart. Exits with status 1 on any stale or failed read,
+ * or when the replica served no reads at all.
+ * <p>
+ * Arguments are {@code key=value} pairs, all optional:
+ * <pre>
+ * primary=jdbc:postgresql://localhost:5432/fhir_db
+ * replicas=jdbc:postgresql://localhost:5433/fhir_db      comma separated
+ * username=fhir_user password=fhir_pass
+ * writers=4 readers=4 duration=30                         clients, seconds
+ * </pre>
+ * Any other {@code key=value} whose key contains a dot is passed to the application.
+ */
+public final class ReadReplicaHarness {
+
+    private final Map<String, String> options;
+    private final IParser parser = FhirContext.forR5Cached().newJsonParser();
+    private final List<Long> writtenIds = new CopyOnWriteArrayList<>();
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong readerRequests = new AtomicLong();
+    private final AtomicLong notYetReplicated = new AtomicLong();
+    private String base;
+
+    private ReadReplicaHarness(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        boolean passed;
+        ReadReplicaHarness harness = new ReadReplicaHarness(options);
+        // Properties given to the builder are defaults, which application-perf.properties (H2) would override
+        for (String property : harness.applicationProperties()) {
+            int eq = property.indexOf('=');
+            System.setProperty(property.substring(0, eq), property.substring(eq + 1));
+        }
+        try (ConfigurableApplicationContext context = PerfApplication.start()) {
+            passed = harness.run(context);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private String[] applicationProperties() {
+        List<String> properties = new ArrayList<>(List.of(
+                "spring.datasource.url=" + options.getOrDefault("primary", "jdbc:postgresql://localhost:5432/fhir_db"),
+                "spring.datasource.username=" + options.getOrDefault("username", "fhir_user"),
+                "spring.datasource.password=" + options.getOrDefault("password", "fhir_pass"),
+                "spring.datasource.driver-class-name=org.postgresql.Driver",
+                "spring.sql.init.platform=postgresql"));
+        String[] replicas = options.getOrDefault("replicas", "jdbc:postgresql://localhost:5433/fhir_db").split(",");
+        for (int i = 0; i < replicas.length; i++) {
+            properties.add("fhir.datasource.replicas[" + i + "].url=" + replicas[i].trim());
+        }
+        options.entrySet().stream()
+                .filter(e -> e.getKey().contains("."))
+                .forEach(e -> properties.add(e.getKey() + "=" + e.getValue()));
+        return properties.toArray(String[]::new);
+    }
+
+    private boolean run(ConfigurableApplicationContext context) throws Exception {
+        base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/fhir/Patient";
+        int writers = intOption("writers", 4);
+        int readers = intOption("readers", 4);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(intOption("duration", 30));
+        // let the health check see the replica before the first read
+        Thread.sleep(2_000);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            HttpClient http = client(InetAddress.getByName("127.0.0." + (10 + i)));
+            int writer = i;
+            threads.add(Thread.ofPlatform().name("writer-" + i).start(() -> write(http, writer, deadline)));
+        }
+        for (int i = 0; i < readers; i++) {
+            HttpClient http = client(InetAddress.getByName("127.0.1." + (10 + i)));
+            threads.add(Thread.ofPlatform().name("reader-" + i).start(() -> read(http, deadline)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return report(context.getBean(MeterRegistry.class));
+    }
+
+    private static HttpClient client(InetAddress address) {
+        return HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).localAddress(address).build();
+    }
+
+    /**
+     * Update, then read back by id, through history and through search; each must show the new version.
+     */
+    private void write(HttpClient http, int writer, long deadline) {
+        Random random = new Random(writer);
+        try {
+            Patient created = parser.parseResource(Patient.class, send(http, HttpRequest.newBuilder(URI.create(base))
+                    .header("Content-Type", "application/fhir+json")
+                    .POST(HttpRequest.BodyPublishers.ofString(parser.encodeResourceToString(PerfData.patient(random, 0))))
+                    .build()));
+            long id = Long.parseLong(created.getIdElement().getIdPart());
+            writtenIds.add(id);
+            for (int step = 1; System.nanoTime() < deadline; step++) {
+                String family = "Replica" + writer + "x" + step;
+                Patient patient = PerfData.patient(random, 0);
+                patient.setId(String.valueOf(id));
+                patient.getNameFirstRep().setFamily(family);
+                Patient updated = parser.parseResource(Patient.class, send(http, HttpRequest.newBuilder(URI.create(base + "/" + id))
+                        .header("Content-Type", "application/fhir+json")
+                        .PUT(HttpRequest.BodyPublishers.ofString(parser.encodeResourceToString(patient)))
+                        .build()));
+                int version = Integer.parseInt(updated.getIdElement().getVersionIdPart());
+
+                Patient read = parser.parseResource(Patient.class, send(http, get(base + "/" + id)));
+                check(Integer.parseInt(read.getMeta().getVersionId()) >= version);
+                Bundle history = parser.parseResource(Bundle.class, send(http, get(base + "/" + id + "/_history?_count=1")));
+                check(!history.getEntry().isEmpty()
+                        && Integer.parseInt(history.getEntryFirstRep().getResource().getMeta().getVersionId()) >= version);
+                Bundle search = parser.parseResource(Bundle.class, send(http, get(base + "?family=" + family)));
+                check(search.getEntry().stream().anyMatch(entry ->
+                        entry.getResource().getIdElement().getIdPart().equals(String.valueOf(id))));
+            }
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            System.out.println(Thread.currentThread().getName() + " failed: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void read(HttpClient http, long deadline) {
+        while (System.nanoTime() < deadline) {
+            try {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                if (writtenIds.isEmpty() || random.nextBoolean()) {
+                    send(http, get(base + "?family=Replica&_count=20"));
+                } else {
+                    HttpRequest request = get(base + "/" + writtenIds.get(random.nextInt(writtenIds.size())));
+                    // Readers have no read-your-writes guarantee, so a Patient created moments ago may not be there yet
+                    if (http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 404) {
+                        notYetReplicated.incrementAndGet();
+                    }
+                }
+                readerRequests.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void check(boolean current) {
+        checks.incrementAndGet();
+        if (!current) {
+            stale.incrementAndGet();
+        }
+    }
+
+    private static String send(HttpClient http, HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 300) {
+            throw new IOException(request.method() + " " + request.uri() + " -> " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).header("Accept", "application/fhir+json").GET().build();
+    }
+
+    private boolean report(MeterRegistry registry) {
+        System.out.printf("%nread-your-writes checks: %d, stale: %d, failed requests: %d%n",
+                checks.get(), stale.get(), failed.get());
+        System.out.printf("reader requests: %d, of which 404 for a Patient not yet replicated: %d%n",
+                readerRequests.get(), notYetReplicated.get());
+        double replicaReads = 0;
+        for (FunctionCounter counter : registry.find("fhir.datasource.reads").functionCounters()) {
+            String target = counter.getId().getTag("target");
+            System.out.printf("reads served by %-10s %8.0f%n", target, counter.count());
+            if (!"primary".equals(target)) {
+                replicaReads += counter.count();
+            }
+        }
+        boolean passed = stale.get() == 0 && failed.get() == 0 && replicaReads > 0;
+        System.out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    private int intOption(String key, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(key, String.valueOf(defaultValue)));
+    }
+}
@@ -0,0 +1,77 @@
+package com.dexterv.fhirserverwithhapi.perf;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.dexterv.fhirserverwithhapi.codec.ResourceCodec;
+import com.dexterv.fhirserverwithhapi.codec.ResourceCodecs;
+import com.dexterv.fhirserverwithhapi.domain.entities.ResourceFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode throughput of each storage codec over a corpus of stored-form Patient JSON.
+ * Bytes per row and the ratio against plain JSON are printed once per trial, since they do not
+ * depend on timing. No Spring context or database is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResourceCodecBenchmark {
+
+    private static final int CORPUS = 1_000;
+
+    @Param({"JSON", "JSON_GZIP", "JSON_DEFLATE", "JSON_DEFLATE_DICT_V1"})
+    public ResourceFormat format;
+
+    private ResourceCodec codec;
+    private String[] json;
+    private byte[][] stored;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Mostly small patients with some larger ones, encoded the way the mapper stores them
+        IParser parser = FhirContext.forR5Cached().newJsonParser().setPrettyPrint(false);
+        Random random = new Random(42);
+        json = new String[CORPUS];
+        for (int i = 0; i < CORPUS; i++) {
+            json[i] = parser.encodeResourceToString(PerfData.patient(random, random.nextInt(10) == 0 ? 3 : random.nextInt(2)));
+        }
+
+        codec = new ResourceCodecs(ResourceFormat.JSON).codec(format);
+        stored = new byte[CORPUS][];
+        long jsonBytes = 0;
+        long storedBytes = 0;
+        for (int i = 0; i < CORPUS; i++) {
+            stored[i] = codec.encode(json[i]);
+            jsonBytes += json[i].getBytes(StandardCharsets.UTF_8).length;
+            storedBytes += stored[i].length;
+            if (!codec.decode(stored[i]).equals(json[i])) {
+                throw new IllegalStateException(format + " does not round-trip");
+            }
+        }
+        System.out.printf("%n%s: %.1f bytes/row (JSON %.1f bytes/row, ratio %.2f)%n",
+                format, (double) storedBytes / CORPUS, (double) jsonBytes / CORPUS, (double) storedBytes / jsonBytes);
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % CORPUS;
+        return next;
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(json[nextIndex()]);
+    }
+
+    @Benchmark
+    public String decode() {
+        return codec.decode(stored[nextIndex()]);
+    }
+}
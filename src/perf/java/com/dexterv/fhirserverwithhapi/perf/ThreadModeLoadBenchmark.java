@@ -0,0 +1,95 @@
+package com.dexterv.fhirserverwithhapi.perf;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mixed read/create traffic over HTTP with Tomcat on platform threads against virtual threads
+ * (spring.threads.virtual.enabled). 24 reader and 8 creator clients share a Tomcat pool of
+ * {@link #PLATFORM_POOL} threads, as under bursty load; both modes use the same Hikari pool.
+ * Throughput is reported per group and per method, SampleTime adds p99/p99.9 per method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class ThreadModeLoadBenchmark {
+
+    private static final int PLATFORM_POOL = 16;
+    private static final int SEEDED = 1_000;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient http;
+    private String base;
+    private String[] patients;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        context = PerfApplication.start(
+                "spring.threads.virtual.enabled=" + "virtual".equals(threads),
+                "server.tomcat.threads.max=" + PLATFORM_POOL,
+                "spring.datasource.hikari.maximum-pool-size=10");
+        base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/fhir/Patient";
+        http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        IParser parser = FhirContext.forR5Cached().newJsonParser();
+        Random random = new Random(42);
+        patients = new String[SEEDED];
+        for (int i = 0; i < SEEDED; i++) {
+            patients[i] = parser.encodeResourceToString(PerfData.patient(random, 0));
+            create(patients[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(24)
+    public int read() throws IOException, InterruptedException {
+        long id = ThreadLocalRandom.current().nextLong(1, SEEDED + 1);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/" + id)).GET().build();
+        return check(http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(8)
+    public int create() throws IOException, InterruptedException {
+        return create(patients[ThreadLocalRandom.current().nextInt(SEEDED)]);
+    }
+
+    private int create(String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base))
+                .header("Content-Type", "application/fhir+json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return check(http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode());
+    }
+
+    private static int check(int status) {
+        if (status >= 300) {
+            throw new IllegalStateException("Request returned " + status);
+        }
+        return status;
+    }
+}
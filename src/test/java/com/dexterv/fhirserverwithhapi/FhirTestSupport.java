@@ -0,0 +1,87 @@
+package com.dexterv.fhirserverwithhapi;
+
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Requests and Patient bodies shared by the tests that go through the FHIR endpoint.
+ */
+public final class FhirTestSupport {
+
+    public static final MediaType FHIR_JSON = MediaType.parseMediaType("application/fhir+json");
+
+    private FhirTestSupport() {
+    }
+
+    /**
+     * Headers for a FHIR JSON request that also wants FHIR JSON back.
+     */
+    public static HttpHeaders fhirHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(FHIR_JSON);
+        headers.setAccept(List.of(FHIR_JSON));
+        return headers;
+    }
+
+    /**
+     * {@link #fhirHeaders()} with If-Match, or without it when {@code etag} is null.
+     */
+    public static HttpHeaders ifMatch(String etag) {
+        HttpHeaders headers = fhirHeaders();
+        if (etag != null) {
+            headers.setIfMatch(etag);
+        }
+        return headers;
+    }
+
+    /**
+     * {@link #fhirHeaders()} with If-None-Match, or without it when {@code etag} is null.
+     */
+    public static HttpHeaders ifNoneMatch(String etag) {
+        HttpHeaders headers = fhirHeaders();
+        if (etag != null) {
+            headers.setIfNoneMatch(etag);
+        }
+        return headers;
+    }
+
+    /**
+     * A female Patient with one family name, with {@code id} for updates or without it for creates.
+     */
+    public static String patient(Long id, String family) {
+        return "{\"resourceType\":\"Patient\"" + (id == null ? "" : ",\"id\":\"" + id + "\"")
+                + ",\"name\":[{\"family\":\"" + family + "\"}],\"gender\":\"female\"}";
+    }
+
+    /**
+     * Creates {@link #patient(Long, String)} and returns its id.
+     */
+    public static long createPatient(TestRestTemplate rest, String family) {
+        return create(rest, patient(null, family));
+    }
+
+    /**
+     * Creates the given Patient JSON and returns its id.
+     */
+    public static long create(TestRestTemplate rest, String patientJson) {
+        ResponseEntity<String> response = rest.postForEntity("/fhir/Patient", new HttpEntity<>(patientJson, fhirHeaders()), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        return Long.parseLong(response.getHeaders().getLocation().getPath().replaceAll(".*/Patient/(\\d+).*", "$1"));
+    }
+
+    /**
+     * PUTs {@link #patient(Long, String)} to an existing Patient, with If-Match unless {@code ifMatch} is null.
+     */
+    public static ResponseEntity<String> updatePatient(TestRestTemplate rest, long id, String family, String ifMatch) {
+        return rest.exchange("/fhir/Patient/" + id, HttpMethod.PUT, new HttpEntity<>(patient(id, family), ifMatch(ifMatch)), String.class);
+    }
+}
@@ -0,0 +1,83 @@
+package com.dexterv.fhirserverwithhapi.cache;
+
+import com.dexterv.fhirserverwithhapi.config.SearchCacheProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PatientSearchResultCacheTest {
+
+    private static final String KEY = "family=DOE&";
+
+    @Test
+    void storedResultIsServedUntilTheNextWrite() {
+        PatientSearchResultCache cache = cache(10, Duration.ofMinutes(1));
+        cache.ticket(KEY).store(2, new long[]{3, 5});
+
+        PatientSearchResultCache.Hit hit = cache.ticket(KEY).cached();
+        assertThat(hit).isNotNull();
+        assertThat(hit.count()).isEqualTo(2);
+        assertThat(hit.resourceIds()).containsExactly(3, 5);
+
+        cache.invalidateAfterCommit();
+
+        assertThat(cache.ticket(KEY).cached()).isNull();
+    }
+
+    @Test
+    void resultOfASearchThatOverlappedAWriteIsNotStored() {
+        PatientSearchResultCache cache = cache(10, Duration.ofMinutes(1));
+        PatientSearchResultCache.Ticket before = cache.ticket(KEY);
+
+        cache.invalidateAfterCommit();
+        before.store(1, new long[]{3});
+
+        assertThat(cache.ticket(KEY).cached()).isNull();
+        // a ticket taken before the write never sees later entries either
+        cache.ticket(KEY).store(1, new long[]{3});
+        assertThat(before.cached()).isNull();
+        assertThat(cache.ticket(KEY).cached()).isNotNull();
+    }
+
+    @Test
+    void largeResultsOnlyKeepTheirCount() {
+        PatientSearchResultCache cache = cache(2, Duration.ofMinutes(1));
+        cache.ticket(KEY).store(3, new long[]{1, 2, 3});
+
+        PatientSearchResultCache.Hit hit = cache.ticket(KEY).cached();
+        assertThat(hit.count()).isEqualTo(3);
+        assertThat(hit.resourceIds()).isNull();
+    }
+
+    @Test
+    void countDoesNotReplaceStoredIds() {
+        PatientSearchResultCache cache = cache(10, Duration.ofMinutes(1));
+        cache.ticket(KEY).store(2, new long[]{3, 5});
+        cache.ticket(KEY).store(2, null);
+
+        assertThat(cache.ticket(KEY).cached().resourceIds()).containsExactly(3, 5);
+    }
+
+    @Test
+    void entriesExpire() {
+        PatientSearchResultCache cache = cache(10, Duration.ZERO);
+        cache.ticket(KEY).store(2, new long[]{3, 5});
+
+        assertThat(cache.ticket(KEY).cached()).isNull();
+    }
+
+    @Test
+    void disabledCacheHandsOutNoTickets() {
+        assertThat(new PatientSearchResultCache(new SearchCacheProperties()).ticket(KEY)).isNull();
+    }
+
+    private static PatientSearchResultCache cache(int maxIds, Duration ttl) {
+        SearchCacheProperties properties = new SearchCacheProperties();
+        properties.setEnabled(true);
+        properties.setMaxIds(maxIds);
+        properties.setTtl(ttl);
+        return new PatientSearchResultCache(properties);
+    }
+}
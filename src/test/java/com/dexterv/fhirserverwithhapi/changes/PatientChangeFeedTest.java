@@ -0,0 +1,259 @@
+package com.dexterv.fhirserverwithhapi.changes;
+
+import com.dexterv.fhirserverwithhapi.repositories.PatientChangeRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.LongStream;
+
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.createPatient;
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.updatePatient;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The Patient change feed end to end: offsets are gapless under concurrent writes, pruned offsets answer 410 Gone,
+ * and a REST hook receives every change in order once its cursor lease is free.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "fhir.changes.enabled=true",
+        "fhir.changes.poll-interval=100ms",
+        "fhir.changes.batch-size=7",
+        "fhir.changes.hook-timeout=2s",
+        "fhir.changes.hook-lease=5s"
+})
+@ActiveProfiles("test")
+class PatientChangeFeedTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    // offsets of every batch the hook answered 2xx to, in arrival order
+    private static final List<Long> HOOK_OFFSETS = new CopyOnWriteArrayList<>();
+    private static final AtomicInteger HOOK_FAILURES_LEFT = new AtomicInteger(1);
+    private static final HttpServer HOOK = startHook();
+
+    @DynamicPropertySource
+    static void hook(DynamicPropertyRegistry registry) {
+        // indexed list entries do not merge across property sources, so the whole entry goes here
+        registry.add("fhir.changes.hooks[0].name", () -> "test");
+        registry.add("fhir.changes.hooks[0].url", () -> "http://localhost:" + HOOK.getAddress().getPort() + "/hook");
+    }
+
+    @AfterAll
+    static void stopHook() {
+        HOOK.stop(0);
+    }
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PatientChangeFeed feed;
+
+    @Autowired
+    private PatientChangeRepository changeRepository;
+
+    @Test
+    void concurrentWritesGetGaplessOffsets() throws Exception {
+        long start = feed.head();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Long>> created = new ArrayList<>();
+        try {
+            for (int i = 0; i < 24; i++) {
+                created.add(executor.submit(() -> createPatient(rest, "Feed")));
+            }
+            List<Future<ResponseEntity<String>>> updates = new ArrayList<>();
+            for (Future<Long> id : created) {
+                long resourceId = id.get();
+                updates.add(executor.submit(() -> updatePatient(rest, resourceId, "Fed", null)));
+            }
+            for (Future<ResponseEntity<String>> update : updates) {
+                assertThat(update.get().getStatusCode()).isEqualTo(HttpStatus.OK);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        int written = 48;
+        await(() -> feed.head() >= start + written);
+
+        List<JsonNode> events = new ArrayList<>();
+        long since = start;
+        while (events.size() < written) {
+            JsonNode page = poll(since);
+            page.get("events").forEach(events::add);
+            since = page.get("next").asLong();
+        }
+        assertThat(events).extracting(event -> event.get("offset").asLong())
+                .containsExactlyElementsOf(LongStream.rangeClosed(start + 1, start + written).boxed().toList());
+        Set<String> versions = new HashSet<>();
+        events.forEach(event -> versions.add(event.get("id").asText() + "/" + event.get("versionId").asText()));
+        assertThat(versions).hasSize(written);
+
+        // the hook gets the same offsets, in order and without gaps, despite its first answer being a 500
+        await(() -> !HOOK_OFFSETS.isEmpty() && HOOK_OFFSETS.get(HOOK_OFFSETS.size() - 1) >= start + written);
+        List<Long> delivered = new ArrayList<>(HOOK_OFFSETS);
+        assertThat(delivered).isSorted().doesNotHaveDuplicates();
+        assertThat(delivered).containsSequence(LongStream.rangeClosed(start + 1, start + written).boxed().toList());
+    }
+
+    @Test
+    void hookWaitsForAnotherInstancesLease() throws Exception {
+        String cursor = PatientChangeHookDispatcher.cursorName("test");
+        await(() -> changeRepository.findCursor(cursor).orElse(-1L) == feed.head());
+        jdbcTemplate.update("UPDATE patient_change_cursors SET lease_owner = 'other-instance', lease_until = ? WHERE name = ?",
+                LocalDateTime.now().plusHours(1), cursor);
+        long before = changeRepository.findCursor(cursor).orElseThrow();
+
+        createPatient(rest, "Leased");
+        await(() -> feed.head() > before);
+        Thread.sleep(1_000);
+        assertThat(changeRepository.findCursor(cursor)).contains(before);
+
+        // the other instance went away: its lease runs out and this one takes over
+        jdbcTemplate.update("UPDATE patient_change_cursors SET lease_until = ? WHERE name = ?",
+                LocalDateTime.now().minusSeconds(1), cursor);
+        await(() -> changeRepository.findCursor(cursor).orElse(-1L) == feed.head());
+        assertThat(jdbcTemplate.queryForObject("SELECT lease_owner FROM patient_change_cursors WHERE name = ?", String.class, cursor))
+                .isNotEqualTo("other-instance");
+    }
+
+    @Test
+    void prunedOffsetsAreGone() {
+        long start = feed.head();
+        createPatient(rest, "Pruned");
+        createPatient(rest, "Pruned");
+        await(() -> feed.head() >= start + 2);
+        long head = feed.head();
+        await(() -> changeRepository.findCursor(PatientChangeHookDispatcher.cursorName("test")).orElse(-1L) == head);
+
+        assertThat(changeRepository.deleteDelivered(head, LocalDateTime.now().plusSeconds(1))).isGreaterThanOrEqualTo(2);
+
+        ResponseEntity<String> gone = rest.exchange("/changes/Patient?since=" + start, HttpMethod.GET, json(), String.class);
+        assertThat(gone.getStatusCode()).isEqualTo(HttpStatus.GONE);
+
+        JsonNode current = poll(head);
+        assertThat(current.get("events")).isEmpty();
+        assertThat(current.get("next").asLong()).isEqualTo(head);
+
+        createPatient(rest, "After");
+        await(() -> feed.head() > head);
+        assertThat(poll(head).get("events").get(0).get("offset").asLong()).isEqualTo(head + 1);
+    }
+
+    @Test
+    void longPollAnswersWhenTheNextChangeArrives() throws Exception {
+        long head = feed.head();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<JsonNode> waiting = executor.submit(() -> poll(head + "&wait=20"));
+            Thread.sleep(500);
+            assertThat(waiting).isNotDone();
+
+            createPatient(rest, "Awaited");
+
+            JsonNode page = waiting.get(TIMEOUT.toSeconds(), TimeUnit.SECONDS);
+            assertThat(page.get("events").get(0).get("offset").asLong()).isEqualTo(head + 1);
+            assertThat(page.get("next").asLong()).isGreaterThan(head);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void longPollAnswersAnEmptyPageWhenTheWaitRunsOut() {
+        long head = feed.head();
+
+        JsonNode page = poll(head + "&wait=1");
+
+        // nothing else writes in this test class while it runs
+        assertThat(page.get("events")).isEmpty();
+        assertThat(page.get("next").asLong()).isEqualTo(head);
+    }
+
+    private JsonNode poll(long since) {
+        return poll(Long.toString(since));
+    }
+
+    private JsonNode poll(String since) {
+        ResponseEntity<String> response = rest.exchange("/changes/Patient?since=" + since, HttpMethod.GET, json(), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        try {
+            return JSON.readTree(response.getBody());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static HttpEntity<Void> json() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+        return new HttpEntity<>(headers);
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met within %s", TIMEOUT).isLessThan(deadline);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static HttpServer startHook() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/hook", exchange -> {
+                JsonNode body = JSON.readTree(exchange.getRequestBody());
+                int status = HOOK_FAILURES_LEFT.getAndDecrement() > 0 ? 500 : 200;
+                if (status == 200) {
+                    body.get("events").forEach(event -> HOOK_OFFSETS.add(event.get("offset").asLong()));
+                }
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            });
+            server.start();
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.dexterv.fhirserverwithhapi.history;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Patient;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.createPatient;
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.ifNoneMatch;
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.updatePatient;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Versions moved to {@code patient_history} stay readable by vread and history, and new versions continue
+ * their numbering.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+class PatientHistoryArchiverTest {
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PatientHistoryArchiver archiver;
+
+    @Test
+    void archivedVersionsAreReadFromTheHistoryTable() {
+        long id = createPatient(rest, "One");
+        update(id, "Two");
+        update(id, "Three");
+
+        assertThat(archiver.archiveDue()).isGreaterThanOrEqualTo(2);
+
+        assertThat(jdbcTemplate.queryForList("SELECT version FROM patients WHERE resource_id = ?", Integer.class, id))
+                .containsExactly(3);
+        assertThat(jdbcTemplate.queryForList("SELECT version FROM patient_history WHERE resource_id = ? ORDER BY version", Integer.class, id))
+                .containsExactly(1, 2);
+
+        ResponseEntity<String> vread = get("/fhir/Patient/" + id + "/_history/1", null);
+        assertThat(vread.getStatusCode()).isEqualTo(HttpStatus.OK);
+        Patient first = parse(Patient.class, vread.getBody());
+        assertThat(first.getNameFirstRep().getFamily()).isEqualTo("One");
+        assertThat(first.getMeta().getVersionId()).isEqualTo("1");
+
+        assertThat(get("/fhir/Patient/" + id + "/_history/2", "W/\"2\"").getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(get("/fhir/Patient/" + id + "/_history/9", null).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+        assertThat(versionIds(get("/fhir/Patient/" + id + "/_history", null))).containsExactly("3", "2", "1");
+        assertThat(versionIds(get("/fhir/Patient/" + id + "/_history?_count=2&_offset=1", null))).containsExactly("2", "1");
+    }
+
+    @Test
+    void updatesContinueAfterArchivedVersions() {
+        long id = createPatient(rest, "One");
+        update(id, "Two");
+        archiver.archiveDue();
+
+        update(id, "Three");
+
+        assertThat(versionIds(get("/fhir/Patient/" + id + "/_history", null))).containsExactly("3", "2", "1");
+        Patient current = parse(Patient.class, get("/fhir/Patient/" + id, null).getBody());
+        assertThat(current.getMeta().getVersionId()).isEqualTo("3");
+        assertThat(current.getNameFirstRep().getFamily()).isEqualTo("Three");
+
+        archiver.archiveDue();
+        assertThat(jdbcTemplate.queryForList("SELECT version FROM patient_history WHERE resource_id = ? ORDER BY version", Integer.class, id))
+                .containsExactly(1, 2);
+    }
+
+    private void update(long id, String family) {
+        assertThat(updatePatient(rest, id, family, null).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    private ResponseEntity<String> get(String path, String ifNoneMatch) {
+        return rest.exchange(path, HttpMethod.GET, new HttpEntity<>(ifNoneMatch(ifNoneMatch)), String.class);
+    }
+
+    private static List<String> versionIds(ResponseEntity<String> response) {
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        return parse(Bundle.class, response.getBody()).getEntry().stream()
+                .map(entry -> entry.getResource().getMeta().getVersionId())
+                .toList();
+    }
+
+    private static <T extends IBaseResource> T parse(Class<T> type, String body) {
+        return FhirContext.forR5Cached().newJsonParser().parseResource(type, body);
+    }
+}
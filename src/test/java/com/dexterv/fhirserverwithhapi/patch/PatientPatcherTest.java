@@ -0,0 +1,96 @@
+package com.dexterv.fhirserverwithhapi.patch;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.PatchTypeEnum;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import org.hl7.fhir.r5.model.ContactPoint;
+import org.hl7.fhir.r5.model.DateType;
+import org.hl7.fhir.r5.model.Enumerations;
+import org.hl7.fhir.r5.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PatientPatcherTest {
+
+    private final PatientPatcher patcher = new PatientPatcher(FhirContext.forR5Cached());
+
+    @Test
+    void changedElementsHoldsOnlyWhatThePatchChanged() {
+        Patient current = patient();
+        Patient patched = patcher.apply(current, PatchTypeEnum.JSON_PATCH,
+                "[{\"op\":\"replace\",\"path\":\"/gender\",\"value\":\"male\"}]");
+
+        Patient changes = PatientPatcher.changedElements(current, patched);
+
+        assertThat(changes).isNotNull();
+        assertThat(changes.getGender()).isEqualTo(Enumerations.AdministrativeGender.MALE);
+        assertThat(changes.hasName()).isFalse();
+        assertThat(changes.hasBirthDate()).isFalse();
+        assertThat(current.getGender()).isEqualTo(Enumerations.AdministrativeGender.FEMALE);
+    }
+
+    @Test
+    void fhirPathPatchAddsAListElement() {
+        Patient current = patient();
+        Patient patched = patcher.apply(current, PatchTypeEnum.FHIR_PATCH_JSON, """
+                {"resourceType":"Parameters","parameter":[{"name":"operation","part":[
+                  {"name":"type","valueCode":"add"},
+                  {"name":"path","valueString":"Patient"},
+                  {"name":"name","valueString":"telecom"},
+                  {"name":"value","valueContactPoint":{"system":"phone","value":"555-0100"}}]}]}""");
+
+        Patient changes = PatientPatcher.changedElements(current, patched);
+
+        assertThat(changes).isNotNull();
+        assertThat(changes.getTelecom()).singleElement()
+                .extracting(ContactPoint::getValue).isEqualTo("555-0100");
+        assertThat(changes.hasGender()).isFalse();
+    }
+
+    @Test
+    void removedElementIsAChange() {
+        Patient current = patient();
+        Patient patched = patcher.apply(current, PatchTypeEnum.JSON_PATCH, "[{\"op\":\"remove\",\"path\":\"/birthDate\"}]");
+
+        assertThat(patched.hasBirthDate()).isFalse();
+        assertThat(PatientPatcher.changedElements(current, patched)).isNotNull();
+    }
+
+    @Test
+    void patchThatChangesNothingHasNoChangedElements() {
+        Patient current = patient();
+        Patient patched = patcher.apply(current, PatchTypeEnum.JSON_PATCH,
+                "[{\"op\":\"replace\",\"path\":\"/gender\",\"value\":\"female\"},{\"op\":\"test\",\"path\":\"/birthDate\",\"value\":\"1990-01-01\"}]");
+
+        assertThat(PatientPatcher.changedElements(current, patched)).isNull();
+    }
+
+    @Test
+    void idAndMetaStayWithTheServer() {
+        Patient current = patient();
+        Patient patched = patcher.apply(current, PatchTypeEnum.JSON_PATCH,
+                "[{\"op\":\"replace\",\"path\":\"/id\",\"value\":\"99\"},{\"op\":\"replace\",\"path\":\"/meta/versionId\",\"value\":\"42\"}]");
+
+        assertThat(patched.getIdElement().getIdPart()).isEqualTo("7");
+        assertThat(patched.getMeta().getVersionId()).isEqualTo("3");
+        assertThat(PatientPatcher.changedElements(current, patched)).isNull();
+    }
+
+    @Test
+    void emptyPatchIsRejected() {
+        assertThatThrownBy(() -> patcher.apply(patient(), PatchTypeEnum.JSON_PATCH, " "))
+                .isInstanceOf(InvalidRequestException.class);
+    }
+
+    private static Patient patient() {
+        Patient patient = new Patient();
+        patient.setId("Patient/7");
+        patient.getMeta().setVersionId("3");
+        patient.addName().setFamily("Doe").addGiven("Jane");
+        patient.setGender(Enumerations.AdministrativeGender.FEMALE);
+        patient.setBirthDateElement(new DateType("1990-01-01"));
+        return patient;
+    }
+}
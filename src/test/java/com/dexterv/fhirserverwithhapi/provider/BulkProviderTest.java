@@ -0,0 +1,196 @@
+package com.dexterv.fhirserverwithhapi.provider;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Enumerations;
+import org.hl7.fhir.r5.model.IntegerType;
+import org.hl7.fhir.r5.model.Integer64Type;
+import org.hl7.fhir.r5.model.OperationOutcome;
+import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.Patient;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.createPatient;
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.fhirHeaders;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Transaction and batch Bundles and NDJSON $import through the FHIR endpoint.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+class BulkProviderTest {
+
+    private static final FhirContext FHIR = FhirContext.forR5Cached();
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void transactionWritesEveryEntry() {
+        long existing = createPatient(rest, "Before");
+
+        Bundle response = parse(Bundle.class, post(bundle(Bundle.BundleType.TRANSACTION,
+                create(patient("Created")),
+                update(existing, patient("After"), "W/\"1\""),
+                read(existing)), HttpStatus.OK));
+
+        assertThat(response.getType()).isEqualTo(Bundle.BundleType.TRANSACTIONRESPONSE);
+        assertThat(response.getEntry()).extracting(entry -> entry.getResponse().getStatus())
+                .containsExactly("201 Created", "200 OK", "200 OK");
+        assertThat(response.getEntry().get(0).getResponse().getLocation()).matches("Patient/\\d+/_history/1");
+        assertThat(response.getEntry().get(1).getResponse().getEtag()).isEqualTo("W/\"2\"");
+        // reads run after the updates
+        Patient read = (Patient) response.getEntry().get(2).getResource();
+        assertThat(read.getNameFirstRep().getFamily()).isEqualTo("After");
+        assertThat(response.getEntry().get(2).getResponse().getEtag()).isEqualTo("W/\"2\"");
+    }
+
+    @Test
+    void transactionWithAnInvalidEntryWritesNothing() {
+        long existing = createPatient(rest, "Unchanged");
+        int rows = patientRows();
+
+        ResponseEntity<String> response = post(bundle(Bundle.BundleType.TRANSACTION,
+                create(patient("Valid")),
+                update(existing, patient("Changed"), null),
+                create(patient("Genderless").setGender(null))));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(parse(OperationOutcome.class, response.getBody()).getIssueFirstRep().getDiagnostics())
+                .contains("Transaction entry 2").contains("gender");
+        assertThat(patientRows()).isEqualTo(rows);
+    }
+
+    @Test
+    void transactionRollsBackCreatesWhenALaterUpdateFails() {
+        long existing = createPatient(rest, "Unchanged");
+        int rows = patientRows();
+
+        ResponseEntity<String> response = post(bundle(Bundle.BundleType.TRANSACTION,
+                create(patient("Written first")),
+                update(existing, patient("Changed"), "W/\"7\"")));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        assertThat(patientRows()).isEqualTo(rows);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT MAX(version) FROM patients WHERE resource_id = ?", Integer.class, existing)).isEqualTo(1);
+    }
+
+    @Test
+    void batchReportsAStatusPerEntry() {
+        long existing = createPatient(rest, "Batch");
+
+        Bundle response = parse(Bundle.class, post(bundle(Bundle.BundleType.BATCH,
+                create(patient("Created")),
+                create(patient("Genderless").setGender(null)),
+                update(existing, patient("Updated"), "W/\"1\""),
+                update(existing, patient("Stale"), "W/\"1\""),
+                read(existing),
+                read(Long.MAX_VALUE - 1),
+                new Bundle.BundleEntryComponent().setRequest(new Bundle.BundleEntryRequestComponent()
+                        .setMethod(Bundle.HTTPVerb.DELETE).setUrl("Patient/" + existing))), HttpStatus.OK));
+
+        assertThat(response.getType()).isEqualTo(Bundle.BundleType.BATCHRESPONSE);
+        assertThat(response.getEntry()).extracting(entry -> entry.getResponse().getStatus())
+                .containsExactly("201 Created", "400", "200 OK", "412", "200 OK", "404", "400");
+        assertThat(response.getEntry().get(1).getResponse().getOutcome()).isInstanceOf(OperationOutcome.class);
+        assertThat(response.getEntry().get(2).getResponse().getEtag()).isEqualTo("W/\"2\"");
+        assertThat(((Patient) response.getEntry().get(4).getResource()).getNameFirstRep().getFamily()).isEqualTo("Updated");
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT MAX(version) FROM patients WHERE resource_id = ?", Integer.class, existing)).isEqualTo(2);
+    }
+
+    @Test
+    void importCountsCreatedAndFailedLines() {
+        int rows = patientRows();
+        String ndjson = String.join("\n",
+                FHIR.newJsonParser().encodeResourceToString(patient("Imported")),
+                "",
+                "{not json",
+                FHIR.newJsonParser().encodeResourceToString(patient("Genderless").setGender(null)),
+                FHIR.newJsonParser().encodeResourceToString(patient("Imported")));
+        HttpHeaders headers = fhirHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/fhir+ndjson"));
+
+        ResponseEntity<String> response = rest.postForEntity("/fhir/$import", new HttpEntity<>(ndjson, headers), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        Parameters summary = parse(Parameters.class, response.getBody());
+        assertThat(((Integer64Type) summary.getParameterValue("received")).getValue()).isEqualTo(4);
+        assertThat(((Integer64Type) summary.getParameterValue("created")).getValue()).isEqualTo(2);
+        assertThat(((Integer64Type) summary.getParameterValue("failed")).getValue()).isEqualTo(2);
+        // failures name their 1-based line, counting the blank one
+        List<Parameters.ParametersParameterComponent> failures = summary.getParameters("failure");
+        assertThat(failures).extracting(failure -> ((IntegerType) failure.getPart().get(0).getValue()).getValue())
+                .containsExactly(3, 4);
+        assertThat(failures).extracting(failure -> ((IntegerType) failure.getPart().get(1).getValue()).getValue())
+                .containsOnly(400);
+        assertThat(patientRows()).isEqualTo(rows + 2);
+    }
+
+    private ResponseEntity<String> post(Bundle bundle) {
+        return rest.postForEntity("/fhir", new HttpEntity<>(FHIR.newJsonParser().encodeResourceToString(bundle), fhirHeaders()), String.class);
+    }
+
+    private String post(Bundle bundle, HttpStatus expected) {
+        ResponseEntity<String> response = post(bundle);
+        assertThat(response.getStatusCode()).isEqualTo(expected);
+        return response.getBody();
+    }
+
+    private int patientRows() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM patients", Integer.class);
+    }
+
+    private static Bundle bundle(Bundle.BundleType type, Bundle.BundleEntryComponent... entries) {
+        Bundle bundle = new Bundle().setType(type);
+        for (Bundle.BundleEntryComponent entry : entries) {
+            bundle.addEntry(entry);
+        }
+        return bundle;
+    }
+
+    private static Bundle.BundleEntryComponent create(Patient patient) {
+        return new Bundle.BundleEntryComponent().setResource(patient)
+                .setRequest(new Bundle.BundleEntryRequestComponent().setMethod(Bundle.HTTPVerb.POST).setUrl("Patient"));
+    }
+
+    private static Bundle.BundleEntryComponent update(long id, Patient patient, String ifMatch) {
+        patient.setId(String.valueOf(id));
+        return new Bundle.BundleEntryComponent().setResource(patient)
+                .setRequest(new Bundle.BundleEntryRequestComponent().setMethod(Bundle.HTTPVerb.PUT).setUrl("Patient/" + id).setIfMatch(ifMatch));
+    }
+
+    private static Bundle.BundleEntryComponent read(long id) {
+        return new Bundle.BundleEntryComponent()
+                .setRequest(new Bundle.BundleEntryRequestComponent().setMethod(Bundle.HTTPVerb.GET).setUrl("Patient/" + id));
+    }
+
+    private static Patient patient(String family) {
+        Patient patient = new Patient();
+        patient.addName().setFamily(family);
+        patient.setGender(Enumerations.AdministrativeGender.FEMALE);
+        return patient;
+    }
+
+    private static <T extends IBaseResource> T parse(Class<T> type, String body) {
+        return FHIR.newJsonParser().parseResource(type, body);
+    }
+}
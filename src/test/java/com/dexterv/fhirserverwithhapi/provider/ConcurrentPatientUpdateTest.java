@@ -0,0 +1,114 @@
+package com.dexterv.fhirserverwithhapi.provider;
+
+import com.dexterv.fhirserverwithhapi.locking.ResourceLocks;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.createPatient;
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.fhirHeaders;
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.updatePatient;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Concurrent PUTs to one Patient through the FHIR endpoint: the stored history must stay gapless with a single
+ * current version, If-Match must be checked against the version that is current under the lock, and a writer
+ * that cannot get the lock must get 409 Conflict.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+class ConcurrentPatientUpdateTest {
+
+    private static final int THREADS = 8;
+    private static final int UPDATES = 40;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ResourceLocks resourceLocks;
+
+    @Test
+    void concurrentUpdatesKeepVersionsGapless() throws Exception {
+        long id = createPatient(rest, "Original");
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<HttpStatus>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < UPDATES; i++) {
+                int update = i;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    // every third writer only updates the version it read
+                    String ifMatch = update % 3 == 0 ? currentETag(id) : null;
+                    return HttpStatus.valueOf(updatePatient(rest, id, "Family" + update, ifMatch).getStatusCode().value());
+                }));
+            }
+            start.countDown();
+        } finally {
+            executor.shutdown();
+        }
+
+        int succeeded = 0;
+        for (Future<HttpStatus> result : results) {
+            HttpStatus status = result.get();
+            assertThat(status).isIn(HttpStatus.OK, HttpStatus.PRECONDITION_FAILED);
+            if (status == HttpStatus.OK) {
+                succeeded++;
+            }
+        }
+        // writers without If-Match are serialized by the lock and never lose
+        assertThat(succeeded).isGreaterThanOrEqualTo(UPDATES - (UPDATES + 2) / 3);
+
+        List<Integer> versions = jdbcTemplate.queryForList(
+                "SELECT version FROM patients WHERE resource_id = ? ORDER BY version", Integer.class, id);
+        assertThat(versions).containsExactlyElementsOf(IntStream.rangeClosed(1, succeeded + 1).boxed().toList());
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM patients WHERE resource_id = ? AND is_current", Integer.class, id)).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT version FROM patients WHERE resource_id = ? AND is_current", Integer.class, id)).isEqualTo(succeeded + 1);
+    }
+
+    @Test
+    void staleIfMatchIsRejected() {
+        long id = createPatient(rest, "Original");
+        assertThat(updatePatient(rest, id, "Second", "W/\"1\"").getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        assertThat(updatePatient(rest, id, "Third", "W/\"1\"").getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT MAX(version) FROM patients WHERE resource_id = ?", Integer.class, id)).isEqualTo(2);
+    }
+
+    @Test
+    void lockTimeoutIsAConflict() {
+        long id = createPatient(rest, "Original");
+        // held by the test thread, the request waits for it on a server thread until fhir.update.lock-timeout
+        try (ResourceLocks.Handle ignored = resourceLocks.lock(id)) {
+            assertThat(updatePatient(rest, id, "Blocked", null).getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+        }
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT MAX(version) FROM patients WHERE resource_id = ?", Integer.class, id)).isEqualTo(1);
+    }
+
+    private String currentETag(long id) {
+        return rest.exchange("/fhir/Patient/" + id, HttpMethod.GET, new HttpEntity<>(fhirHeaders()), String.class)
+                .getHeaders().getETag();
+    }
+}
@@ -0,0 +1,91 @@
+package com.dexterv.fhirserverwithhapi.provider;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.ZonedDateTime;
+
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.createPatient;
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.fhirHeaders;
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.ifNoneMatch;
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.updatePatient;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Conditional reads and vreads with If-None-Match and If-Modified-Since.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+class PatientConditionalReadTest {
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Test
+    void matchingETagIsNotModified() {
+        long id = createPatient(rest, "Cached");
+
+        ResponseEntity<String> response = get("/fhir/Patient/" + id, ifNoneMatch("W/\"1\""));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(response.getBody()).isNull();
+        assertThat(get("/fhir/Patient/" + id, ifNoneMatch("\"3\", W/\"1\"")).getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(get("/fhir/Patient/" + id, ifNoneMatch("*")).getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+    }
+
+    @Test
+    void staleETagReadsTheCurrentVersion() {
+        long id = createPatient(rest, "Before");
+        assertThat(updatePatient(rest, id, "After", "W/\"1\"").getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        ResponseEntity<String> response = get("/fhir/Patient/" + id, ifNoneMatch("W/\"1\""));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getETag()).isEqualTo("W/\"2\"");
+        assertThat(response.getBody()).contains("After");
+        assertThat(get("/fhir/Patient/" + id, ifNoneMatch("W/\"2\"")).getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+    }
+
+    @Test
+    void modifiedSinceComparesLastUpdated() {
+        long id = createPatient(rest, "Dated");
+
+        HttpHeaders later = fhirHeaders();
+        later.setIfModifiedSince(ZonedDateTime.now().plusDays(1));
+        assertThat(get("/fhir/Patient/" + id, later).getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+
+        HttpHeaders earlier = fhirHeaders();
+        earlier.setIfModifiedSince(ZonedDateTime.now().minusDays(1));
+        assertThat(get("/fhir/Patient/" + id, earlier).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void vreadOfAStoredVersionIsNotModified() {
+        long id = createPatient(rest, "Versioned");
+        assertThat(updatePatient(rest, id, "Changed", "W/\"1\"").getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        assertThat(get("/fhir/Patient/" + id + "/_history/1", ifNoneMatch("W/\"1\"")).getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(get("/fhir/Patient/" + id + "/_history/1", ifNoneMatch("W/\"2\"")).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void vreadOfAMissingVersionIsNotFound() {
+        long id = createPatient(rest, "Missing");
+
+        assertThat(get("/fhir/Patient/" + id + "/_history/9", ifNoneMatch("W/\"9\"")).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(get("/fhir/Patient/" + id + "/_history/9", ifNoneMatch("*")).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(get("/fhir/Patient/" + (Long.MAX_VALUE - 1), ifNoneMatch("*")).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    private ResponseEntity<String> get(String path, HttpHeaders headers) {
+        return rest.exchange(path, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+    }
+}
@@ -0,0 +1,82 @@
+package com.dexterv.fhirserverwithhapi.provider;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.createPatient;
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.fhirHeaders;
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.ifMatch;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * PATCH through the FHIR endpoint: only a patch that changes something writes a new version.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+class PatientPatchTest {
+
+    private static final MediaType JSON_PATCH = MediaType.parseMediaType("application/json-patch+json");
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void patchThatChangesNothingKeepsTheVersion() {
+        long id = createPatient(rest, "Doe");
+
+        ResponseEntity<String> response = patch(id, "[{\"op\":\"replace\",\"path\":\"/gender\",\"value\":\"female\"}]", null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).contains("\"versionId\":\"1\"");
+        assertThat(versions(id)).containsExactly(1);
+    }
+
+    @Test
+    void patchWritesTheNextVersionWithEveryChange() {
+        long id = createPatient(rest, "Doe");
+
+        ResponseEntity<String> response = patch(id, "[{\"op\":\"replace\",\"path\":\"/gender\",\"value\":\"male\"},"
+                + "{\"op\":\"add\",\"path\":\"/telecom\",\"value\":[{\"system\":\"phone\",\"value\":\"555-0100\"}]}]", "W/\"1\"");
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(versions(id)).containsExactly(1, 2);
+        String current = rest.exchange("/fhir/Patient/" + id, HttpMethod.GET, new HttpEntity<>(fhirHeaders()), String.class).getBody();
+        assertThat(current).contains("\"gender\":\"male\"").contains("555-0100").contains("\"family\":\"Doe\"");
+    }
+
+    @Test
+    void patchWithStaleIfMatchIsRejected() {
+        long id = createPatient(rest, "Doe");
+        patch(id, "[{\"op\":\"replace\",\"path\":\"/gender\",\"value\":\"male\"}]", null);
+
+        ResponseEntity<String> response = patch(id, "[{\"op\":\"replace\",\"path\":\"/gender\",\"value\":\"other\"}]", "W/\"1\"");
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        assertThat(versions(id)).containsExactly(1, 2);
+    }
+
+    private ResponseEntity<String> patch(long id, String body, String ifMatch) {
+        HttpHeaders headers = ifMatch(ifMatch);
+        headers.setContentType(JSON_PATCH);
+        return rest.exchange("/fhir/Patient/" + id, HttpMethod.PATCH, new HttpEntity<>(body, headers), String.class);
+    }
+
+    private List<Integer> versions(long id) {
+        return jdbcTemplate.queryForList("SELECT version FROM patients WHERE resource_id = ? ORDER BY version", Integer.class, id);
+    }
+}
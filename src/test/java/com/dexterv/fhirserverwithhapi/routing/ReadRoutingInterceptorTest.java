@@ -0,0 +1,113 @@
+package com.dexterv.fhirserverwithhapi.routing;
+
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.dexterv.fhirserverwithhapi.routing.ReplicaRouterTest.database;
+import static com.dexterv.fhirserverwithhapi.routing.ReplicaRouterTest.properties;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * FHIR operations that {@link ReadRoutingInterceptor} may send to a replica, and the writes it records.
+ */
+class ReadRoutingInterceptorTest {
+
+    private final AtomicReference<Long> primaryPosition = new AtomicReference<>(1_000L);
+    private final AtomicReference<Long> replayed = new AtomicReference<>(1_000L);
+
+    private ReplicaRouter router;
+    private ReadRoutingInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        HikariDataSource replica = database("replica-1", replayed);
+        router = new ReplicaRouter(database("primary", primaryPosition), List.of(replica), properties(Duration.ofMinutes(1)));
+        verify(replica, timeout(5_000)).getConnection();
+        router.probe();
+        interceptor = new ReadRoutingInterceptor(router);
+    }
+
+    @AfterEach
+    void close() {
+        router.routeToPrimary();
+        router.close();
+    }
+
+    @Test
+    void readsAndSearchesGoToTheReplica() {
+        for (RestOperationTypeEnum read : List.of(RestOperationTypeEnum.READ, RestOperationTypeEnum.VREAD,
+                RestOperationTypeEnum.HISTORY_INSTANCE, RestOperationTypeEnum.SEARCH_TYPE, RestOperationTypeEnum.GET_PAGE)) {
+            route(read, RequestTypeEnum.GET, "10.0.0.1");
+            assertThat(router.current()).as(read.name()).isNotNull();
+            interceptor.processingCompleted();
+            assertThat(router.current()).isNull();
+        }
+    }
+
+    @Test
+    void writesAndTransactionsStayOnThePrimary() {
+        for (RestOperationTypeEnum write : List.of(RestOperationTypeEnum.CREATE, RestOperationTypeEnum.UPDATE,
+                RestOperationTypeEnum.PATCH, RestOperationTypeEnum.TRANSACTION, RestOperationTypeEnum.EXTENDED_OPERATION_SERVER)) {
+            // a route left behind on a pooled thread must not leak into the write
+            router.routeRead("10.0.0.1");
+            route(write, RequestTypeEnum.POST, "10.0.0.1");
+            assertThat(router.current()).as(write.name()).isNull();
+        }
+    }
+
+    @Test
+    void writerReadsFromThePrimaryUntilTheReplicaCaughtUp() {
+        primaryPosition.set(1_050L);
+        ServletRequestDetails transaction = route(RestOperationTypeEnum.TRANSACTION, RequestTypeEnum.POST, "10.0.0.1");
+        interceptor.outgoingResponse(transaction, transaction);
+        interceptor.processingCompleted();
+        router.probe();
+
+        route(RestOperationTypeEnum.READ, RequestTypeEnum.GET, "10.0.0.1");
+        assertThat(router.current()).isNull();
+        route(RestOperationTypeEnum.READ, RequestTypeEnum.GET, "10.0.0.2");
+        assertThat(router.current()).isNotNull();
+
+        replayed.set(1_050L);
+        router.probe();
+        route(RestOperationTypeEnum.READ, RequestTypeEnum.GET, "10.0.0.1");
+        assertThat(router.current()).isNotNull();
+    }
+
+    @Test
+    void readsAreNotRecordedAsWrites() {
+        primaryPosition.set(1_050L);
+        ServletRequestDetails search = route(RestOperationTypeEnum.SEARCH_TYPE, RequestTypeEnum.POST, "10.0.0.1");
+        interceptor.outgoingResponse(search, search);
+        interceptor.processingCompleted();
+
+        route(RestOperationTypeEnum.READ, RequestTypeEnum.GET, "10.0.0.1");
+        assertThat(router.current()).isNotNull();
+    }
+
+    private ServletRequestDetails route(RestOperationTypeEnum operation, RequestTypeEnum method, String client) {
+        MockHttpServletRequest servletRequest = new MockHttpServletRequest(method.name(), "/fhir");
+        servletRequest.setRemoteAddr(client);
+        ServletRequestDetails requestDetails = mock(ServletRequestDetails.class);
+        when(requestDetails.getRestOperationType()).thenReturn(operation);
+        when(requestDetails.getRequestType()).thenReturn(method);
+        when(requestDetails.getServletRequest()).thenReturn(servletRequest);
+        interceptor.route(requestDetails, requestDetails);
+        return requestDetails;
+    }
+}
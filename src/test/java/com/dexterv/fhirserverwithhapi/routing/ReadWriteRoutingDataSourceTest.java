@@ -0,0 +1,104 @@
+package com.dexterv.fhirserverwithhapi.routing;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.dexterv.fhirserverwithhapi.routing.ReplicaRouterTest.database;
+import static com.dexterv.fhirserverwithhapi.routing.ReplicaRouterTest.properties;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Which pool {@link ReadWriteRoutingDataSource} takes connections from, with mocked pools.
+ */
+class ReadWriteRoutingDataSourceTest {
+
+    private final Connection primaryConnection = mock(Connection.class);
+    private final Connection replicaConnection = mock(Connection.class);
+
+    private HikariDataSource primary;
+    private HikariDataSource replica;
+    private ReplicaRouter router;
+    private ReadWriteRoutingDataSource dataSource;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        primary = database("primary", new AtomicReference<>(1_000L));
+        replica = database("replica-1", new AtomicReference<>(1_000L));
+        router = new ReplicaRouter(primary, List.of(replica), properties(Duration.ofMinutes(1)));
+        verify(replica, timeout(5_000)).getConnection();
+        router.probe();
+        // stubbed after the health checks, which use the pools' own connections
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replica.getConnection()).thenReturn(replicaConnection);
+        dataSource = new ReadWriteRoutingDataSource(router);
+    }
+
+    @AfterEach
+    void close() {
+        router.routeToPrimary();
+        router.close();
+    }
+
+    @Test
+    void connectionsOutsideARoutedReadComeFromThePrimary() throws SQLException {
+        assertThat(dataSource.getConnection()).isSameAs(primaryConnection);
+
+        // writes and transactions are routed to the primary explicitly
+        router.routeRead("client");
+        router.routeToPrimary();
+        assertThat(dataSource.getConnection()).isSameAs(primaryConnection);
+    }
+
+    @Test
+    void routedReadsTakeEveryConnectionFromTheReplica() throws SQLException {
+        router.routeRead("client");
+
+        assertThat(dataSource.getConnection()).isSameAs(replicaConnection);
+        assertThat(dataSource.getConnection()).isSameAs(replicaConnection);
+    }
+
+    @Test
+    void replicaThatRefusesAConnectionFallsBackToThePrimary() throws SQLException {
+        when(replica.getConnection()).thenThrow(new SQLException("Connection is not available, request timed out"));
+        router.routeRead("client");
+
+        assertThat(dataSource.getConnection()).isSameAs(primaryConnection);
+        assertThat(ReplicaRouter.isReadingFromReplica()).isFalse();
+
+        // later requests skip it without another connection timeout
+        router.routeRead("client");
+        assertThat(router.current()).isNull();
+    }
+
+    @Test
+    void explicitCredentialsGoToThePrimary() throws SQLException {
+        when(primary.getConnection("user", "secret")).thenThrow(new SQLFeatureNotSupportedException());
+        router.routeRead("client");
+
+        assertThatThrownBy(() -> dataSource.getConnection("user", "secret")).isInstanceOf(SQLFeatureNotSupportedException.class);
+    }
+
+    @Test
+    void unwrapsToThePrimaryPool() throws SQLException {
+        when(primary.unwrap(HikariDataSource.class)).thenReturn(primary);
+        when(primary.isWrapperFor(HikariDataSource.class)).thenReturn(true);
+
+        assertThat(dataSource.unwrap(ReadWriteRoutingDataSource.class)).isSameAs(dataSource);
+        assertThat(dataSource.isWrapperFor(HikariDataSource.class)).isTrue();
+        assertThat(dataSource.unwrap(HikariDataSource.class)).isSameAs(primary);
+    }
+}
@@ -0,0 +1,226 @@
+package com.dexterv.fhirserverwithhapi.routing;
+
+import com.dexterv.fhirserverwithhapi.config.DataSourceRoutingProperties;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Routing decisions of {@link ReplicaRouter} against mocked pools whose WAL positions the tests move.
+ */
+class ReplicaRouterTest {
+
+    private final AtomicReference<Long> primaryPosition = new AtomicReference<>(1_000L);
+    private final List<ReplicaRouter> routers = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        // the route is pinned to the test thread
+        routers.forEach(ReplicaRouter::routeToPrimary);
+        routers.forEach(ReplicaRouter::close);
+    }
+
+    @Test
+    void readsGoToAReplicaThatIsUpToDate() throws SQLException {
+        ReplicaRouter router = router(Duration.ofMinutes(1), new AtomicReference<>(1_000L));
+
+        router.routeRead("client");
+
+        assertThat(router.current()).isNotNull();
+        assertThat(router.current().name()).isEqualTo("replica-1");
+        assertThat(ReplicaRouter.isReadingFromReplica()).isTrue();
+
+        router.routeToPrimary();
+        assertThat(router.current()).isNull();
+        assertThat(ReplicaRouter.isReadingFromReplica()).isFalse();
+    }
+
+    @Test
+    void replicasAreTakenInTurn() throws SQLException {
+        ReplicaRouter router = router(Duration.ofMinutes(1), new AtomicReference<>(1_000L), new AtomicReference<>(1_000L));
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            router.routeRead("client");
+            names.add(router.current().name());
+        }
+
+        assertThat(names).containsExactly("replica-1", "replica-2", "replica-1", "replica-2");
+    }
+
+    @Test
+    void replicaTooFarBehindIsSkipped() throws SQLException {
+        AtomicReference<Long> replayed = new AtomicReference<>(1_000L);
+        ReplicaRouter router = router(Duration.ofMinutes(1), replayed);
+
+        primaryPosition.set(1_000 + 101L);
+        router.probe();
+        router.routeRead("client");
+        assertThat(router.current()).isNull();
+
+        replayed.set(1_001L);
+        router.probe();
+        router.routeRead("client");
+        assertThat(router.current()).isNotNull();
+    }
+
+    @Test
+    void serverThatIsNotInRecoveryIsNoReplica() throws SQLException {
+        ReplicaRouter router = router(Duration.ofMinutes(1), new AtomicReference<>(null));
+
+        router.routeRead("client");
+
+        assertThat(router.current()).isNull();
+    }
+
+    @Test
+    void clientReadsItsWritesFromThePrimaryUntilAReplicaReplayedThem() throws SQLException {
+        AtomicReference<Long> replayed = new AtomicReference<>(1_000L);
+        ReplicaRouter router = router(Duration.ofMinutes(1), replayed);
+
+        primaryPosition.set(1_050L);
+        router.recordWrite("writer");
+        router.probe();
+
+        router.routeRead("writer");
+        assertThat(router.current()).as("replica has not replayed the write yet").isNull();
+        router.routeRead("other");
+        assertThat(router.current()).as("other clients may read slightly older data").isNotNull();
+
+        replayed.set(1_050L);
+        router.probe();
+        router.routeRead("writer");
+        assertThat(router.current()).isNotNull();
+    }
+
+    @Test
+    void readYourWritesEndsWithTheWindow() throws SQLException {
+        AtomicReference<Long> replayed = new AtomicReference<>(1_000L);
+        ReplicaRouter router = router(Duration.ZERO, replayed);
+
+        primaryPosition.set(1_050L);
+        router.recordWrite("writer");
+        router.probe();
+
+        router.routeRead("writer");
+        assertThat(router.current()).isNotNull();
+    }
+
+    @Test
+    void unknownPrimaryPositionKeepsTheWriterOnThePrimary() throws SQLException {
+        ReplicaRouter router = router(Duration.ofMinutes(1), new AtomicReference<>(1_000L));
+
+        primaryPosition.set(-1L);
+        router.recordWrite("writer");
+
+        router.routeRead("writer");
+        assertThat(router.current()).isNull();
+        router.routeRead("other");
+        assertThat(router.current()).isNotNull();
+    }
+
+    @Test
+    void replicaThatRefusesAConnectionIsSkippedUntilTheNextProbe() throws SQLException {
+        ReplicaRouter router = router(Duration.ofMinutes(1), new AtomicReference<>(1_000L));
+        router.routeRead("client");
+        ReplicaRouter.Replica replica = router.current();
+
+        router.connectionFailed(replica, new SQLException("refused"));
+
+        assertThat(router.current()).isNull();
+        router.routeRead("client");
+        assertThat(router.current()).isNull();
+
+        router.probe();
+        router.routeRead("client");
+        assertThat(router.current()).isSameAs(replica);
+    }
+
+    @Test
+    void withoutReplicasRoutingIsDisabled() {
+        ReplicaRouter router = new ReplicaRouter(database("primary", primaryPosition), List.of(), properties(Duration.ofMinutes(1)));
+        routers.add(router);
+
+        assertThat(router.isEnabled()).isFalse();
+    }
+
+    /**
+     * A router over the mocked primary and one replica per position, with the first health check done.
+     */
+    @SafeVarargs
+    private ReplicaRouter router(Duration readYourWritesWindow, AtomicReference<Long>... replayed) throws SQLException {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (AtomicReference<Long> position : replayed) {
+            replicas.add(database("replica-" + (replicas.size() + 1), position));
+        }
+        ReplicaRouter router = new ReplicaRouter(database("primary", primaryPosition), replicas, properties(readYourWritesWindow));
+        routers.add(router);
+        // the scheduled first probe sees the same positions; wait for it so it cannot overwrite a later one
+        for (HikariDataSource replica : replicas) {
+            verify(replica, timeout(5_000)).getConnection();
+        }
+        router.probe();
+        return router;
+    }
+
+    /**
+     * A mocked pool whose WAL position query answers {@code position}; a negative position makes the query fail.
+     */
+    static HikariDataSource database(String name, AtomicReference<Long> position) {
+        try {
+            HikariDataSource dataSource = mock(HikariDataSource.class);
+            Connection connection = mock(Connection.class);
+            Statement statement = mock(Statement.class);
+            when(dataSource.getPoolName()).thenReturn(name);
+            when(dataSource.getConnection()).thenReturn(connection);
+            when(connection.createStatement()).thenReturn(statement);
+            when(statement.executeQuery(anyString())).thenAnswer(invocation -> {
+                Long current = position.get();
+                if (current != null && current < 0) {
+                    throw new SQLException("database unavailable");
+                }
+                return position(current);
+            });
+            return dataSource;
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // null is what pg_last_wal_replay_lsn() answers on a server that is not in recovery
+    private static ResultSet position(Long position) throws SQLException {
+        ResultSet resultSet = mock(ResultSet.class);
+        ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(1);
+        when(resultSet.getMetaData()).thenReturn(metaData);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getLong(1)).thenReturn(position == null ? 0 : position);
+        when(resultSet.wasNull()).thenReturn(position == null);
+        return resultSet;
+    }
+
+    static DataSourceRoutingProperties properties(Duration readYourWritesWindow) {
+        DataSourceRoutingProperties properties = new DataSourceRoutingProperties();
+        properties.setHealthCheckInterval(Duration.ofHours(1));
+        properties.setMaxReplicaLagBytes(100);
+        properties.setReadYourWritesWindow(readYourWritesWindow);
+        return properties;
+    }
+}
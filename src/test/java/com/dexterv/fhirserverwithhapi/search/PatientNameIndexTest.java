@@ -0,0 +1,186 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import com.dexterv.fhirserverwithhapi.config.NameIndexProperties;
+import com.dexterv.fhirserverwithhapi.repositories.PatientNameTerm;
+import com.dexterv.fhirserverwithhapi.repositories.PatientNameTermRepository;
+import org.hl7.fhir.r5.model.Patient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class PatientNameIndexTest {
+
+    private final List<PatientNameIndex> indexes = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        indexes.forEach(PatientNameIndex::shutdown);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void startsWithAndContainsPerParameter() throws InterruptedException {
+        PatientNameIndex index = built(List.of(
+                term(1, Patient.SP_FAMILY, "Smith"), term(1, Patient.SP_GIVEN, "Anna"),
+                term(2, Patient.SP_FAMILY, "Smithers"), term(2, Patient.SP_GIVEN, "Bob"),
+                term(3, Patient.SP_FAMILY, "Jones"), term(3, Patient.SP_GIVEN, "Smitty")));
+
+        assertThat(index.match(criteria().family(new StringParam("smi")).build())).containsExactly(1, 2);
+        assertThat(index.match(criteria().given(new StringParam("smi")).build())).containsExactly(3);
+        assertThat(index.match(criteria().family(new StringParam("ith").setContains(true)).build())).containsExactly(1, 2);
+        assertThat(index.match(criteria().family(new StringParam("ers").setContains(true)).build())).containsExactly(2);
+        assertThat(index.match(criteria().family(new StringParam("smi")).given(new StringParam("an")).build())).containsExactly(1);
+        assertThat(index.match(criteria().family(new StringParam("Brown")).build())).isEmpty();
+    }
+
+    @Test
+    void phoneticMatchesFamilyAndGivenNames() throws InterruptedException {
+        PatientNameIndex index = built(List.of(
+                term(1, Patient.SP_FAMILY, "Smith"),
+                term(2, Patient.SP_GIVEN, "Smyth"),
+                term(3, Patient.SP_FAMILY, "Jones")));
+
+        assertThat(index.match(criteria().phonetic(new StringParam("Schmidt")).build())).containsExactly(1, 2);
+        assertThat(index.match(criteria().phonetic(new StringParam("Jonez")).build())).containsExactly(3);
+    }
+
+    @Test
+    void exactAndNonNameParametersAreLeftToTheDatabase() throws InterruptedException {
+        PatientNameIndex index = built(List.of(term(1, Patient.SP_FAMILY, "Smith")));
+
+        assertThat(index.match(criteria().family(new StringParam("Smith", true)).build())).isNull();
+        assertThat(index.match(criteria().build())).isNull();
+    }
+
+    @Test
+    void committedWritesReplaceTheOldNames() throws InterruptedException {
+        PatientNameIndex index = built(List.of(term(1, Patient.SP_FAMILY, "Smith")));
+
+        index.replaceAfterCommit(1, List.of(term(1, Patient.SP_FAMILY, "Smith")), List.of(term(1, Patient.SP_FAMILY, "Jones")));
+        index.replaceAfterCommit(2, List.of(), List.of(term(2, Patient.SP_FAMILY, "Smithers")));
+
+        assertThat(index.match(criteria().family(new StringParam("smi")).build())).containsExactly(2);
+        assertThat(index.match(criteria().family(new StringParam("jon")).build())).containsExactly(1);
+    }
+
+    @Test
+    void writeIsOnlyVisibleOnceItsTransactionCommits() throws InterruptedException {
+        PatientNameIndex index = built(List.of());
+        TransactionSynchronizationManager.initSynchronization();
+
+        index.replaceAfterCommit(1, List.of(), List.of(term(1, Patient.SP_FAMILY, "Smith")));
+        assertThat(index.match(criteria().family(new StringParam("smi")).build())).isEmpty();
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+        assertThat(index.match(criteria().family(new StringParam("smi")).build())).containsExactly(1);
+    }
+
+    @Test
+    void writesDuringTheBuildAreReplayedWhenItIsDone() throws InterruptedException {
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PatientNameIndex index = index(true, consumer -> {
+            building.countDown();
+            await(release);
+            consumer.accept(term(1, Patient.SP_FAMILY, "Smith"));
+            consumer.accept(term(2, Patient.SP_FAMILY, "Smithers"));
+        });
+        index.onStartup();
+        assertThat(building.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // committed after the build read its rows: 2 was renamed, 3 is new
+        index.replaceAfterCommit(2, List.of(term(2, Patient.SP_FAMILY, "Smithers")), List.of(term(2, Patient.SP_FAMILY, "Jones")));
+        index.replaceAfterCommit(3, List.of(), List.of(term(3, Patient.SP_FAMILY, "Smitty")));
+        // until it is built, name searches are left to the database and phonetic search is unavailable
+        assertThat(index.match(criteria().family(new StringParam("smi")).build())).isNull();
+        assertThatThrownBy(() -> index.match(criteria().phonetic(new StringParam("Smith")).build()))
+                .isInstanceOfSatisfying(BaseServerResponseException.class, e -> assertThat(e.getStatusCode()).isEqualTo(503));
+
+        release.countDown();
+        awaitReady(index);
+        assertThat(index.match(criteria().family(new StringParam("smi")).build())).containsExactly(1, 3);
+        assertThat(index.match(criteria().family(new StringParam("jon")).build())).containsExactly(2);
+    }
+
+    @Test
+    void phoneticSearchIsABadRequestWhenTheIndexIsDisabled() {
+        PatientNameIndex index = index(false, consumer -> consumer.accept(term(1, Patient.SP_FAMILY, "Smith")));
+        index.onStartup();
+
+        assertThatThrownBy(() -> index.match(criteria().phonetic(new StringParam("Smith")).build()))
+                .isInstanceOfSatisfying(InvalidRequestException.class, e -> assertThat(e.getStatusCode()).isEqualTo(400));
+        assertThat(index.match(criteria().family(new StringParam("smi")).build())).isNull();
+        assertThat(index.isReady()).isFalse();
+    }
+
+    private PatientNameIndex built(List<PatientNameTerm> stored) throws InterruptedException {
+        PatientNameIndex index = index(true, consumer -> stored.forEach(consumer));
+        index.onStartup();
+        awaitReady(index);
+        return index;
+    }
+
+    /**
+     * An index whose startup build reads its rows from {@code stored}.
+     */
+    private PatientNameIndex index(boolean enabled, Consumer<Consumer<PatientNameTerm>> stored) {
+        PatientNameTermRepository repository = mock(PatientNameTermRepository.class);
+        doAnswer(invocation -> {
+            Consumer<PatientNameTerm> consumer = invocation.getArgument(1);
+            stored.accept(consumer);
+            return null;
+        }).when(repository).streamAll(anyInt(), any());
+        NameIndexProperties properties = new NameIndexProperties();
+        properties.setEnabled(enabled);
+        PatientNameIndex index = new PatientNameIndex(repository, new TransactionTemplate(mock(PlatformTransactionManager.class)), properties);
+        indexes.add(index);
+        return index;
+    }
+
+    private static void awaitReady(PatientNameIndex index) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!index.isReady()) {
+            assertThat(System.nanoTime()).as("index not built in time").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static PatientNameTerm term(long resourceId, String param, String value) {
+        return new PatientNameTerm(resourceId, param, PatientSearchParameterExtractor.normalize(value));
+    }
+
+    private static PatientSearchCriteria.PatientSearchCriteriaBuilder criteria() {
+        return PatientSearchCriteria.builder();
+    }
+}
@@ -0,0 +1,109 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import ca.uhn.fhir.rest.param.StringParam;
+import com.dexterv.fhirserverwithhapi.cache.PatientResourceCache;
+import com.dexterv.fhirserverwithhapi.config.NameIndexProperties;
+import com.dexterv.fhirserverwithhapi.domain.entities.PatientEntity;
+import com.dexterv.fhirserverwithhapi.mappers.PatientMapper;
+import com.dexterv.fhirserverwithhapi.metrics.FhirMetrics;
+import com.dexterv.fhirserverwithhapi.repositories.PatientRepository;
+import com.dexterv.fhirserverwithhapi.repositories.PatientSearchRepository;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r5.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Paging over name index matches: how many matches one search keeps between its pages.
+ */
+class PatientSearchBundleProviderTest {
+
+    private static final long[] MATCHES = {11, 12, 13, 14, 15, 16, 17};
+
+    private final PatientNameIndex nameIndex = mock(PatientNameIndex.class);
+    private final PatientSearchRepository searchRepository = mock(PatientSearchRepository.class);
+    private final PatientRepository patientRepository = mock(PatientRepository.class);
+    private final PatientResourceCache patientCache = mock(PatientResourceCache.class);
+    private final PatientSearchCriteria criteria = PatientSearchCriteria.builder().family(new StringParam("smi")).build();
+
+    PatientSearchBundleProviderTest() {
+        when(nameIndex.match(criteria)).thenAnswer(invocation -> MATCHES.clone());
+        when(patientRepository.findByResourceIdInAndCurrentTrueOrderByResourceId(anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            // mutable like the lists Spring Data returns, the provider sorts them
+            return ids.stream().map(id -> PatientEntity.builder().resourceId(id).version(1).build())
+                    .collect(Collectors.toCollection(ArrayList::new));
+        });
+        when(patientCache.get(any(PatientEntity.class), any())).thenAnswer(invocation -> {
+            PatientEntity entity = invocation.getArgument(0);
+            return new Patient().setId("Patient/" + entity.getResourceId());
+        });
+    }
+
+    @Test
+    void smallMatchIsKeptBetweenPages() {
+        PatientSearchBundleProvider provider = provider(10);
+
+        assertThat(provider.size()).isEqualTo(7);
+        assertThat(pages(provider)).containsExactly(List.of(11L, 12L, 13L), List.of(14L, 15L, 16L), List.of(17L));
+
+        verify(nameIndex, times(1)).match(criteria);
+        verifyNoInteractions(searchRepository);
+    }
+
+    @Test
+    void largerMatchIsMatchedAgainForEveryPage() {
+        PatientSearchBundleProvider provider = provider(2);
+
+        assertThat(provider.size()).isEqualTo(7);
+        assertThat(pages(provider)).containsExactly(List.of(11L, 12L, 13L), List.of(14L, 15L, 16L), List.of(17L));
+
+        // once for the total and once per page request, including the empty one after the last page
+        verify(nameIndex, times(5)).match(criteria);
+        verifyNoInteractions(searchRepository);
+    }
+
+    @Test
+    void databaseMatchesNamesWhenTheIndexDeclines() {
+        when(nameIndex.match(criteria)).thenReturn(null);
+        when(searchRepository.count(criteria)).thenReturn(0);
+        PatientSearchBundleProvider provider = provider(10);
+
+        assertThat(provider.size()).isZero();
+        assertThat(provider.getResources(0, 3)).isEmpty();
+
+        // the index is not asked again once it declined
+        verify(nameIndex, times(1)).match(criteria);
+    }
+
+    private PatientSearchBundleProvider provider(int maxRetainedMatches) {
+        NameIndexProperties properties = new NameIndexProperties();
+        properties.setMaxRetainedMatches(maxRetainedMatches);
+        return new PatientSearchBundleProvider(criteria, nameIndex, properties, searchRepository, patientRepository,
+                mock(PatientMapper.class), patientCache, mock(FhirMetrics.class));
+    }
+
+    private static List<List<Long>> pages(PatientSearchBundleProvider provider) {
+        List<List<Long>> pages = new ArrayList<>();
+        for (int from = 0; ; from += 3) {
+            List<IBaseResource> page = provider.getResources(from, from + 3);
+            if (page.isEmpty()) {
+                return pages;
+            }
+            pages.add(page.stream().map(resource -> resource.getIdElement().getIdPartAsLong()).toList());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.QualifiedParamList;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import org.hl7.fhir.r5.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PatientSearchCriteriaTest {
+
+    @Test
+    void spellingsThatMatchTheSameRowsShareAKey() {
+        assertThat(family(new StringParam("Doe")).cacheKey())
+                .isEqualTo(family(new StringParam("DOE")).cacheKey())
+                .isEqualTo(family(new StringParam("Döe")).cacheKey());
+
+        assertThat(PatientSearchCriteria.builder().gender(new TokenParam("FEMALE")).build().cacheKey())
+                .isEqualTo(PatientSearchCriteria.builder().gender(new TokenParam("female")).build().cacheKey());
+
+        assertThat(birthdate("ge1972").cacheKey()).isEqualTo(birthdate("ge1972-01-01").cacheKey());
+    }
+
+    @Test
+    void differentSearchesGetDifferentKeys() {
+        String startsWith = family(new StringParam("Doe")).cacheKey();
+        assertThat(family(new StringParam("Doe", true)).cacheKey()).isNotEqualTo(startsWith);
+        assertThat(family(new StringParam("Doe").setContains(true)).cacheKey()).isNotEqualTo(startsWith);
+        assertThat(PatientSearchCriteria.builder().given(new StringParam("Doe")).build().cacheKey()).isNotEqualTo(startsWith);
+
+        // exact matches compare case
+        assertThat(family(new StringParam("Doe", true)).cacheKey()).isNotEqualTo(family(new StringParam("DOE", true)).cacheKey());
+
+        assertThat(birthdate("ge1972").cacheKey()).isNotEqualTo(birthdate("gt1972").cacheKey());
+        assertThat(PatientSearchCriteria.builder().identifier(new TokenParam("urn:a", "1")).build().cacheKey())
+                .isNotEqualTo(PatientSearchCriteria.builder().identifier(new TokenParam(null, "1")).build().cacheKey());
+    }
+
+    @Test
+    void separatorsInValuesCannotForgeAnotherSearch() {
+        PatientSearchCriteria forged = family(new StringParam("doe&gender=|female"));
+        PatientSearchCriteria real = PatientSearchCriteria.builder()
+                .family(new StringParam("doe"))
+                .gender(new TokenParam("female"))
+                .build();
+
+        assertThat(forged.cacheKey()).isNotEqualTo(real.cacheKey());
+    }
+
+    @Test
+    void noParametersIsTheEmptyKey() {
+        assertThat(PatientSearchCriteria.builder().build().cacheKey()).isEmpty();
+        assertThat(PatientSearchCriteria.builder().birthdate(new DateRangeParam()).build().cacheKey()).isEmpty();
+    }
+
+    private static PatientSearchCriteria family(StringParam family) {
+        return PatientSearchCriteria.builder().family(family).build();
+    }
+
+    private static PatientSearchCriteria birthdate(String value) {
+        // parsed like the REST layer does; DateRangeParam(DateParam) moves a ge year to its last day
+        DateRangeParam birthdate = new DateRangeParam();
+        birthdate.setValuesAsQueryTokens(FhirContext.forR5Cached(), Patient.SP_BIRTHDATE, List.of(QualifiedParamList.singleton(value)));
+        return PatientSearchCriteria.builder().birthdate(birthdate).build();
+    }
+}
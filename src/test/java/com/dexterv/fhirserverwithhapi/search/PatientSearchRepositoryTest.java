@@ -0,0 +1,170 @@
+package com.dexterv.fhirserverwithhapi.search;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.QualifiedParamList;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import com.dexterv.fhirserverwithhapi.repositories.PatientSearchRepository;
+import org.hl7.fhir.r5.model.DateType;
+import org.hl7.fhir.r5.model.Enumerations;
+import org.hl7.fhir.r5.model.HumanName;
+import org.hl7.fhir.r5.model.Patient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.create;
+import static com.dexterv.fhirserverwithhapi.FhirTestSupport.fhirHeaders;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The SQL search over the index tables, queried directly so the name index does not answer the name
+ * parameters. Every test writes its own Patients through the FHIR endpoint under a family prefix and an
+ * identifier system nobody else uses, and narrows its searches to them.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+class PatientSearchRepositoryTest {
+
+    private static final FhirContext FHIR = FhirContext.forR5Cached();
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private PatientSearchRepository searchRepository;
+
+    private String prefix;
+    private String system;
+    private long alpha;
+    private long alpine;
+    private long beta;
+
+    @BeforeEach
+    void createPatients() {
+        prefix = "Zq" + UUID.randomUUID().toString().replaceAll("[^a-z]", "");
+        system = "urn:test:" + prefix;
+        alpha = create(rest, json(patient(prefix + "alpha", "female", "1970-05-01", system, "A1", "Anna")));
+        alpine = create(rest, json(patient(prefix + "alpine", "male", "1985-01-01", system, "B2", "Bob")));
+        beta = create(rest, json(patient(prefix + "beta", "female", "1990-12-31", "urn:other", "A1", "Cara", "Anna")));
+    }
+
+    @Test
+    void familyMatchesTheStartIgnoringCaseAndAccents() {
+        assertThat(find(criteria().family(new StringParam(prefix + "alp")))).containsExactly(alpha, alpine);
+        assertThat(find(criteria().family(new StringParam(prefix.toUpperCase() + "ÄLP")))).containsExactly(alpha, alpine);
+        assertThat(find(criteria().family(new StringParam(prefix + "lpha")))).isEmpty();
+    }
+
+    @Test
+    void familyExactAndContains() {
+        assertThat(find(criteria().family(new StringParam(prefix + "alpha", true)))).containsExactly(alpha);
+        assertThat(find(criteria().family(new StringParam(prefix + "Alpha", true)))).isEmpty();
+        assertThat(find(criteria().family(new StringParam(prefix.substring(1) + "alp").setContains(true)))).containsExactly(alpha, alpine);
+    }
+
+    @Test
+    void givenMatchesEveryGivenName() {
+        assertThat(find(criteria().family(new StringParam(prefix)).given(new StringParam("ann")))).containsExactly(alpha, beta);
+        assertThat(find(criteria().family(new StringParam(prefix)).given(new StringParam("Car")))).containsExactly(beta);
+    }
+
+    @Test
+    void nameMatchesFamilyOrGiven() {
+        assertThat(find(criteria().name(new StringParam(prefix + "bet")))).containsExactly(beta);
+        assertThat(find(criteria().family(new StringParam(prefix)).name(new StringParam("bob")))).containsExactly(alpine);
+    }
+
+    @Test
+    void genderIsACode() {
+        assertThat(find(criteria().family(new StringParam(prefix)).gender(new TokenParam("female")))).containsExactly(alpha, beta);
+        assertThat(find(criteria().family(new StringParam(prefix)).gender(new TokenParam("MALE")))).containsExactly(alpine);
+    }
+
+    @Test
+    void birthdateRanges() {
+        assertThat(find(criteria().family(new StringParam(prefix)).birthdate(birthdate("ge1980")))).containsExactly(alpine, beta);
+        assertThat(find(criteria().family(new StringParam(prefix)).birthdate(birthdate("ge1980", "lt1990")))).containsExactly(alpine);
+        assertThat(find(criteria().family(new StringParam(prefix)).birthdate(birthdate("1970-05")))).containsExactly(alpha);
+        assertThat(find(criteria().family(new StringParam(prefix)).birthdate(birthdate("lt1970")))).isEmpty();
+    }
+
+    @Test
+    void identifierBySystemAndValue() {
+        assertThat(find(criteria().identifier(new TokenParam(system, "A1")))).containsExactly(alpha);
+        assertThat(find(criteria().identifier(new TokenParam(system, null)))).containsExactly(alpha, alpine);
+        assertThat(find(criteria().family(new StringParam(prefix)).identifier(new TokenParam(null, "A1")))).containsExactly(alpha, beta);
+        assertThat(find(criteria().identifier(new TokenParam(system, "B1")))).isEmpty();
+    }
+
+    @Test
+    void parametersAreCombinedWithAnd() {
+        PatientSearchCriteria criteria = criteria()
+                .family(new StringParam(prefix))
+                .gender(new TokenParam("female"))
+                .birthdate(birthdate("ge1980"))
+                .identifier(new TokenParam(null, "A1"))
+                .build();
+
+        assertThat(searchRepository.findResourceIds(criteria, 10)).containsExactly(beta);
+        assertThat(searchRepository.count(criteria)).isEqualTo(1);
+        assertThat(searchRepository.count(criteria().family(new StringParam(prefix)).build())).isEqualTo(3);
+    }
+
+    @Test
+    void updateReplacesWhatThePreviousVersionIndexed() {
+        Patient changed = patient(prefix + "gamma", "male", "2001-02-03", "urn:other", "C3", "Anna");
+        changed.setId(String.valueOf(alpha));
+        assertThat(rest.exchange("/fhir/Patient/" + alpha, HttpMethod.PUT, new HttpEntity<>(json(changed), fhirHeaders()), String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        assertThat(find(criteria().family(new StringParam(prefix + "alp")))).containsExactly(alpine);
+        assertThat(find(criteria().family(new StringParam(prefix + "gam")))).containsExactly(alpha);
+        assertThat(find(criteria().family(new StringParam(prefix)).gender(new TokenParam("male")))).containsExactly(alpha, alpine);
+        assertThat(find(criteria().family(new StringParam(prefix)).birthdate(birthdate("ge2000")))).containsExactly(alpha);
+        assertThat(find(criteria().family(new StringParam(prefix)).birthdate(birthdate("1970")))).isEmpty();
+        // update only takes name, gender and birthDate, the stored identifiers stay searchable
+        assertThat(find(criteria().identifier(new TokenParam(system, "A1")))).containsExactly(alpha);
+        assertThat(find(criteria().identifier(new TokenParam("urn:other", "C3")))).isEmpty();
+    }
+
+    private List<Long> find(PatientSearchCriteria.PatientSearchCriteriaBuilder criteria) {
+        return searchRepository.findResourceIds(criteria.build(), 10);
+    }
+
+    private static PatientSearchCriteria.PatientSearchCriteriaBuilder criteria() {
+        return PatientSearchCriteria.builder();
+    }
+
+    private static DateRangeParam birthdate(String... values) {
+        DateRangeParam birthdate = new DateRangeParam();
+        birthdate.setValuesAsQueryTokens(FHIR, Patient.SP_BIRTHDATE,
+                Arrays.stream(values).map(QualifiedParamList::singleton).toList());
+        return birthdate;
+    }
+
+    private static Patient patient(String family, String gender, String birthDate, String system, String value, String... given) {
+        Patient patient = new Patient();
+        HumanName name = patient.addName().setFamily(family);
+        Arrays.stream(given).forEach(name::addGiven);
+        patient.setGender(Enumerations.AdministrativeGender.fromCode(gender));
+        patient.setBirthDateElement(new DateType(birthDate));
+        patient.addIdentifier().setSystem(system).setValue(value);
+        return patient;
+    }
+
+    private static String json(Patient patient) {
+        return FHIR.newJsonParser().encodeResourceToString(patient);
+    }
+}